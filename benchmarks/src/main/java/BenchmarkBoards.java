@@ -0,0 +1,71 @@
+import java.awt.*;
+import java.util.Random;
+
+/**
+ * Builds the random boards the benchmark workloads run on
+ */
+public class BenchmarkBoards {
+
+    public static final int WIDTH = 800; // width of the benchmark board (pixels)
+    public static final int HEIGHT = 600; // height of the benchmark board (pixels)
+
+    /**
+     * BenchmarkBoards only has static methods, so it is never constructed
+     */
+    private BenchmarkBoards() {
+    }
+
+    /**
+     * Creates a repeatable mix of rectangles, ovals, lines and
+     * texts scattered over the benchmark board
+     * @param count the number of models to create
+     * @return the models, back to front
+     */
+    public static DShapeModel[] randomModels(int count) {
+        Random random = new Random(42); // fixed seed so every run measures the same board
+        DShapeModel[] models = new DShapeModel[count];
+        for(int i = 0; i < count; i++) {
+            DShapeModel model;
+            switch(i % 4) {
+                case 0:
+                    model = new DRectModel();
+                    break;
+                case 1:
+                    model = new DOvalModel();
+                    break;
+                case 2:
+                    model = new DLineModel();
+                    break;
+                default:
+                    model = new DTextModel();
+                    ((DTextModel)model).setText("Text " + i);
+            }
+            if(model instanceof DLineModel) {
+                ((DLineModel)model).setP1(new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+                ((DLineModel)model).setP2(new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT)));
+            }
+            else {
+                model.setX(random.nextInt(WIDTH));
+                model.setY(random.nextInt(HEIGHT));
+                model.setWidth(10 + random.nextInt(90));
+                model.setHeight(10 + random.nextInt(90));
+            }
+            model.setColor(new Color(random.nextInt(0x1000000)));
+            model.setId(i);
+            models[i] = model;
+        }
+        return models;
+    }
+
+    /**
+     * Creates a canvas holding a random board
+     * @param count the number of shapes on the board
+     * @return the canvas, sized to the benchmark board
+     */
+    public static Canvas randomCanvas(int count) {
+        Canvas canvas = new Canvas();
+        canvas.addShapes(java.util.Arrays.asList(randomModels(count)));
+        canvas.setSize(WIDTH, HEIGHT);
+        return canvas;
+    }
+}
@@ -0,0 +1,29 @@
+import whiteboard.benchmarks.Workload;
+
+import java.io.File;
+
+/**
+ * Saves a board as a binary .wbd file and opens it again
+ */
+public class BinaryRoundTripWorkload implements Workload {
+
+    private DShapeModel[] models; // the board to save
+    private File file; // the file saved to / opened
+
+    @Override
+    public void setUp(int shapeCount) throws Exception {
+        models = BenchmarkBoards.randomModels(shapeCount);
+        file = File.createTempFile("benchmark", BinaryBoardFile.EXTENSION);
+    }
+
+    @Override
+    public Object run() throws Exception {
+        BinaryBoardFile.write(file, models);
+        return BinaryBoardFile.read(file);
+    }
+
+    @Override
+    public void tearDown() {
+        file.delete();
+    }
+}
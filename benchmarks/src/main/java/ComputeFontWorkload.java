@@ -0,0 +1,35 @@
+import whiteboard.benchmarks.Workload;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Sizes the font of a text shape, as DText does every time it is drawn
+ * (DText.computeFont is package-private: this workload shares the
+ * default package with it, and is only created by name through Workloads)
+ */
+public class ComputeFontWorkload implements Workload {
+
+    private DText text; // the text shape to size
+    private Graphics2D graphics; // graphics of an offscreen image, used for font metrics
+
+    @Override
+    public void setUp(int shapeCount) {
+        text = new DText();
+        DTextModel model = (DTextModel)text.getModel();
+        model.setText("Hello");
+        model.setWidth(200);
+        model.setHeight(60);
+        graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+    }
+
+    @Override
+    public Object run() {
+        return text.computeFont(graphics);
+    }
+
+    @Override
+    public void tearDown() {
+        graphics.dispose();
+    }
+}
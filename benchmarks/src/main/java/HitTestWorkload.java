@@ -0,0 +1,40 @@
+import whiteboard.benchmarks.Workload;
+
+import java.util.Random;
+
+/**
+ * Finds the topmost shape under a point, as Whiteboard's
+ * mousePressed does for every click (front to back scan)
+ */
+public class HitTestWorkload implements Workload {
+
+    private static final int POINT_COUNT = 1024; // number of precomputed click points (a power of two)
+
+    private Canvas canvas; // the board to hit-test
+    private int[] xs, ys; // precomputed click points
+    private int next; // index of the next click point
+
+    @Override
+    public void setUp(int shapeCount) {
+        canvas = BenchmarkBoards.randomCanvas(shapeCount);
+        Random random = new Random(7);
+        xs = new int[POINT_COUNT];
+        ys = new int[POINT_COUNT];
+        for(int i = 0; i < POINT_COUNT; i++) {
+            xs[i] = random.nextInt(BenchmarkBoards.WIDTH);
+            ys[i] = random.nextInt(BenchmarkBoards.HEIGHT);
+        }
+        next = 0;
+    }
+
+    @Override
+    public Object run() {
+        int point = next;
+        next = (next + 1) & (POINT_COUNT - 1);
+        return canvas.getShapeAt(xs[point], ys[point]);
+    }
+
+    @Override
+    public void tearDown() {
+    }
+}
@@ -0,0 +1,37 @@
+import whiteboard.benchmarks.Workload;
+
+/**
+ * Changes one shape of a board shown in a shape table, which
+ * notifies the table (ShapeTableModel.modelChanged) and the shape
+ */
+public class ModelChangedWorkload implements Workload {
+
+    private DShapeModel[] models; // the models of the board
+    private ShapeTableModel table; // the table listening to the models
+    private int next; // index of the next model to change
+
+    @Override
+    public void setUp(int shapeCount) {
+        Canvas canvas = BenchmarkBoards.randomCanvas(shapeCount);
+        table = new ShapeTableModel(canvas.getShapeList());
+        table.addShapes(canvas.getShapeList());
+        models = new DShapeModel[shapeCount];
+        for(int i = 0; i < shapeCount; i++) {
+            models[i] = canvas.getShapeList().get(i).getModel();
+        }
+        next = 0;
+    }
+
+    @Override
+    public Object run() {
+        DShapeModel model = models[next];
+        next = (next + 1) % models.length;
+        model.setX(model.getX() ^ 1);
+        return model;
+    }
+
+    @Override
+    public void tearDown() {
+        table.clearData();
+    }
+}
@@ -0,0 +1,37 @@
+import whiteboard.benchmarks.Workload;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Paints the whole canvas into an offscreen image
+ */
+public class PaintWorkload implements Workload {
+
+    private Canvas canvas; // the board to paint
+    private BufferedImage image; // offscreen image painted into
+
+    @Override
+    public void setUp(int shapeCount) {
+        canvas = BenchmarkBoards.randomCanvas(shapeCount);
+        image = new BufferedImage(BenchmarkBoards.WIDTH, BenchmarkBoards.HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Override
+    public Object run() {
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setClip(0, 0, BenchmarkBoards.WIDTH, BenchmarkBoards.HEIGHT);
+            canvas.paintComponent(graphics);
+        }
+        finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    @Override
+    public void tearDown() {
+        image.flush();
+    }
+}
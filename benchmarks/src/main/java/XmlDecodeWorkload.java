@@ -0,0 +1,36 @@
+import whiteboard.benchmarks.Workload;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Decodes a single model from an XML string, as the
+ * client handler does for every network message
+ */
+public class XmlDecodeWorkload implements Workload {
+
+    private byte[] message; // the encoded model
+
+    @Override
+    public void setUp(int shapeCount) {
+        ByteArrayOutputStream memStream = new ByteArrayOutputStream();
+        XMLEncoder encoder = new XMLEncoder(memStream);
+        encoder.writeObject(BenchmarkBoards.randomModels(1)[0]);
+        encoder.close();
+        message = memStream.toByteArray();
+    }
+
+    @Override
+    public Object run() {
+        XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(message));
+        Object model = decoder.readObject();
+        decoder.close();
+        return model;
+    }
+
+    @Override
+    public void tearDown() {
+    }
+}
@@ -0,0 +1,31 @@
+import whiteboard.benchmarks.Workload;
+
+import java.beans.XMLEncoder;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes a single model to an XML string, as
+ * Whiteboard.messageClients does for every network message
+ */
+public class XmlEncodeWorkload implements Workload {
+
+    private DShapeModel model; // the model to encode
+
+    @Override
+    public void setUp(int shapeCount) {
+        model = BenchmarkBoards.randomModels(1)[0];
+    }
+
+    @Override
+    public Object run() {
+        ByteArrayOutputStream memStream = new ByteArrayOutputStream();
+        XMLEncoder encoder = new XMLEncoder(memStream);
+        encoder.writeObject(model);
+        encoder.close();
+        return memStream.toString();
+    }
+
+    @Override
+    public void tearDown() {
+    }
+}
@@ -0,0 +1,54 @@
+import whiteboard.benchmarks.Workload;
+
+import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves a board as an XML file (as saveFile does) and
+ * streams it back in (as openFile does)
+ */
+public class XmlRoundTripWorkload implements Workload {
+
+    private DShapeModel[] models; // the board to save
+    private File file; // the file saved to / opened
+
+    @Override
+    public void setUp(int shapeCount) throws Exception {
+        models = BenchmarkBoards.randomModels(shapeCount);
+        file = File.createTempFile("benchmark", ".xml");
+    }
+
+    @Override
+    public Object run() throws Exception {
+        XMLEncoder fileEncoder = new XMLEncoder(new BufferedOutputStream(new FileOutputStream(file)));
+        fileEncoder.writeObject(models);
+        fileEncoder.close();
+
+        List<DShapeModel> loaded = new ArrayList<DShapeModel>(models.length);
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            XmlBoardReader reader = new XmlBoardReader(in);
+            DShapeModel model;
+            while((model = reader.next()) != null) {
+                loaded.add(model);
+            }
+            reader.close();
+        }
+        finally {
+            in.close();
+        }
+        return loaded;
+    }
+
+    @Override
+    public void tearDown() {
+        file.delete();
+    }
+}
@@ -0,0 +1,66 @@
+package whiteboard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the operations whose cost grows with the
+ * number of shapes on the board
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class BoardBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int shapes; // number of shapes on the board
+
+    @Param({"HitTestWorkload", "PaintWorkload", "ModelChangedWorkload", "BinaryRoundTripWorkload", "XmlRoundTripWorkload"})
+    public String workload; // name of the default-package Workload class to run
+
+    private Workload target; // the workload being measured
+
+    /**
+     * Creates the workload and its board
+     * @throws Exception if the workload cannot be set up
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        target = Workloads.create(workload, shapes);
+    }
+
+    /**
+     * Cleans up after the workload
+     * @throws Exception if cleaning up fails
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        target.tearDown();
+    }
+
+    /**
+     * Runs the workload once
+     * @return the result of the workload
+     * @throws Exception if the workload fails
+     */
+    @Benchmark
+    public Object run() throws Exception {
+        return target.run();
+    }
+}
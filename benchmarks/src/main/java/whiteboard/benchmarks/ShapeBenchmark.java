@@ -0,0 +1,63 @@
+package whiteboard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-shape operations: encoding / decoding a
+ * single model as the networking code does, and sizing text
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class ShapeBenchmark {
+
+    @Param({"XmlEncodeWorkload", "XmlDecodeWorkload", "ComputeFontWorkload"})
+    public String workload; // name of the default-package Workload class to run
+
+    private Workload target; // the workload being measured
+
+    /**
+     * Creates the workload
+     * @throws Exception if the workload cannot be set up
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        target = Workloads.create(workload, 1);
+    }
+
+    /**
+     * Cleans up after the workload
+     * @throws Exception if cleaning up fails
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        target.tearDown();
+    }
+
+    /**
+     * Runs the workload once
+     * @return the result of the workload
+     * @throws Exception if the workload fails
+     */
+    @Benchmark
+    public Object run() throws Exception {
+        return target.run();
+    }
+}
@@ -0,0 +1,31 @@
+package whiteboard.benchmarks;
+
+/**
+ * A piece of Whiteboard code to benchmark. The Whiteboard classes
+ * live in the default package, which classes in a named package
+ * (as JMH requires benchmarks to be) cannot refer to. So every
+ * workload is a default-package class, loaded by name and
+ * driven through this interface
+ */
+public interface Workload {
+
+    /**
+     * Builds everything the workload needs before it is measured
+     * @param shapeCount the number of shapes on the board
+     * @throws Exception if the workload cannot be set up
+     */
+    void setUp(int shapeCount) throws Exception;
+
+    /**
+     * Runs the measured operation once
+     * @return a result of the operation (consumed by JMH so it is not optimized away)
+     * @throws Exception if the operation fails
+     */
+    Object run() throws Exception;
+
+    /**
+     * Releases anything the workload still holds (files, images)
+     * @throws Exception if cleaning up fails
+     */
+    void tearDown() throws Exception;
+}
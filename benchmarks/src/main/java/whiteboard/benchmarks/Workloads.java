@@ -0,0 +1,26 @@
+package whiteboard.benchmarks;
+
+/**
+ * Creates the default-package Workload classes by name
+ */
+public class Workloads {
+
+    /**
+     * Workloads only has static methods, so it is never constructed
+     */
+    private Workloads() {
+    }
+
+    /**
+     * Creates and sets up the named workload
+     * @param className the name of the default-package Workload class
+     * @param shapeCount the number of shapes on the board
+     * @return the workload, ready to run
+     * @throws Exception if the workload cannot be created or set up
+     */
+    public static Workload create(String className, int shapeCount) throws Exception {
+        Workload workload = (Workload)Class.forName(className).getDeclaredConstructor().newInstance();
+        workload.setUp(shapeCount);
+        return workload;
+    }
+}
@@ -0,0 +1,406 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the compact binary whiteboard file format
+ * (the faster alternative to the XMLEncoder format). A file is laid out as
+ *
+ *   header:       magic, version, shape count, string count, image count (5 ints)
+ *   string table: for each string, its UTF-8 byte length followed by the bytes
+ *   image table:  for each picture used, its byte length followed by its encoded bytes
+ *   shape table:  one fixed-size record per shape, back to front
+ *
+ * where a shape record is the ints type, id, x, y, width, height, rgb,
+ * text string index, font string index, font style and font size (type
+ * tags are the ShapeStore constants; for lines, (x, y) is p1 and
+ * (x + width, y + height) is p2; for images, the text string is the hash
+ * of the picture, whose bytes are stored once in the image table however
+ * many shapes use it). Version 1 files (without the image count and
+ * image table) can still be read. Files are read through a memory-mapped
+ * buffer and written through a file channel with a direct buffer
+ */
+public class BinaryBoardFile {
+
+    public static final String EXTENSION = ".wbd"; // file extension used for binary boards
+    public static final int MAGIC = 0x57424431; // "WBD1", the first four bytes of every binary board
+    public static final int VERSION = 2; // current version of the format
+
+    private static final int HEADER_SIZE = 4 * 4; // bytes in the header (of a version 1 file, the shortest)
+    static final int RECORD_SIZE = 11 * 4; // bytes in a shape record
+    private static final int NO_STRING = -1; // string index stored for shapes without text / font
+    private static final int BUFFER_SIZE = 64 * 1024; // size of the direct buffer used for writing
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * BinaryBoardFile only has static methods, so it is never constructed
+     */
+    private BinaryBoardFile() {
+    }
+
+    /**
+     * Checks whether the file starts with the binary board magic bytes
+     * @param file the file to check
+     * @return true if the file is a binary board
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isBinaryBoard(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.length() >= 4 && in.readInt() == MAGIC;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the argument models (back to front) to the file
+     * @param file the file to write
+     * @param models the models to save
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, DShapeModel[] models) throws IOException {
+        // first pass: collect the distinct strings (texts / font names) into the string table
+        List<String> strings = new ArrayList<String>();
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        collectStrings(models, strings, stringIndexes);
+        List<byte[]> images = collectImages(models);
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(models.length);
+            buffer.putInt(strings.size());
+            buffer.putInt(images.size());
+
+            writeStrings(channel, buffer, strings);
+            writeImages(channel, buffer, images);
+
+            for(DShapeModel model : models) {
+                ensureRoom(channel, buffer, RECORD_SIZE);
+                writeRecord(buffer, model, stringIndexes);
+            }
+
+            flush(channel, buffer);
+            channel.force(false);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads every model (back to front) from the file
+     * @param file the file to read
+     * @return the models saved in the file
+     * @throws IOException if the file cannot be read or is not a valid binary board
+     */
+    public static DShapeModel[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            if(channel.size() < HEADER_SIZE) {
+                throw new IOException("File \"" + file + "\" is too short to be a binary board");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if(buffer.getInt() != MAGIC) {
+                throw new IOException("File \"" + file + "\" is not a binary board");
+            }
+            int version = buffer.getInt();
+            if(version != 1 && version != VERSION) {
+                throw new IOException("Unsupported binary board version " + version);
+            }
+            int shapeCount = buffer.getInt();
+            int stringCount = buffer.getInt();
+            int imageCount = version == 1 ? 0 : buffer.getInt();
+
+            String[] strings = readStrings(buffer, stringCount);
+            readImages(buffer, imageCount);
+
+            if(buffer.remaining() < (long)shapeCount * RECORD_SIZE) {
+                throw new IOException("File \"" + file + "\" is truncated");
+            }
+            DShapeModel[] models = new DShapeModel[shapeCount];
+            for(int i = 0; i < shapeCount; i++) {
+                models[i] = readRecord(buffer, strings);
+            }
+            return models;
+        }
+        catch(RuntimeException ex) { // buffer underflows / bad indexes mean the file is corrupt
+            throw new IOException("File \"" + file + "\" is not a valid binary board", ex);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Collects the distinct strings (texts / font names) of the models
+     * into a string table
+     * @param models the models to collect the strings of
+     * @param strings the string table to fill
+     * @param stringIndexes the map to fill with the index of every string in the table
+     */
+    static void collectStrings(DShapeModel[] models, List<String> strings, Map<String, Integer> stringIndexes) {
+        for(DShapeModel model : models) {
+            if(model instanceof DTextModel) {
+                DTextModel textModel = (DTextModel)model;
+                internString(textModel.getText(), strings, stringIndexes);
+                if(textModel.getTextFont() != null) {
+                    internString(textModel.getTextFont().getName(), strings, stringIndexes);
+                }
+            }
+            else if(model instanceof DImageModel) {
+                internString(((DImageModel)model).getImageHash(), strings, stringIndexes);
+            }
+        }
+    }
+
+    /**
+     * Collects the encoded bytes of the distinct pictures the models use
+     * (pictures missing from the ImageStore are left out)
+     * @param models the models to collect the pictures of
+     * @return the encoded bytes of every picture used, each once
+     */
+    static List<byte[]> collectImages(DShapeModel[] models) {
+        List<byte[]> images = new ArrayList<byte[]>();
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        for(DShapeModel model : models) {
+            if(model instanceof DImageModel) {
+                String hash = ((DImageModel)model).getImageHash();
+                byte[] bytes = ImageStore.get(hash);
+                if(bytes != null && !seen.containsKey(hash)) {
+                    seen.put(hash, images.size());
+                    images.add(bytes);
+                }
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Writes a string table (each string as its UTF-8 byte
+     * length followed by the bytes) through the buffer
+     * @param channel the channel to write to
+     * @param buffer the buffer being filled
+     * @param strings the string table to write
+     * @throws IOException if writing fails
+     */
+    static void writeStrings(FileChannel channel, ByteBuffer buffer, List<String> strings) throws IOException {
+        for(String string : strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            ensureRoom(channel, buffer, 4);
+            buffer.putInt(bytes.length);
+            int written = 0;
+            while(written < bytes.length) { // strings may be longer than the buffer
+                ensureRoom(channel, buffer, 1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, chunk);
+                written += chunk;
+            }
+        }
+    }
+
+    /**
+     * Writes an image table (each picture as its byte length
+     * followed by its encoded bytes) through the buffer
+     * @param channel the channel to write to
+     * @param buffer the buffer being filled
+     * @param images the encoded bytes of every picture
+     * @throws IOException if writing fails
+     */
+    static void writeImages(FileChannel channel, ByteBuffer buffer, List<byte[]> images) throws IOException {
+        for(byte[] bytes : images) {
+            ensureRoom(channel, buffer, 4);
+            buffer.putInt(bytes.length);
+            int written = 0;
+            while(written < bytes.length) { // pictures are usually longer than the buffer
+                ensureRoom(channel, buffer, 1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, chunk);
+                written += chunk;
+            }
+        }
+    }
+
+    /**
+     * Reads an image table written by writeImages, adding
+     * every picture to the ImageStore
+     * @param buffer the buffer to read from
+     * @param imageCount the number of pictures in the table
+     */
+    static void readImages(ByteBuffer buffer, int imageCount) {
+        for(int i = 0; i < imageCount; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            ImageStore.put(bytes);
+        }
+    }
+
+    /**
+     * Reads a string table written by writeStrings
+     * @param buffer the buffer to read from
+     * @param stringCount the number of strings in the table
+     * @return the strings of the table
+     */
+    static String[] readStrings(ByteBuffer buffer, int stringCount) {
+        String[] strings = new String[stringCount];
+        for(int i = 0; i < stringCount; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * Writes a single shape record into the buffer
+     * @param buffer the buffer to write into (must have RECORD_SIZE bytes remaining)
+     * @param model the model to write
+     * @param stringIndexes the string table indexes of every text / font name
+     */
+    static void writeRecord(ByteBuffer buffer, DShapeModel model, Map<String, Integer> stringIndexes) {
+        int type = ShapeStore.typeOf(model);
+        buffer.putInt(type);
+        buffer.putInt(model.getId());
+        if(type == ShapeStore.TYPE_LINE) {
+            Point p1 = ((DLineModel)model).getP1();
+            Point p2 = ((DLineModel)model).getP2();
+            buffer.putInt(p1.x);
+            buffer.putInt(p1.y);
+            buffer.putInt(p2.x - p1.x);
+            buffer.putInt(p2.y - p1.y);
+        }
+        else {
+            buffer.putInt(model.getX());
+            buffer.putInt(model.getY());
+            buffer.putInt(model.getWidth());
+            buffer.putInt(model.getHeight());
+        }
+        buffer.putInt(model.getColor().getRGB());
+
+        int textIndex = NO_STRING;
+        int fontIndex = NO_STRING;
+        int fontStyle = Font.PLAIN;
+        int fontSize = 1;
+        if(type == ShapeStore.TYPE_TEXT) {
+            DTextModel textModel = (DTextModel)model;
+            Font font = textModel.getTextFont();
+            textIndex = textModel.getText() == null ? NO_STRING : stringIndexes.get(textModel.getText());
+            if(font != null) {
+                fontIndex = stringIndexes.get(font.getName());
+                fontStyle = font.getStyle();
+                fontSize = font.getSize();
+            }
+        }
+        else if(type == ShapeStore.TYPE_IMAGE) {
+            String hash = ((DImageModel)model).getImageHash();
+            textIndex = hash == null ? NO_STRING : stringIndexes.get(hash);
+        }
+        buffer.putInt(textIndex);
+        buffer.putInt(fontIndex);
+        buffer.putInt(fontStyle);
+        buffer.putInt(fontSize);
+    }
+
+    /**
+     * Reads a single shape record from the buffer
+     * @param buffer the buffer to read from
+     * @param strings the string table of the file
+     * @return the model described by the record
+     */
+    static DShapeModel readRecord(ByteBuffer buffer, String[] strings) {
+        int type = buffer.getInt();
+        int id = buffer.getInt();
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int rgb = buffer.getInt();
+        int textIndex = buffer.getInt();
+        int fontIndex = buffer.getInt();
+        int fontStyle = buffer.getInt();
+        int fontSize = buffer.getInt();
+
+        DShapeModel model = ShapeStore.newModel(type);
+        model.setColor(new Color(rgb, true));
+        if(type == ShapeStore.TYPE_LINE) {
+            ((DLineModel)model).setP1(new Point(x, y));
+            ((DLineModel)model).setP2(new Point(x + width, y + height));
+        }
+        else {
+            model.setX(x);
+            model.setY(y);
+            model.setWidth(width);
+            model.setHeight(height);
+        }
+        if(type == ShapeStore.TYPE_TEXT) {
+            DTextModel textModel = (DTextModel)model;
+            textModel.setText(textIndex == NO_STRING ? null : strings[textIndex]);
+            if(fontIndex != NO_STRING) {
+                textModel.setTextFont(new Font(strings[fontIndex], fontStyle, fontSize));
+            }
+        }
+        else if(type == ShapeStore.TYPE_IMAGE) {
+            ((DImageModel)model).setImageHash(textIndex == NO_STRING ? null : strings[textIndex]);
+        }
+        model.setId(id);
+        return model;
+    }
+
+    /**
+     * Adds the string to the string table if it is not already in it
+     * @param string the string to add (null is ignored)
+     * @param strings the string table
+     * @param stringIndexes the index of every string already in the table
+     */
+    private static void internString(String string, List<String> strings, Map<String, Integer> stringIndexes) {
+        if(string != null && !stringIndexes.containsKey(string)) {
+            stringIndexes.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    /**
+     * Writes out the buffer if it has less than the needed room left
+     * @param channel the channel to write to
+     * @param buffer the buffer being filled
+     * @param needed the number of bytes about to be put into the buffer
+     * @throws IOException if writing fails
+     */
+    static void ensureRoom(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if(buffer.remaining() < needed) {
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes everything in the buffer to the channel and empties the buffer
+     * @param channel the channel to write to
+     * @param buffer the buffer to write out
+     * @throws IOException if writing fails
+     */
+    static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,264 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shared least-recently-used cache of decoded pictures, kept within
+ * a memory budget. Every picture can be cached at a series of levels,
+ * level n being the picture scaled down by 2^n, and a shape is drawn
+ * from the smallest level that is still at least as large as the
+ * shape on screen, so a screenshot shrunk to a thumbnail only keeps a
+ * thumbnail-sized bitmap in memory. Small levels are decoded with
+ * subsampling straight from the encoded bytes (finished with one
+ * smoothing halving step), so the full-size picture is never decoded
+ * just to be thrown away.
+ *
+ * The budget is 64 MB of pixels unless the system property
+ * "whiteboard.bitmapCacheMegabytes" says otherwise
+ */
+public class BitmapCache {
+
+    private static final long DEFAULT_BUDGET = 64L * 1024 * 1024; // bytes of pixels kept by default
+    private static final int MAX_LEVEL = 16; // smallest level (the picture scaled down by 2^16)
+    private static final int BYTES_PER_PIXEL = 4; // cached bitmaps are always packed ARGB
+    private static final BitmapCache shared = new BitmapCache(Long.getLong("whiteboard.bitmapCacheMegabytes", DEFAULT_BUDGET >> 20) << 20);
+
+    private long budget; // most bytes of pixels to keep
+    private long usedBytes; // bytes of pixels currently kept
+    private LinkedHashMap<String, BufferedImage> bitmaps; // cached levels, least recently used first (keyed by hash and level)
+    private Map<String, Dimension> sourceSizes; // full size of every picture looked at
+    private Set<String> undecodable; // hashes of pictures that failed to decode (never tried again)
+
+    /**
+     * Creates a new, empty cache
+     * @param budget the most bytes of pixels to keep
+     */
+    public BitmapCache(long budget) {
+        this.budget = budget;
+        usedBytes = 0;
+        bitmaps = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true); // access order
+        sourceSizes = new HashMap<String, Dimension>();
+        undecodable = new HashSet<String>();
+    }
+
+    /**
+     * Returns the cache shared by every shape
+     * @return the shared cache
+     */
+    public static BitmapCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Returns the bytes of pixels currently kept
+     * @return the bytes of pixels currently kept
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the full size of a picture (read from the header
+     * of the encoded bytes, without decoding the pixels)
+     * @param hash the hash of the picture in the ImageStore
+     * @return the size of the picture, or null if it is not stored or cannot be read
+     */
+    public Dimension getSourceSize(String hash) {
+        synchronized(this) {
+            Dimension size = sourceSizes.get(hash);
+            if(size != null || undecodable.contains(hash)) {
+                return size == null ? null : new Dimension(size);
+            }
+        }
+        byte[] bytes = ImageStore.get(hash);
+        if(bytes == null) {
+            return null; // (may still arrive, so it is not marked undecodable)
+        }
+        Dimension size = null;
+        try {
+            ImageReader reader = openReader(bytes);
+            if(reader != null) {
+                try {
+                    size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+                }
+                finally {
+                    closeReader(reader);
+                }
+            }
+        }
+        catch(IOException ex) {
+            // treated as undecodable below
+        }
+        synchronized(this) {
+            if(size == null) {
+                undecodable.add(hash);
+                return null;
+            }
+            sourceSizes.put(hash, size);
+        }
+        return new Dimension(size);
+    }
+
+    /**
+     * Returns a bitmap of a picture at least as large as the size it
+     * is drawn at (or the full-size picture, if that is smaller),
+     * decoding it if no suitable level is cached
+     * @param hash the hash of the picture in the ImageStore
+     * @param width the width the picture is drawn at (device pixels)
+     * @param height the height the picture is drawn at (device pixels)
+     * @return the bitmap to draw (never to be changed), or null if the picture is not stored or cannot be decoded
+     */
+    public BufferedImage get(String hash, int width, int height) {
+        Dimension size = getSourceSize(hash);
+        if(size == null) {
+            return null;
+        }
+        int level = 0;
+        while(level < MAX_LEVEL && (size.width >> (level + 1)) >= Math.max(width, 1) && (size.height >> (level + 1)) >= Math.max(height, 1)) {
+            level++;
+        }
+
+        String key = hash + "@" + level;
+        synchronized(this) {
+            BufferedImage bitmap = bitmaps.get(key);
+            if(bitmap != null) {
+                return bitmap;
+            }
+        }
+        BufferedImage bitmap = decode(hash, level); // (outside the lock, so other pictures can be drawn meanwhile)
+        synchronized(this) {
+            if(bitmap == null) {
+                undecodable.add(hash);
+                return null;
+            }
+            long bytes = sizeOf(bitmap);
+            if(bytes <= budget && !bitmaps.containsKey(key)) { // a bitmap larger than the whole budget is drawn once, never kept
+                bitmaps.put(key, bitmap);
+                usedBytes += bytes;
+                evict(key);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Drops every cached bitmap
+     */
+    public synchronized void clear() {
+        bitmaps.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * Drops least recently used bitmaps until the cache is within its budget
+     * @param keep the key of the bitmap just added (never dropped)
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, BufferedImage>> entries = bitmaps.entrySet().iterator();
+        while(usedBytes > budget && entries.hasNext()) {
+            Map.Entry<String, BufferedImage> entry = entries.next();
+            if(!entry.getKey().equals(keep)) {
+                usedBytes -= sizeOf(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Decodes a level of a picture: level 0 is decoded whole, any other
+     * level is decoded subsampled to twice its size and then halved
+     * with smoothing (so thin lines and text survive the shrinking)
+     * @param hash the hash of the picture
+     * @param level the level to decode
+     * @return the decoded level as a packed ARGB bitmap, or null if it cannot be decoded
+     */
+    private static BufferedImage decode(String hash, int level) {
+        byte[] bytes = ImageStore.get(hash);
+        if(bytes == null) {
+            return null;
+        }
+        try {
+            ImageReader reader = openReader(bytes);
+            if(reader == null) {
+                return null;
+            }
+            BufferedImage decoded;
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                if(level > 1) {
+                    int subsampling = 1 << (level - 1);
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                decoded = reader.read(0, param);
+            }
+            finally {
+                closeReader(reader);
+            }
+
+            int width = level == 0 ? decoded.getWidth() : Math.max(decoded.getWidth() / 2, 1);
+            int height = level == 0 ? decoded.getHeight() : Math.max(decoded.getHeight() / 2, 1);
+            BufferedImage bitmap = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = bitmap.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(decoded, 0, 0, width, height, null);
+            g.dispose();
+            return bitmap;
+        }
+        catch(IOException ex) {
+            return null;
+        }
+        catch(RuntimeException ex) { // malformed pictures can make decoders throw anything
+            return null;
+        }
+    }
+
+    /**
+     * Opens an image reader over encoded bytes
+     * @param bytes the encoded picture
+     * @return a reader positioned at the picture, or null if no reader understands the bytes
+     * @throws IOException if the bytes cannot be read
+     */
+    private static ImageReader openReader(byte[] bytes) throws IOException {
+        ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes)); // (never a temporary file)
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if(!readers.hasNext()) {
+            in.close();
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    /**
+     * Releases an image reader and closes its input
+     * @param reader the reader opened by openReader
+     * @throws IOException if closing the input fails
+     */
+    private static void closeReader(ImageReader reader) throws IOException {
+        ImageInputStream in = (ImageInputStream)reader.getInput();
+        reader.dispose();
+        in.close();
+    }
+
+    /**
+     * Returns the memory a cached bitmap takes
+     * @param bitmap the bitmap
+     * @return the bytes of pixels of the bitmap
+     */
+    private static long sizeOf(BufferedImage bitmap) {
+        return (long)bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+    }
+}
@@ -0,0 +1,673 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Structural diff and three-way merge of saved boards. Shapes are
+ * matched by id through hash maps (a shape whose class changed counts as
+ * removed and added), and the z-order is compared through the longest
+ * run of matched shapes still in the same relative order, so only the
+ * shapes outside it count as re-ordered. Both run in O(n log n) time,
+ * which keeps boards of 100k shapes quick enough to diff in a build.
+ *
+ * Run on its own, "java BoardDiff old new" prints the changes between
+ * two boards (exiting with 1 if there are any) and "java BoardDiff base
+ * ours theirs merged" merges two edits of the same board (exiting with 1
+ * if there were conflicts, which are resolved in favour of ours)
+ */
+public class BoardDiff {
+
+    public static final int ADDED = 1; // the shape is only on the new board
+    public static final int REMOVED = 1 << 1; // the shape is only on the old board
+    public static final int MOVED = 1 << 2; // the position of the shape changed
+    public static final int RESIZED = 1 << 3; // the size of the shape changed
+    public static final int RESTYLED = 1 << 4; // the color, text, font or picture of the shape changed
+    public static final int REORDERED = 1 << 5; // the shape moved in front of / behind other shapes
+
+    private static final String[] KIND_NAMES = {"added", "removed", "moved", "resized", "restyled", "re-ordered"}; // names of the change bits, lowest first
+    private static final int[] MERGE_GROUPS = {MOVED, RESIZED, RESTYLED}; // parts of a shape merged independently
+
+    /**
+     * BoardDiff only has static methods, so it is never constructed
+     */
+    private BoardDiff() {
+    }
+
+    /**
+     * Compares two versions of a board
+     * @param oldModels the models of the old board, back to front
+     * @param newModels the models of the new board, back to front
+     * @return the changed shapes: the shapes of the new board in z-order,
+     *         then the removed shapes in their old z-order
+     */
+    public static List<Change> diff(DShapeModel[] oldModels, DShapeModel[] newModels) {
+        Map<Integer, Integer> oldIndexes = indexById(oldModels);
+        boolean[] matched = new boolean[oldModels.length];
+        List<Change> changes = new ArrayList<Change>();
+        int[] matchedOld = new int[newModels.length]; // old index of every matched shape, in new z-order
+        int[] matchedNew = new int[newModels.length]; // new index of the same shapes
+        int matchCount = 0;
+        Change[] changesByNew = new Change[newModels.length];
+
+        for(int i = 0; i < newModels.length; i++) {
+            Integer oldIndex = oldIndexes.get(newModels[i].getId());
+            if(oldIndex == null || !sameClass(oldModels[oldIndex], newModels[i])) {
+                changesByNew[i] = new Change(newModels[i].getId(), ADDED, null, newModels[i]);
+                continue;
+            }
+            matched[oldIndex] = true;
+            matchedOld[matchCount] = oldIndex;
+            matchedNew[matchCount] = i;
+            matchCount++;
+            changesByNew[i] = new Change(newModels[i].getId(), compare(oldModels[oldIndex], newModels[i]), oldModels[oldIndex], newModels[i]);
+        }
+
+        // matched shapes outside the longest run still in the old order are the re-ordered ones
+        boolean[] inOrder = longestIncreasing(matchedOld, matchCount);
+        for(int k = 0; k < matchCount; k++) {
+            if(!inOrder[k]) {
+                changesByNew[matchedNew[k]].kinds |= REORDERED;
+            }
+        }
+
+        for(Change change : changesByNew) {
+            if(change.kinds != 0) {
+                changes.add(change);
+            }
+        }
+        for(int i = 0; i < oldModels.length; i++) {
+            if(!matched[i]) {
+                changes.add(new Change(oldModels[i].getId(), REMOVED, oldModels[i], null));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Merges two boards edited separately from the same base. The
+     * position, size and style of every shape are merged on their own,
+     * taking whichever side changed them; the z-order is taken from the
+     * side that re-ordered shapes (ours, if both did), with the shapes
+     * only the other side has placed after the shape they followed
+     * there. Shapes both sides added under the same id are both kept,
+     * theirs under a new id. Anything both sides changed differently,
+     * or removed on one side and changed on the other, is a conflict;
+     * conflicts keep ours (or the changed shape, over a removal)
+     * @param base the models of the board both sides started from
+     * @param ours the models of our edit of the board
+     * @param theirs the models of their edit of the board
+     * @return the merged board and its conflicts
+     */
+    public static Merge merge(DShapeModel[] base, DShapeModel[] ours, DShapeModel[] theirs) {
+        Map<Integer, DShapeModel> baseById = modelsById(base);
+        Map<Integer, DShapeModel> oursById = modelsById(ours);
+        Map<Integer, DShapeModel> theirsById = modelsById(theirs);
+        List<String> conflicts = new ArrayList<String>();
+        Map<Integer, DShapeModel> mergedOurs = new HashMap<Integer, DShapeModel>(); // merged model kept for each of our ids
+        Map<Integer, DShapeModel> mergedTheirs = new HashMap<Integer, DShapeModel>(); // merged model kept for each of their ids
+        int nextId = Math.max(maxId(base), Math.max(maxId(ours), maxId(theirs))) + 1;
+
+        // merge every shape of either side
+        for(DShapeModel ourModel : ours) {
+            int id = ourModel.getId();
+            if(mergedOurs.containsKey(id)) {
+                continue; // (a repeated id: only the first shape with it takes part)
+            }
+            DShapeModel baseModel = baseById.get(id);
+            DShapeModel theirModel = theirsById.get(id);
+            if(baseModel == null) {
+                mergedOurs.put(id, ourModel);
+                if(theirModel != null) { // added on both sides
+                    if(sameClass(ourModel, theirModel) && compare(ourModel, theirModel) == 0) {
+                        mergedTheirs.put(id, ourModel);
+                    }
+                    else {
+                        DShapeModel renumbered = copyOf(theirModel);
+                        renumbered.setId(nextId++);
+                        mergedTheirs.put(id, renumbered);
+                    }
+                }
+            }
+            else if(theirModel == null) { // removed by them
+                if(!unchanged(baseModel, ourModel)) {
+                    conflicts.add("Shape " + id + " was changed in ours but removed in theirs (kept)");
+                    mergedOurs.put(id, ourModel);
+                }
+            }
+            else {
+                DShapeModel merged = mergeShape(baseModel, ourModel, theirModel, conflicts);
+                mergedOurs.put(id, merged);
+                mergedTheirs.put(id, merged);
+            }
+        }
+        for(DShapeModel theirModel : theirs) {
+            int id = theirModel.getId();
+            if(mergedTheirs.containsKey(id) || oursById.containsKey(id)) {
+                continue; // (merged above)
+            }
+            DShapeModel baseModel = baseById.get(id);
+            if(baseModel == null) { // added by them only
+                mergedTheirs.put(id, theirModel);
+            }
+            else if(!unchanged(baseModel, theirModel)) { // removed by us
+                conflicts.add("Shape " + id + " was removed in ours but changed in theirs (kept)");
+                mergedTheirs.put(id, theirModel);
+            }
+        }
+
+        // lay the shapes out in the z-order of the side that re-ordered them
+        boolean oursReordered = hasKind(diff(base, ours), REORDERED);
+        boolean theirsReordered = hasKind(diff(base, theirs), REORDERED);
+        if(oursReordered && theirsReordered) {
+            conflicts.add("Both sides re-ordered shapes (our order kept)");
+        }
+        DShapeModel[] models;
+        if(!oursReordered && theirsReordered) {
+            models = mergeOrder(theirs, mergedTheirs, ours, mergedOurs);
+        }
+        else {
+            models = mergeOrder(ours, mergedOurs, theirs, mergedTheirs);
+        }
+        return new Merge(models, conflicts);
+    }
+
+    /**
+     * Merges one shape both sides still have, part by part
+     * @param baseModel the shape on the base board
+     * @param ourModel the shape on our board
+     * @param theirModel the shape on their board
+     * @param conflicts the list conflicts are reported to
+     * @return the merged shape
+     */
+    private static DShapeModel mergeShape(DShapeModel baseModel, DShapeModel ourModel, DShapeModel theirModel, List<String> conflicts) {
+        int id = ourModel.getId();
+        if(!sameClass(baseModel, ourModel) || !sameClass(baseModel, theirModel)) { // a side replaced the shape: merge it whole
+            if(unchanged(baseModel, theirModel)) {
+                return ourModel;
+            }
+            if(unchanged(baseModel, ourModel) || (sameClass(ourModel, theirModel) && compare(ourModel, theirModel) == 0)) {
+                return theirModel;
+            }
+            conflicts.add("Shape " + id + " was replaced differently on both sides (ours kept)");
+            return ourModel;
+        }
+
+        int ourChanges = compare(baseModel, ourModel);
+        int theirChanges = compare(baseModel, theirModel);
+        if(theirChanges == 0) {
+            return ourModel;
+        }
+        if(ourChanges == 0) {
+            return theirModel;
+        }
+        DShapeModel[] sources = new DShapeModel[MERGE_GROUPS.length]; // side each part is taken from
+        int bothChanged = ourChanges & theirChanges & compare(ourModel, theirModel);
+        for(int g = 0; g < MERGE_GROUPS.length; g++) {
+            sources[g] = (theirChanges & ~ourChanges & MERGE_GROUPS[g]) != 0 ? theirModel : ourModel;
+            if((bothChanged & MERGE_GROUPS[g]) != 0) {
+                conflicts.add("Shape " + id + " was " + kindsToString(MERGE_GROUPS[g]) + " differently on both sides (ours kept)");
+            }
+        }
+
+        DShapeModel merged = copyOf(sources[2]); // style (and everything else, overwritten below)
+        DShapeModel position = sources[0];
+        DShapeModel size = sources[1];
+        if(merged instanceof DLineModel) {
+            int x = originX(position), y = originY(position);
+            ((DLineModel)merged).setP1(new Point(x, y));
+            ((DLineModel)merged).setP2(new Point(x + extentX(size), y + extentY(size)));
+        }
+        else {
+            merged.setX(position.getX());
+            merged.setY(position.getY());
+            merged.setWidth(size.getWidth());
+            merged.setHeight(size.getHeight());
+        }
+        return merged;
+    }
+
+    /**
+     * Lays out the merged shapes: in the z-order of the primary side,
+     * with the shapes the primary side does not have placed right after
+     * the shape they followed on the other side
+     * @param primary the models of the side whose z-order is kept
+     * @param primaryMerged the merged model kept for each id of the primary side
+     * @param secondary the models of the other side
+     * @param secondaryMerged the merged model kept for each id of the other side
+     * @return the merged models, back to front
+     */
+    private static DShapeModel[] mergeOrder(DShapeModel[] primary, Map<Integer, DShapeModel> primaryMerged,
+                                            DShapeModel[] secondary, Map<Integer, DShapeModel> secondaryMerged) {
+        Set<Integer> placed = new HashSet<Integer>(); // merged ids the primary side places
+        for(DShapeModel model : primary) {
+            DShapeModel merged = primaryMerged.get(model.getId());
+            if(merged != null) {
+                placed.add(merged.getId());
+            }
+        }
+
+        // attach every shape only the other side has to the shape before it there
+        Map<Integer, List<DShapeModel>> followers = new HashMap<Integer, List<DShapeModel>>(); // by merged id of the shape followed
+        List<DShapeModel> front = new ArrayList<DShapeModel>(); // shapes with nothing kept before them
+        Integer previous = null;
+        for(DShapeModel model : secondary) {
+            DShapeModel merged = secondaryMerged.get(model.getId());
+            if(merged == null) {
+                continue; // (removed)
+            }
+            if(!placed.contains(merged.getId())) {
+                List<DShapeModel> list = front;
+                if(previous != null) {
+                    list = followers.get(previous);
+                    if(list == null) {
+                        list = new ArrayList<DShapeModel>();
+                        followers.put(previous, list);
+                    }
+                }
+                list.add(merged);
+            }
+            previous = merged.getId();
+        }
+
+        // walk the primary order, emitting the followers of each shape right after it
+        List<DShapeModel> models = new ArrayList<DShapeModel>(primary.length + secondary.length);
+        Set<Integer> emitted = new HashSet<Integer>();
+        Deque<DShapeModel> pending = new ArrayDeque<DShapeModel>(); // (a stack, so long runs of followers never recurse deeply)
+        for(int i = front.size() - 1; i >= 0; i--) {
+            pending.push(front.get(i));
+        }
+        int next = 0;
+        while(!pending.isEmpty() || next < primary.length) {
+            DShapeModel model;
+            if(!pending.isEmpty()) {
+                model = pending.pop();
+            }
+            else {
+                model = primaryMerged.get(primary[next++].getId());
+                if(model == null) {
+                    continue; // (removed)
+                }
+            }
+            if(!emitted.add(model.getId())) {
+                continue;
+            }
+            models.add(model);
+            List<DShapeModel> list = followers.get(model.getId());
+            if(list != null) {
+                for(int i = list.size() - 1; i >= 0; i--) {
+                    pending.push(list.get(i));
+                }
+            }
+        }
+        return models.toArray(new DShapeModel[models.size()]);
+    }
+
+    /**
+     * Compares two versions of the same shape (of the same class)
+     * @param a the first version
+     * @param b the second version
+     * @return the MOVED / RESIZED / RESTYLED bits of what differs
+     */
+    static int compare(DShapeModel a, DShapeModel b) {
+        int kinds = 0;
+        if(originX(a) != originX(b) || originY(a) != originY(b)) {
+            kinds |= MOVED;
+        }
+        if(extentX(a) != extentX(b) || extentY(a) != extentY(b)) {
+            kinds |= RESIZED;
+        }
+        if(!Objects.equals(a.getColor(), b.getColor())) {
+            kinds |= RESTYLED;
+        }
+        else if(a instanceof DTextModel && (!Objects.equals(((DTextModel)a).getText(), ((DTextModel)b).getText()) ||
+                !Objects.equals(((DTextModel)a).getTextFont(), ((DTextModel)b).getTextFont()))) {
+            kinds |= RESTYLED;
+        }
+        else if(a instanceof DImageModel && !Objects.equals(((DImageModel)a).getImageHash(), ((DImageModel)b).getImageHash())) {
+            kinds |= RESTYLED;
+        }
+        return kinds;
+    }
+
+    /**
+     * Returns the x-coordinate of the position of a shape
+     * (p1 for lines, the top left corner otherwise)
+     * @param model the shape
+     * @return the x-coordinate of its position
+     */
+    private static int originX(DShapeModel model) {
+        return model instanceof DLineModel ? ((DLineModel)model).getP1().x : model.getX();
+    }
+
+    /**
+     * Returns the y-coordinate of the position of a shape
+     * (p1 for lines, the top left corner otherwise)
+     * @param model the shape
+     * @return the y-coordinate of its position
+     */
+    private static int originY(DShapeModel model) {
+        return model instanceof DLineModel ? ((DLineModel)model).getP1().y : model.getY();
+    }
+
+    /**
+     * Returns the horizontal extent of a shape (from p1 to
+     * p2 for lines, so a line can be "sized" leftwards)
+     * @param model the shape
+     * @return the horizontal extent of the shape
+     */
+    private static int extentX(DShapeModel model) {
+        return model instanceof DLineModel ? ((DLineModel)model).getP2().x - ((DLineModel)model).getP1().x : model.getWidth();
+    }
+
+    /**
+     * Returns the vertical extent of a shape (from p1 to
+     * p2 for lines, so a line can be "sized" upwards)
+     * @param model the shape
+     * @return the vertical extent of the shape
+     */
+    private static int extentY(DShapeModel model) {
+        return model instanceof DLineModel ? ((DLineModel)model).getP2().y - ((DLineModel)model).getP1().y : model.getHeight();
+    }
+
+    /**
+     * Checks whether a shape is unchanged from its base version
+     * @param baseModel the base version
+     * @param model the version to check
+     * @return true if both are of the same class and have the same attributes
+     */
+    private static boolean unchanged(DShapeModel baseModel, DShapeModel model) {
+        return sameClass(baseModel, model) && compare(baseModel, model) == 0;
+    }
+
+    /**
+     * Checks whether two models are of the same class
+     * @param a the first model
+     * @param b the second model
+     * @return true if both are of the same class
+     */
+    private static boolean sameClass(DShapeModel a, DShapeModel b) {
+        return a.getClass() == b.getClass();
+    }
+
+    /**
+     * Returns a new model with the attributes of a model
+     * @param model the model to copy
+     * @return the copy
+     */
+    private static DShapeModel copyOf(DShapeModel model) {
+        DShapeModel copy = ShapeStore.newModel(ShapeStore.typeOf(model));
+        copy.mimic(model);
+        return copy;
+    }
+
+    /**
+     * Maps the id of every model to its index (the first, for a repeated id)
+     * @param models the models of a board
+     * @return the index of every id
+     */
+    private static Map<Integer, Integer> indexById(DShapeModel[] models) {
+        Map<Integer, Integer> indexes = new HashMap<Integer, Integer>(models.length * 2);
+        for(int i = models.length - 1; i >= 0; i--) {
+            indexes.put(models[i].getId(), i);
+        }
+        return indexes;
+    }
+
+    /**
+     * Maps the id of every model to the model (the first, for a repeated id)
+     * @param models the models of a board
+     * @return the model with every id
+     */
+    private static Map<Integer, DShapeModel> modelsById(DShapeModel[] models) {
+        Map<Integer, DShapeModel> byId = new HashMap<Integer, DShapeModel>(models.length * 2);
+        for(int i = models.length - 1; i >= 0; i--) {
+            byId.put(models[i].getId(), models[i]);
+        }
+        return byId;
+    }
+
+    /**
+     * Returns the largest id of a board
+     * @param models the models of a board
+     * @return the largest id, or -1 for an empty board
+     */
+    private static int maxId(DShapeModel[] models) {
+        int max = -1;
+        for(DShapeModel model : models) {
+            max = Math.max(max, model.getId());
+        }
+        return max;
+    }
+
+    /**
+     * Checks whether any change has a kind
+     * @param changes the changes to check
+     * @param kind the change bit to look for
+     * @return true if a change has the bit
+     */
+    private static boolean hasKind(List<Change> changes, int kind) {
+        for(Change change : changes) {
+            if((change.kinds & kind) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a longest strictly increasing subsequence (patience sorting,
+     * O(n log n)), used to find the largest set of matched shapes whose
+     * relative order did not change
+     * @param values the values (old indexes, which are all different)
+     * @param count the number of values to use
+     * @return for every value, whether it is in the subsequence
+     */
+    static boolean[] longestIncreasing(int[] values, int count) {
+        int[] tails = new int[count]; // index of the smallest tail of an increasing run of every length
+        int[] previous = new int[count]; // index of the value before every value in its run
+        int length = 0;
+        for(int i = 0; i < count; i++) {
+            int low = 0, high = length;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if(low == length) {
+                length++;
+            }
+        }
+        boolean[] inRun = new boolean[count];
+        for(int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            inRun[i] = true;
+        }
+        return inRun;
+    }
+
+    /**
+     * Lists the names of change bits
+     * @param kinds the change bits
+     * @return the names of the bits, separated by commas
+     */
+    static String kindsToString(int kinds) {
+        StringBuilder names = new StringBuilder();
+        for(int bit = 0; bit < KIND_NAMES.length; bit++) {
+            if((kinds & (1 << bit)) != 0) {
+                if(names.length() > 0) {
+                    names.append(", ");
+                }
+                names.append(KIND_NAMES[bit]);
+            }
+        }
+        return names.toString();
+    }
+
+    /**
+     * Diffs two saved boards, or merges two edits of a saved board
+     * @param args "old new" to diff, or "base ours theirs merged" to merge
+     */
+    public static void main(String[] args) {
+        if(args.length != 2 && args.length != 4) {
+            System.err.println("Usage: java BoardDiff old new");
+            System.err.println("       java BoardDiff base ours theirs merged");
+            System.exit(2);
+        }
+        try {
+            if(args.length == 2) {
+                List<Change> changes = diff(BoardFiles.read(new File(args[0])), BoardFiles.read(new File(args[1])));
+                for(Change change : changes) {
+                    System.out.println(change);
+                }
+                System.out.println(changes.size() + " shape(s) changed");
+                System.exit(changes.isEmpty() ? 0 : 1);
+            }
+
+            Merge merge = merge(BoardFiles.read(new File(args[0])), BoardFiles.read(new File(args[1])), BoardFiles.read(new File(args[2])));
+            File file = new File(args[3]);
+            File temporary = new File(file.getPath() + ".part");
+            try {
+                BoardFiles.write(temporary, file.getName(), merge.getModels());
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            finally {
+                temporary.delete(); // no-op once the file was moved into place
+            }
+            for(String conflict : merge.getConflicts()) {
+                System.out.println(conflict);
+            }
+            System.out.println(merge.getModels().length + " shape(s) merged, " + merge.getConflicts().size() + " conflict(s)");
+            System.exit(merge.getConflicts().isEmpty() ? 0 : 1);
+        }
+        catch(IOException ex) {
+            System.err.println("Error reading / writing boards: " + ex.getMessage());
+            // ex.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    /**
+     * What changed about one shape between two boards
+     */
+    public static class Change {
+        private int id; // id of the shape
+        private int kinds; // change bits (ADDED, REMOVED, MOVED, ...)
+        private DShapeModel oldModel; // the shape on the old board (null if added)
+        private DShapeModel newModel; // the shape on the new board (null if removed)
+
+        /**
+         * Creates a new change
+         * @param id the id of the shape
+         * @param kinds the change bits
+         * @param oldModel the shape on the old board
+         * @param newModel the shape on the new board
+         */
+        Change(int id, int kinds, DShapeModel oldModel, DShapeModel newModel) {
+            this.id = id;
+            this.kinds = kinds;
+            this.oldModel = oldModel;
+            this.newModel = newModel;
+        }
+
+        /**
+         * Returns the id of the shape
+         * @return the id of the shape
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Returns what changed
+         * @return the change bits (ADDED, REMOVED, MOVED, ...)
+         */
+        public int getKinds() {
+            return kinds;
+        }
+
+        /**
+         * Checks whether a kind of change happened
+         * @param kind the change bit
+         * @return true if the change has the bit
+         */
+        public boolean is(int kind) {
+            return (kinds & kind) != 0;
+        }
+
+        /**
+         * Returns the shape on the old board
+         * @return the shape on the old board, or null if it was added
+         */
+        public DShapeModel getOldModel() {
+            return oldModel;
+        }
+
+        /**
+         * Returns the shape on the new board
+         * @return the shape on the new board, or null if it was removed
+         */
+        public DShapeModel getNewModel() {
+            return newModel;
+        }
+
+        /**
+         * Returns a one-line description of the change
+         * @return a one-line description of the change
+         */
+        @Override
+        public String toString() {
+            DShapeModel model = newModel != null ? newModel : oldModel;
+            return "Shape " + id + " (" + model.getClass().getSimpleName() + "): " + kindsToString(kinds);
+        }
+    }
+
+    /**
+     * The result of merging two edits of a board
+     */
+    public static class Merge {
+        private DShapeModel[] models; // the merged board, back to front
+        private List<String> conflicts; // descriptions of the conflicts met
+
+        /**
+         * Creates a new merge result
+         * @param models the merged board
+         * @param conflicts descriptions of the conflicts met
+         */
+        Merge(DShapeModel[] models, List<String> conflicts) {
+            this.models = models;
+            this.conflicts = conflicts;
+        }
+
+        /**
+         * Returns the merged board
+         * @return the merged models, back to front
+         */
+        public DShapeModel[] getModels() {
+            return models;
+        }
+
+        /**
+         * Returns the conflicts met (each resolved as described)
+         * @return descriptions of the conflicts, empty if the merge was clean
+         */
+        public List<String> getConflicts() {
+            return conflicts;
+        }
+    }
+}
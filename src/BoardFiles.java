@@ -0,0 +1,123 @@
+import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Reads and writes whole boards in any of the saved formats (binary
+ * .wbd, tiled .wbt or XML), for the tools that work on saved boards
+ * without showing them (thumbnails, diff / merge) and for saving
+ */
+public class BoardFiles {
+
+    /**
+     * BoardFiles only has static methods, so it is never constructed
+     */
+    private BoardFiles() {
+    }
+
+    /**
+     * Reads every shape of a saved board, whatever its format (the
+     * format is detected from the first bytes of the file, the way
+     * the whiteboard opens files). The pictures of the board are
+     * added to the ImageStore
+     * @param file the board file
+     * @return the models of the board, back to front
+     * @throws IOException if the file is not a valid board
+     */
+    public static DShapeModel[] read(File file) throws IOException {
+        if(BinaryBoardFile.isBinaryBoard(file)) {
+            return BinaryBoardFile.read(file);
+        }
+        if(TiledBoardFile.isTiledBoard(file)) {
+            TiledBoardReader reader = new TiledBoardReader(file);
+            try {
+                DShapeModel[] models = new DShapeModel[reader.getShapeCount()];
+                for(int tile = 0; tile < reader.getTileCount(); tile++) {
+                    int[] orders = new int[reader.getTileShapeCount(tile)];
+                    DShapeModel[] tileModels = reader.readTile(tile, orders);
+                    for(int i = 0; i < tileModels.length; i++) {
+                        if(orders[i] >= 0 && orders[i] < models.length) {
+                            models[orders[i]] = tileModels[i]; // (a shape spanning several tiles lands in the same slot each time)
+                        }
+                    }
+                }
+                List<DShapeModel> ordered = new ArrayList<DShapeModel>(models.length);
+                for(DShapeModel model : models) {
+                    if(model != null) {
+                        ordered.add(model);
+                    }
+                }
+                return ordered.toArray(new DShapeModel[ordered.size()]);
+            }
+            finally {
+                reader.close();
+            }
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            XmlBoardReader reader = new XmlBoardReader(in);
+            try {
+                List<DShapeModel> models = new ArrayList<DShapeModel>(Math.max(reader.getLength(), 0));
+                DShapeModel model;
+                while((model = reader.next()) != null) {
+                    models.add(model);
+                }
+                return models.toArray(new DShapeModel[models.size()]);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the models of a board in the format the name of the board
+     * calls for: binary for .wbd, tiled for .wbt and XML otherwise (so a
+     * board can be written to a temporary file under its final name)
+     * @param file the file to write
+     * @param fileName the name the board is saved under
+     * @param models the models of the board, back to front
+     * @throws IOException if writing fails
+     */
+    public static void write(File file, String fileName, DShapeModel[] models) throws IOException {
+        fileName = fileName.toLowerCase();
+        if(fileName.endsWith(BinaryBoardFile.EXTENSION)) { // write the compact binary format
+            BinaryBoardFile.write(file, models);
+        }
+        else if(fileName.endsWith(TiledBoardFile.EXTENSION)) { // write the region-chunked format
+            TiledBoardFile.write(file, models);
+        }
+        else {
+            // create the XML encoder to write the file
+            XMLEncoder fileEncoder = new XMLEncoder(new BufferedOutputStream(new FileOutputStream(file)));
+
+            // write the shape model array to the file
+            fileEncoder.writeObject(models);
+
+            // write the pictures (once each) after the shapes, so readers that
+            // only read the shape array (like older versions) still open the file
+            List<byte[]> images = BinaryBoardFile.collectImages(models);
+            if(!images.isEmpty()) {
+                String[] imageTable = new String[images.size()];
+                for(int i = 0; i < imageTable.length; i++) {
+                    imageTable[i] = Base64.getEncoder().encodeToString(images.get(i));
+                }
+                fileEncoder.writeObject(imageTable);
+            }
+
+            fileEncoder.close();
+        }
+    }
+}
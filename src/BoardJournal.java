@@ -0,0 +1,959 @@
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only autosave journal of the whiteboard. Every change to
+ * the board is encoded as a small record on the calling thread and
+ * handed to a background writer thread, which appends whole batches
+ * of records to the log at once (group commit) and forces the log to
+ * disk periodically. Once the log grows large, the writer folds the
+ * latest snapshot and the log into a fresh snapshot (a binary board
+ * file) and starts an empty log. Recovery loads the snapshot and
+ * replays the log after it.
+ *
+ * For a base file "dir/name", the log is "dir/name.journal" and the
+ * snapshots are "dir/name.[generation].wbd". The log header names the
+ * generation of the snapshot it continues, so a crash in the middle of
+ * a compaction never replays a log over the wrong snapshot. Records of
+ * image shapes only hold the hash of their picture; the picture itself
+ * is saved once, the first time it is journaled, as "dir/name.images/[hash]"
+ *
+ * A journal takes an exclusive lock on its log before it recovers or
+ * writes anything, so two whiteboards never append to the same log
+ * (the lock is held until the journal is closed)
+ */
+public class BoardJournal implements ModelListener {
+
+    // record operations
+    public static final int OP_ADD = 1;
+    public static final int OP_CHANGE = 2;
+    public static final int OP_REMOVE = 3;
+    public static final int OP_FRONT = 4;
+    public static final int OP_BACK = 5;
+    public static final int OP_CLEAR = 6;
+
+    private static final int LOG_MAGIC = 0x57424A31; // "WBJ1", the first four bytes of every log
+    private static final int LOG_HEADER_SIZE = 4 + 8; // magic and snapshot generation
+    private static final int RECORD_HEADER_SIZE = 4 + 4; // payload length and CRC-32 of the payload
+    private static final long FORCE_INTERVAL = 1000; // milliseconds between forcing the log to disk
+    private static final long COMPACT_THRESHOLD = 8L * 1024 * 1024; // log size (bytes) that triggers a compaction
+    private static final int BUFFER_SIZE = 64 * 1024; // size of the direct buffer used for writing
+    private static final byte[] CLOSE_MARKER = new byte[0]; // queued to tell the writer thread to finish
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Set<String> lockedLogs = new HashSet<String>(); // paths of the logs locked by journals of this process
+
+    private File directory; // directory holding the log and snapshots
+    private String name; // base name of the log and snapshots
+    private BlockingQueue<Object> queue; // encoded records (byte[]) and pictures to save (PendingImage) waiting for the writer
+    private JournalWriter writer; // background thread writing the log (null until started)
+    private RandomAccessFile log; // the log, open while the journal holds its lock (null until locked)
+    private FileLock lock; // exclusive lock on the log (null until locked)
+    private String lockedPath; // canonical path of the locked log (null until locked)
+    private volatile boolean closed; // true once close was called
+    private Set<String> savedImages; // hashes of the pictures already queued to be saved in the image directory (calling thread only)
+
+    /**
+     * Creates a new journal for the base file (nothing
+     * is written until start is called)
+     * @param baseFile the base path of the log and snapshot files
+     */
+    public BoardJournal(File baseFile) {
+        File absolute = baseFile.getAbsoluteFile();
+        directory = absolute.getParentFile();
+        name = absolute.getName();
+        queue = new LinkedBlockingQueue<Object>();
+        writer = null;
+        log = null;
+        lock = null;
+        lockedPath = null;
+        closed = false;
+        savedImages = new HashSet<String>();
+    }
+
+    /**
+     * Rebuilds the board saved by the journal at the base file
+     * (latest snapshot plus every complete record of the log)
+     * @param baseFile the base path of the log and snapshot files
+     * @return the recovered models, back to front (empty if nothing was saved)
+     * @throws IOException if the snapshot or log cannot be read
+     */
+    public static DShapeModel[] recover(File baseFile) throws IOException {
+        BoardJournal journal = new BoardJournal(baseFile);
+        Fold fold = new Fold();
+        journal.replay(fold);
+        DShapeModel[] models = fold.toArray();
+        journal.loadImages(models);
+        return models;
+    }
+
+    /**
+     * Rebuilds the board saved by this journal, reading the log through
+     * the locked channel (opening the log again and closing it would
+     * release the lock)
+     * @return the recovered models, back to front (empty if nothing was saved)
+     * @throws IOException if the journal is not locked, or the snapshot or log cannot be read
+     */
+    public synchronized DShapeModel[] recover() throws IOException {
+        if(lock == null) {
+            throw new IOException("Journal \"" + logFile() + "\" is not locked");
+        }
+        Fold fold = new Fold();
+        replay(fold);
+        DShapeModel[] models = fold.toArray();
+        loadImages(models);
+        return models;
+    }
+
+    /**
+     * Opens the log and takes an exclusive lock on it, so no other
+     * whiteboard (in this or another process) can use the journal
+     * @return true if the journal is locked, false if another whiteboard holds the lock
+     * @throws IOException if the log cannot be opened
+     */
+    public synchronized boolean lock() throws IOException {
+        if(lock != null) {
+            return true;
+        }
+        if(closed) {
+            return false;
+        }
+        if(!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory \"" + directory + "\"");
+        }
+
+        // another journal of this process is checked for first: opening and closing the
+        // log again here would release the lock it holds (file locks belong to the process)
+        String path = logFile().getCanonicalPath();
+        synchronized(lockedLogs) {
+            if(lockedLogs.contains(path)) {
+                return false;
+            }
+            RandomAccessFile file = new RandomAccessFile(logFile(), "rw");
+            FileLock fileLock = null;
+            try {
+                fileLock = file.getChannel().tryLock();
+            }
+            catch(OverlappingFileLockException ex) {
+                // held by a journal of this process
+            }
+            finally {
+                if(fileLock == null) {
+                    file.close();
+                }
+            }
+            if(fileLock == null) {
+                return false;
+            }
+            lockedLogs.add(path);
+            log = file;
+            lock = fileLock;
+            lockedPath = path;
+        }
+        return true;
+    }
+
+    /**
+     * Opens the log for appending (dropping any torn record at its end)
+     * and starts the background writer thread, locking the log first
+     * if lock was not called. The board should already hold the
+     * recovered state when this is called
+     * @throws IOException if the log cannot be opened or another whiteboard holds its lock
+     */
+    public synchronized void start() throws IOException {
+        if(writer != null || closed) {
+            return;
+        }
+        if(!lock()) {
+            throw new IOException("Journal \"" + logFile() + "\" is in use by another whiteboard");
+        }
+
+        FileChannel channel = log.getChannel();
+        long generation = readGeneration(channel);
+        if(generation < 0) { // no valid log yet: continue from the newest snapshot with an empty log
+            generation = newestSnapshotGeneration();
+            resetLog(channel, Math.max(generation, 0));
+            generation = Math.max(generation, 0);
+        }
+        else {
+            channel.truncate(readRecords(channel, null)); // cut off a record torn by a crash
+        }
+        channel.position(channel.size());
+
+        writer = new JournalWriter(channel, generation);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes every queued record, forces the log to disk and
+     * stops the writer thread, which releases the lock on the log
+     * (a journal that was locked but never started is just unlocked)
+     */
+    public void close() {
+        JournalWriter currentWriter;
+        synchronized(this) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            currentWriter = writer;
+            if(currentWriter == null) {
+                closeLog();
+            }
+        }
+        if(currentWriter != null) {
+            queue.add(CLOSE_MARKER);
+            try {
+                currentWriter.join(10 * FORCE_INTERVAL);
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Records that a shape was added to the front of the board,
+     * and starts recording the changes to its model
+     * @param model the model of the added shape
+     */
+    public void shapeAdded(DShapeModel model) {
+        trackModel(model);
+        saveImage(model);
+        append(OP_ADD, model.getId(), model);
+    }
+
+    /**
+     * Starts recording the changes to a model that is
+     * already saved in the journal (such as a recovered one)
+     * @param model the model to record the changes of
+     */
+    public void trackModel(DShapeModel model) {
+        model.removeModelListener(this); // never listen twice to a model that is saved again
+        model.addModelListener(this);
+    }
+
+    /**
+     * Records that many shapes were added to the front of the board
+     * @param models the models of the added shapes, back to front
+     */
+    public void shapesAdded(Collection<? extends DShapeModel> models) {
+        for(DShapeModel model : models) {
+            shapeAdded(model);
+        }
+    }
+
+    /**
+     * Records that a shape was removed from the board
+     * @param model the model of the removed shape
+     */
+    public void shapeRemoved(DShapeModel model) {
+        model.removeModelListener(this);
+        append(OP_REMOVE, model.getId(), null);
+    }
+
+    /**
+     * Records that a shape was moved to the front of the board
+     * @param model the model of the moved shape
+     */
+    public void shapeMovedToFront(DShapeModel model) {
+        append(OP_FRONT, model.getId(), null);
+    }
+
+    /**
+     * Records that a shape was moved to the back of the board
+     * @param model the model of the moved shape
+     */
+    public void shapeMovedToBack(DShapeModel model) {
+        append(OP_BACK, model.getId(), null);
+    }
+
+    /**
+     * Records that every shape was removed from the board
+     * (the removed models should no longer be changed)
+     */
+    public void boardCleared() {
+        append(OP_CLEAR, -1, null);
+    }
+
+    /**
+     * Records the new state of a changed model
+     * @param model the DShapeModel that sent the notification message
+     * @param changeMask the attributes that changed
+     */
+    @Override
+    public void modelChanged(DShapeModel model, int changeMask) {
+        saveImage(model);
+        append(OP_CHANGE, model.getId(), model);
+    }
+
+    /**
+     * Queues the picture of an image model to be saved to the image
+     * directory by the writer thread, so the calling thread (usually
+     * the event dispatch thread) never writes picture files. Pictures
+     * never change, so a picture is queued once however many records use it
+     * @param model the model about to be journaled
+     */
+    private void saveImage(DShapeModel model) {
+        if(closed || !(model instanceof DImageModel)) {
+            return;
+        }
+        String hash = ((DImageModel)model).getImageHash();
+        byte[] bytes = ImageStore.get(hash);
+        if(bytes == null || !savedImages.add(hash)) {
+            return;
+        }
+        queue.add(new PendingImage(hash, bytes)); // written by the writer thread, ahead of the record that uses it
+    }
+
+    /**
+     * Writes a picture to the image directory, unless it is already
+     * there (runs on the writer thread; a picture that cannot be
+     * written is reported, and the records using it are still written)
+     * @param image the picture to write
+     */
+    private void writeImage(PendingImage image) {
+        File imageFile = new File(imageDirectory(), image.hash);
+        try {
+            if(!imageFile.exists()) {
+                if(!imageDirectory().exists() && !imageDirectory().mkdirs()) {
+                    throw new IOException("Cannot create image directory \"" + imageDirectory() + "\"");
+                }
+                File temporary = new File(imageDirectory(), image.hash + ".part");
+                Files.write(temporary.toPath(), image.bytes);
+                Files.move(temporary.toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch(IOException ex) {
+            System.err.println("Error saving picture \"" + imageFile + "\" to the autosave journal");
+            // ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds the pictures of recovered image models that are not
+     * in the ImageStore yet (such as pictures only the log refers
+     * to) from the image directory
+     * @param models the recovered models
+     */
+    private void loadImages(DShapeModel[] models) {
+        for(DShapeModel model : models) {
+            if(model instanceof DImageModel) {
+                String hash = ((DImageModel)model).getImageHash();
+                File imageFile = new File(imageDirectory(), hash == null ? "" : hash);
+                if(hash != null && !ImageStore.contains(hash) && imageFile.isFile()) {
+                    try {
+                        ImageStore.put(Files.readAllBytes(imageFile.toPath()));
+                    }
+                    catch(IOException ex) {
+                        System.err.println("Error reading picture \"" + imageFile + "\" from the autosave journal");
+                        // ex.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a record on the calling thread and queues it for the writer
+     * @param op the record operation
+     * @param id the id of the affected model
+     * @param model the model to store in the record (null for operations without a model)
+     */
+    private void append(int op, int id, DShapeModel model) {
+        if(closed) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // payload length and CRC are filled in below
+            out.writeInt(0);
+            writePayload(out, op, id, model);
+            out.close();
+
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+            ByteBuffer header = ByteBuffer.wrap(record);
+            header.putInt(record.length - RECORD_HEADER_SIZE);
+            header.putInt((int)crc.getValue());
+            queue.add(record);
+        }
+        catch(IOException ex) {
+            // writing to a byte array never fails
+        }
+    }
+
+    /**
+     * Writes the payload of a record: the operation, the id of the
+     * affected model and (for operations with a model) its contents.
+     * Session recordings store their operations in the same form
+     * @param out the record being written
+     * @param op the record operation
+     * @param id the id of the affected model
+     * @param model the model to store in the record (null for operations without a model)
+     * @throws IOException if writing fails
+     */
+    static void writePayload(DataOutputStream out, int op, int id, DShapeModel model) throws IOException {
+        out.writeByte(op);
+        out.writeInt(id);
+        if(model != null) {
+            writeModel(out, model);
+        }
+    }
+
+    /**
+     * Loads the snapshot the log continues from and replays the log into
+     * the fold. The log is read through the locked channel if the journal
+     * is locked, and opened just for reading otherwise
+     * @param fold the fold to rebuild the board in
+     * @throws IOException if the snapshot or log cannot be read
+     */
+    private void replay(Fold fold) throws IOException {
+        long generation = -1;
+        RandomAccessFile file = log;
+        if(file == null && logFile().exists()) {
+            file = new RandomAccessFile(logFile(), "r");
+        }
+        try {
+            if(file != null) {
+                generation = readGeneration(file.getChannel());
+            }
+            if(generation < 0) { // no valid log: the newest snapshot is everything there is
+                generation = newestSnapshotGeneration();
+            }
+            File snapshot = snapshotFile(generation);
+            if(generation >= 0 && snapshot.exists()) {
+                for(DShapeModel model : BinaryBoardFile.read(snapshot)) {
+                    fold.add(model);
+                }
+            }
+            if(file != null && readGeneration(file.getChannel()) >= 0) {
+                readRecords(file.getChannel(), fold);
+            }
+        }
+        finally {
+            if(file != null && file != log) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot generation from the log header
+     * @param channel the channel of the log
+     * @return the generation, or -1 if the log has no valid header
+     * @throws IOException if reading fails
+     */
+    private static long readGeneration(FileChannel channel) throws IOException {
+        if(channel.size() < LOG_HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if(header.getInt() != LOG_MAGIC) {
+            return -1;
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Reads every complete, intact record of the log (stopping at
+     * the first torn or corrupt record), applying each to the fold
+     * @param channel the channel of the log
+     * @param fold the fold to apply the records to (null to only find the end)
+     * @return the offset just past the last intact record
+     * @throws IOException if reading fails
+     */
+    private static long readRecords(FileChannel channel, Fold fold) throws IOException {
+        long size = channel.size();
+        long position = LOG_HEADER_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while(position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if(length < 5 || position + RECORD_HEADER_SIZE + length > size) { // torn record
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + RECORD_HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, length);
+            if((int)crc.getValue() != checksum) { // corrupt record
+                break;
+            }
+            if(fold != null) {
+                payload.flip();
+                try {
+                    fold.apply(payload);
+                }
+                catch(RuntimeException ex) { // malformed record
+                    break;
+                }
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * Empties the log and writes a header continuing the specified snapshot
+     * @param channel the channel of the log
+     * @param generation the generation of the snapshot the log continues
+     * @throws IOException if writing fails
+     */
+    private static void resetLog(FileChannel channel, long generation) throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        header.putInt(LOG_MAGIC);
+        header.putLong(generation);
+        header.flip();
+        channel.write(header, 0);
+        channel.force(true);
+        channel.position(LOG_HEADER_SIZE);
+    }
+
+    /**
+     * Writes the contents of a model to a record
+     * @param out the record being written
+     * @param model the model to write
+     * @throws IOException if writing fails
+     */
+    private static void writeModel(DataOutputStream out, DShapeModel model) throws IOException {
+        int type = ShapeStore.typeOf(model);
+        out.writeByte(type);
+        if(type == ShapeStore.TYPE_LINE) {
+            Point p1 = ((DLineModel)model).getP1();
+            Point p2 = ((DLineModel)model).getP2();
+            out.writeInt(p1.x);
+            out.writeInt(p1.y);
+            out.writeInt(p2.x - p1.x);
+            out.writeInt(p2.y - p1.y);
+        }
+        else {
+            out.writeInt(model.getX());
+            out.writeInt(model.getY());
+            out.writeInt(model.getWidth());
+            out.writeInt(model.getHeight());
+        }
+        out.writeInt(model.getColor().getRGB());
+        if(type == ShapeStore.TYPE_TEXT) {
+            DTextModel textModel = (DTextModel)model;
+            Font font = textModel.getTextFont();
+            writeString(out, textModel.getText());
+            writeString(out, font == null ? null : font.getName());
+            out.writeInt(font == null ? Font.PLAIN : font.getStyle());
+            out.writeInt(font == null ? 1 : font.getSize());
+        }
+        else if(type == ShapeStore.TYPE_IMAGE) {
+            writeString(out, ((DImageModel)model).getImageHash());
+        }
+    }
+
+    /**
+     * Reads the contents of a model from a record
+     * @param in the record being read
+     * @param id the id of the model
+     * @return the model stored in the record
+     */
+    private static DShapeModel readModel(ByteBuffer in, int id) {
+        int type = in.get();
+        int x = in.getInt();
+        int y = in.getInt();
+        int width = in.getInt();
+        int height = in.getInt();
+        int rgb = in.getInt();
+
+        DShapeModel model = ShapeStore.newModel(type);
+        model.setColor(new Color(rgb, true));
+        if(type == ShapeStore.TYPE_LINE) {
+            ((DLineModel)model).setP1(new Point(x, y));
+            ((DLineModel)model).setP2(new Point(x + width, y + height));
+        }
+        else {
+            model.setX(x);
+            model.setY(y);
+            model.setWidth(width);
+            model.setHeight(height);
+        }
+        if(type == ShapeStore.TYPE_TEXT) {
+            DTextModel textModel = (DTextModel)model;
+            textModel.setText(readString(in));
+            String fontName = readString(in);
+            int fontStyle = in.getInt();
+            int fontSize = in.getInt();
+            if(fontName != null) {
+                textModel.setTextFont(new Font(fontName, fontStyle, fontSize));
+            }
+        }
+        else if(type == ShapeStore.TYPE_IMAGE) {
+            ((DImageModel)model).setImageHash(readString(in));
+        }
+        model.setId(id);
+        return model;
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string (length -1 for null)
+     * @param out the record being written
+     * @param string the string to write
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if(string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string
+     * @param in the record being read
+     * @return the string read (null if it was stored as null)
+     */
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Closes the log, which releases the lock on it
+     */
+    private void closeLog() {
+        synchronized(lockedLogs) {
+            if(log == null) {
+                return;
+            }
+            try {
+                log.close();
+            }
+            catch(IOException ex) {
+                // nothing more can be done
+            }
+            lockedLogs.remove(lockedPath);
+            log = null;
+            lock = null;
+        }
+    }
+
+    /**
+     * Returns the log file
+     * @return the log file
+     */
+    private File logFile() {
+        return new File(directory, name + ".journal");
+    }
+
+    /**
+     * Returns the directory pictures are saved in
+     * @return the image directory
+     */
+    private File imageDirectory() {
+        return new File(directory, name + ".images");
+    }
+
+    /**
+     * Returns the snapshot file of the specified generation
+     * @param generation the generation of the snapshot
+     * @return the snapshot file of that generation
+     */
+    private File snapshotFile(long generation) {
+        return new File(directory, name + "." + generation + BinaryBoardFile.EXTENSION);
+    }
+
+    /**
+     * Finds the newest snapshot generation on disk
+     * @return the newest snapshot generation, or -1 if there is no snapshot
+     */
+    private long newestSnapshotGeneration() {
+        long newest = -1;
+        String[] fileNames = directory.list();
+        if(fileNames != null) {
+            String prefix = name + ".";
+            for(String fileName : fileNames) {
+                if(fileName.startsWith(prefix) && fileName.endsWith(BinaryBoardFile.EXTENSION)) {
+                    String generation = fileName.substring(prefix.length(), fileName.length() - BinaryBoardFile.EXTENSION.length());
+                    try {
+                        newest = Math.max(newest, Long.parseLong(generation));
+                    }
+                    catch(NumberFormatException ex) {
+                        // not one of our snapshots
+                    }
+                }
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Board state rebuilt from a snapshot and log records
+     * (also used to replay session recordings)
+     */
+    static class Fold {
+        private List<DShapeModel> order; // models back to front
+        private Map<Integer, DShapeModel> byId; // models by id
+
+        /**
+         * Creates a new, empty fold
+         */
+        Fold() {
+            order = new ArrayList<DShapeModel>();
+            byId = new HashMap<Integer, DShapeModel>();
+        }
+
+        /**
+         * Adds a model to the front (or replaces the model with the same id in place)
+         * @param model the model to add
+         */
+        void add(DShapeModel model) {
+            DShapeModel existing = byId.put(model.getId(), model);
+            if(existing != null) {
+                order.set(order.indexOf(existing), model);
+            }
+            else {
+                order.add(model);
+            }
+        }
+
+        /**
+         * Applies a single record payload to the board state
+         * @param payload the payload of the record
+         */
+        void apply(ByteBuffer payload) {
+            int op = payload.get();
+            int id = payload.getInt();
+            DShapeModel existing = byId.get(id);
+            switch(op) {
+                case OP_ADD:
+                    add(readModel(payload, id));
+                    break;
+                case OP_CHANGE:
+                    DShapeModel changed = readModel(payload, id);
+                    if(existing != null && existing.getClass() == changed.getClass()) {
+                        existing.mimic(changed);
+                    }
+                    else if(existing != null) {
+                        add(changed);
+                    }
+                    break;
+                case OP_REMOVE:
+                    if(existing != null) {
+                        byId.remove(id);
+                        order.remove(existing);
+                    }
+                    break;
+                case OP_FRONT:
+                    if(existing != null) {
+                        order.remove(existing);
+                        order.add(existing);
+                    }
+                    break;
+                case OP_BACK:
+                    if(existing != null) {
+                        order.remove(existing);
+                        order.add(0, existing);
+                    }
+                    break;
+                case OP_CLEAR:
+                    order.clear();
+                    byId.clear();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown journal operation " + op);
+            }
+        }
+
+        /**
+         * Returns the board state as an array of models, back to front
+         * @return the board state as an array of models
+         */
+        DShapeModel[] toArray() {
+            return order.toArray(new DShapeModel[order.size()]);
+        }
+    }
+
+    /**
+     * A picture queued to be saved to the image directory
+     */
+    private static class PendingImage {
+        private String hash; // hash of the picture (its file name)
+        private byte[] bytes; // encoded bytes of the picture
+
+        /**
+         * Creates a new pending picture
+         * @param hash the hash of the picture
+         * @param bytes the encoded bytes of the picture
+         */
+        PendingImage(String hash, byte[] bytes) {
+            this.hash = hash;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Background thread that appends queued records to the log,
+     * forces it to disk and compacts it
+     */
+    private class JournalWriter extends Thread {
+        private FileChannel channel; // channel of the log, positioned at its end
+        private long generation; // generation of the snapshot the log continues
+        private ByteBuffer buffer; // direct buffer batches are gathered in
+        private long lastForce; // time of the last force (milliseconds)
+        private boolean dirty; // true if records were written since the last force
+
+        /**
+         * Creates a new writer for the open log
+         * @param channel the channel of the log, positioned at its end
+         * @param generation the generation of the snapshot the log continues
+         */
+        JournalWriter(FileChannel channel, long generation) {
+            super("Whiteboard journal writer");
+            this.channel = channel;
+            this.generation = generation;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            lastForce = System.currentTimeMillis();
+            dirty = false;
+        }
+
+        /**
+         * Writes batches of records until the journal is closed
+         */
+        public void run() {
+            List<Object> batch = new ArrayList<Object>();
+            boolean running = true;
+            try {
+                while(running) {
+                    Object first = queue.poll(FORCE_INTERVAL, TimeUnit.MILLISECONDS);
+                    batch.clear();
+                    if(first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch); // group commit: everything queued so far goes out in one write
+                    }
+                    for(Object item : batch) {
+                        if(item == CLOSE_MARKER) {
+                            running = false;
+                            break;
+                        }
+                        if(item instanceof PendingImage) { // (saved before any later record can refer to it)
+                            writeImage((PendingImage)item);
+                            continue;
+                        }
+                        byte[] record = (byte[])item;
+                        if(buffer.remaining() < record.length) {
+                            flush();
+                        }
+                        if(record.length > buffer.capacity()) { // too big for the buffer: write it directly
+                            ByteBuffer wrapped = ByteBuffer.wrap(record);
+                            while(wrapped.hasRemaining()) {
+                                channel.write(wrapped);
+                            }
+                        }
+                        else {
+                            buffer.put(record);
+                        }
+                        dirty = true;
+                    }
+                    flush();
+
+                    long now = System.currentTimeMillis();
+                    if(dirty && (!running || now - lastForce >= FORCE_INTERVAL)) {
+                        channel.force(false);
+                        lastForce = now;
+                        dirty = false;
+                    }
+                    if(running && channel.size() > COMPACT_THRESHOLD) {
+                        compact();
+                    }
+                }
+            }
+            catch(InterruptedException ex) {
+                // stop writing
+            }
+            catch(IOException ex) {
+                System.err.println("Error writing autosave journal \"" + logFile() + "\". Autosave stopped");
+                // ex.printStackTrace();
+            }
+            finally {
+                closeLog();
+            }
+        }
+
+        /**
+         * Writes everything gathered in the buffer to the log
+         * @throws IOException if writing fails
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Folds the current snapshot and log into a snapshot of the
+         * next generation, then starts an empty log continuing it
+         * @throws IOException if the snapshot or log cannot be written
+         */
+        private void compact() throws IOException {
+            channel.force(false);
+            Fold fold = new Fold();
+            File snapshot = snapshotFile(generation);
+            if(snapshot.exists()) {
+                for(DShapeModel model : BinaryBoardFile.read(snapshot)) {
+                    fold.add(model);
+                }
+            }
+            readRecords(channel, fold);
+
+            // write the new snapshot completely before the log stops pointing at the old one
+            File temporary = new File(directory, name + ".tmp" + BinaryBoardFile.EXTENSION);
+            BinaryBoardFile.write(temporary, fold.toArray());
+            File nextSnapshot = snapshotFile(generation + 1);
+            Files.move(temporary.toPath(), nextSnapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            resetLog(channel, generation + 1);
+            generation++;
+            lastForce = System.currentTimeMillis();
+            dirty = false;
+            if(snapshot.exists() && !snapshot.delete()) {
+                System.err.println("Could not delete old autosave snapshot \"" + snapshot + "\"");
+            }
+        }
+    }
+}
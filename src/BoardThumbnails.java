@@ -0,0 +1,320 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Previews of saved boards (binary, tiled or XML), for showing many
+ * boards at once without opening each one. A board is rendered once at
+ * full size (at most MAX_RENDER_SIZE on its longest side), and a pyramid
+ * of thumbnails (SIZES on their longest side) is derived from it by
+ * repeated halving, each level from the one above. The pyramid is cached
+ * on disk next to the board, as "dir/name.thumbs/[hash]-[size].png",
+ * keyed by the SHA-256 hash of the board file, so a board is only
+ * rendered again once its content changes (thumbnails of older content
+ * are deleted then).
+ *
+ * Run on its own (java BoardThumbnails file-or-directory ...) it brings
+ * the thumbnails of every board given up to date
+ */
+public class BoardThumbnails {
+
+    public static final int[] SIZES = {1024, 256, 64}; // longest side of each thumbnail, largest first
+    public static final String DIRECTORY_SUFFIX = ".thumbs"; // added to the board file name for its thumbnail directory
+    private static final int MAX_RENDER_SIZE = 4096; // longest side a board is rendered at (larger boards are scaled down)
+    private static final Color BACKGROUND = Color.WHITE; // background color of the thumbnails (the canvas color)
+    private static final int HASH_BUFFER_SIZE = 64 * 1024; // bytes read at a time while hashing a board file
+    private static final Map<String, Stamp> stamps = new ConcurrentHashMap<String, Stamp>(); // hash of every board file looked at, by path
+
+    /**
+     * BoardThumbnails only has static methods, so it is never constructed
+     */
+    private BoardThumbnails() {
+    }
+
+    /**
+     * Returns a thumbnail of a saved board, rendering the board first
+     * if its thumbnails are missing or older than its content
+     * @param board the board file
+     * @param size the longest side wanted (the smallest thumbnail at
+     *             least this large is returned, or the largest one)
+     * @return the thumbnail
+     * @throws IOException if the board cannot be read or the thumbnails cannot be written
+     */
+    public static BufferedImage getThumbnail(File board, int size) throws IOException {
+        int level = 0;
+        while(level + 1 < SIZES.length && SIZES[level + 1] >= size) {
+            level++;
+        }
+        String hash = update(board);
+        BufferedImage thumbnail = ImageIO.read(thumbnailFile(board, hash, SIZES[level]));
+        if(thumbnail == null) {
+            throw new IOException("Thumbnail of \"" + board + "\" cannot be read");
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Brings the thumbnails of a board up to date, rendering
+     * them only if the content of the board changed
+     * @param board the board file
+     * @return the content hash of the board (naming its thumbnails)
+     * @throws IOException if the board cannot be read or the thumbnails cannot be written
+     */
+    public static String update(File board) throws IOException {
+        String hash = hashOf(board);
+        boolean current = true;
+        for(int size : SIZES) {
+            if(!thumbnailFile(board, hash, size).isFile()) {
+                current = false;
+            }
+        }
+        if(current) {
+            return hash;
+        }
+
+        DShapeModel[] models = BoardFiles.read(board);
+        BufferedImage[] pyramid;
+        try {
+            pyramid = buildPyramid(render(models));
+        }
+        finally {
+            for(DShapeModel model : models) { // the pictures were only read for the render
+                if(model instanceof DImageModel) {
+                    ImageStore.forget(((DImageModel)model).getImageHash());
+                }
+            }
+        }
+        File directory = thumbnailDirectory(board);
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create thumbnail directory \"" + directory + "\"");
+        }
+        for(int level = 0; level < SIZES.length; level++) {
+            File temporary = File.createTempFile(hash, ".part", directory); // (unique, so boards rendered twice at once never clash)
+            try {
+                if(!ImageIO.write(pyramid[level], "png", temporary)) {
+                    throw new IOException("No PNG writer available");
+                }
+                Files.move(temporary.toPath(), thumbnailFile(board, hash, SIZES[level]).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            finally {
+                temporary.delete(); // (already gone once moved)
+            }
+        }
+
+        // drop the thumbnails of older content
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(!file.getName().startsWith(hash + "-") && file.getName().endsWith(".png")) {
+                    file.delete();
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the content hash of a board file. The hash is remembered
+     * with the length and modification time of the file, so a file is
+     * only read again once it is touched
+     * @param board the board file
+     * @return the SHA-256 hash of the file, as lower case hex
+     * @throws IOException if the file cannot be read
+     */
+    public static String hashOf(File board) throws IOException {
+        String path = board.getAbsolutePath();
+        long length = board.length();
+        long modified = board.lastModified();
+        Stamp stamp = stamps.get(path);
+        if(stamp != null && stamp.length == length && stamp.modified == modified) {
+            return stamp.hash;
+        }
+
+        MessageDigest digest = ImageStore.newDigest();
+        InputStream in = new FileInputStream(board);
+        try {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        String hash = ImageStore.toHex(digest.digest());
+        stamps.put(path, new Stamp(length, modified, hash));
+        return hash;
+    }
+
+    /**
+     * Returns the directory the thumbnails of a board are cached in
+     * @param board the board file
+     * @return the thumbnail directory (which may not exist yet)
+     */
+    public static File thumbnailDirectory(File board) {
+        return new File(board.getAbsoluteFile().getParentFile(), board.getName() + DIRECTORY_SUFFIX);
+    }
+
+    /**
+     * Returns the file a thumbnail of a board is cached in
+     * @param board the board file
+     * @param hash the content hash of the board
+     * @param size the longest side of the thumbnail
+     * @return the thumbnail file (which may not exist yet)
+     */
+    private static File thumbnailFile(File board, String hash, int size) {
+        return new File(thumbnailDirectory(board), hash + "-" + size + ".png");
+    }
+
+    /**
+     * Renders the shapes of a board the way the canvas paints them,
+     * covering the board from its origin to the far edge of its
+     * furthest shape (scaled down to fit MAX_RENDER_SIZE)
+     * @param models the models of the board, back to front
+     * @return the rendered board
+     */
+    static BufferedImage render(DShapeModel[] models) {
+        ShapeStore store = new ShapeStore(models.length);
+        Rectangle bounds = new Rectangle(); // (reused for every shape)
+        int right = 1, bottom = 1;
+        for(DShapeModel model : models) {
+            if(ShapeStore.typeOf(model) == ShapeStore.TYPE_SHAPE) {
+                continue; // (never drawn, just like on the canvas)
+            }
+            store.add(model);
+            model.getBounds(bounds); // (a line's bounds run between its points, whichever way round they are)
+            right = Math.max(right, bounds.x + bounds.width);
+            bottom = Math.max(bottom, bounds.y + bounds.height);
+        }
+        double scale = Math.min(1.0, (double)MAX_RENDER_SIZE / Math.max(right, bottom));
+        int width = Math.max((int)Math.ceil(right * scale), 1);
+        int height = Math.max((int)Math.ceil(bottom * scale), 1);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, width, height);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.scale(scale, scale);
+            g.setClip(0, 0, right, bottom); // text drawing narrows the current clip, so there must be one
+            store.draw(g);
+        }
+        finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Derives the thumbnails from a full-size render. Each thumbnail is
+     * made from the one above it by halving with bilinear smoothing until
+     * a last step of at most one half lands on its size, so every pixel
+     * averages the pixels under it (shrinking a large image straight to a
+     * small size would skip most of them). Renders smaller than a
+     * thumbnail size are kept at their own size
+     * @param full the full-size render
+     * @return the thumbnails, in the order of SIZES
+     */
+    static BufferedImage[] buildPyramid(BufferedImage full) {
+        BufferedImage[] pyramid = new BufferedImage[SIZES.length];
+        BufferedImage source = full;
+        for(int level = 0; level < SIZES.length; level++) {
+            double scale = Math.min(1.0, (double)SIZES[level] / Math.max(source.getWidth(), source.getHeight()));
+            int width = Math.max((int)Math.round(source.getWidth() * scale), 1);
+            int height = Math.max((int)Math.round(source.getHeight() * scale), 1);
+            while(source.getWidth() / 2 >= width && source.getHeight() / 2 >= height) {
+                source = downscale(source, source.getWidth() / 2, source.getHeight() / 2);
+            }
+            if(source.getWidth() != width || source.getHeight() != height) {
+                source = downscale(source, width, height);
+            }
+            pyramid[level] = source;
+        }
+        return pyramid;
+    }
+
+    /**
+     * Shrinks an image with bilinear smoothing (by at most one half,
+     * the most a single bilinear step can shrink without dropping pixels)
+     * @param image the image to shrink
+     * @param width the new width
+     * @param height the new height
+     * @return the shrunk image
+     */
+    private static BufferedImage downscale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        }
+        finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Brings the thumbnails of every board given up to date (directories
+     * are searched for board files, without going into subdirectories)
+     * @param args the board files and directories of boards
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        for(String arg : args) {
+            File file = new File(arg);
+            File[] boards = file.isDirectory() ? file.listFiles() : new File[] {file};
+            if(boards == null) {
+                System.err.println("Error listing directory \"" + file + "\"");
+                continue;
+            }
+            for(File board : boards) {
+                String fileName = board.getName().toLowerCase();
+                if(board.isFile() && (fileName.endsWith(BinaryBoardFile.EXTENSION) || fileName.endsWith(TiledBoardFile.EXTENSION) ||
+                        fileName.endsWith(".xml"))) {
+                    try {
+                        update(board);
+                    }
+                    catch(IOException ex) {
+                        System.err.println("Error making thumbnails of \"" + board + "\"");
+                        // ex.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Content hash of a board file, with the length and
+     * modification time the file had when it was hashed
+     */
+    private static class Stamp {
+        private long length; // length of the file when it was hashed
+        private long modified; // modification time of the file when it was hashed
+        private String hash; // content hash of the file
+
+        /**
+         * Creates a new stamp
+         * @param length the length of the file
+         * @param modified the modification time of the file
+         * @param hash the content hash of the file
+         */
+        Stamp(long length, long modified, String hash) {
+            this.length = length;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
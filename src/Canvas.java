@@ -5,7 +5,9 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -16,28 +18,41 @@ import java.util.List;
 public class Canvas extends JPanel{
 
     public static final int KNOB_SIZE = 9; // number of pixels for knobs
+    public static final int HIT_TOLERANCE = 3; // farthest (in pixels) a click may be from a shape and still select it
     public static final int NOT_DRAGGING = 0; // dragMode is this if no dragging was going on before
     public static final int DRAG_MOVING = 1; // dragMode is this if dragging is currently moving a shape
     public static final int DRAG_RESIZING = 2; // dragMode is this if dragging is currently resizing a shape
     public static final int DRAGGING_NOTHING = 3; // dragMode is this if dragging is currently dragging nothing
 
-    private List<DShape> shapeList; // list of all shapes to draw on the Canvas
+    private ZOrderList shapeList; // list of all shapes to draw on the Canvas, in z-order (shared with the shape table)
+    private ShapeIdIndex shapeIndex; // index of the shapes in shapeList by model id
     private DShape selected; // currently selected shape on the canvas
     private int dragMode; // keeps track of whether or not a drag is in progress and if so, what kind of drag is in progress
     private int xOffset, yOffset; // keeps track of offset when dragging a shape around
     private int xAnchor, yAnchor; // keeps track of model anchor when resizing a shape
+    private int[] knobBuffer; // reused buffer of (x, y) knob pairs for the selected shape (avoids allocating while painting / hit-testing)
+    private int knobCount; // number of knobs currently stored in knobBuffer
+    private Rectangle hitBounds; // reused rectangle for bounds checks while hit-testing
+    private Rectangle paintBounds; // reused rectangle for checking shapes against the area being painted
+    private RenderQuality renderQuality; // picks fast hints while shapes are being dragged / updated, quality hints at rest
 
     /**
      * Constructs a new Canvas for drawing shapes
      */
     public Canvas() {
-        shapeList = new ArrayList<DShape>();
+        shapeList = new ZOrderList();
+        shapeIndex = new ShapeIdIndex();
         selected = null;
         dragMode = NOT_DRAGGING;
         xOffset = 0;
         yOffset = 0;
         xAnchor = 0;
         yAnchor = 0;
+        knobBuffer = new int[DShape.MAX_KNOBS * 2];
+        knobCount = 0;
+        hitBounds = new Rectangle();
+        paintBounds = new Rectangle();
+        renderQuality = new RenderQuality(this);
 
         setBackground(Color.WHITE);
         setPreferredSize(new Dimension(400, 400));
@@ -45,18 +60,29 @@ public class Canvas extends JPanel{
     }
 
     /**
-     * Paints all the shapes currently on the canvas
+     * Paints all the shapes currently on the canvas (fast while
+     * shapes are being dragged or updated, antialiased at rest).
+     * Shapes wholly outside the area being repainted (shapes repaint
+     * just the area they change) are skipped
      * @param g the Graphics object used for drawing all the shapes
      */
     @Override
     public void paintComponent(Graphics g) {
+        WhiteboardEvents.PaintEvent paintEvent = new WhiteboardEvents.PaintEvent();
+        paintEvent.begin();
         try {
-            List<Point> knobs = null;
+            boolean drawKnobs = false;
             super.paintComponent(g);
+            renderQuality.apply(g);
+            Rectangle clip = g.getClipBounds();
             for(DShape shape : shapeList) {
-                shape.draw(g);
+                shape.getBounds(paintBounds);
+                paintBounds.grow(1, 1); // (outlines are drawn one pixel past the right / bottom edge)
+                if(clip == null || paintBounds.intersects(clip)) {
+                    shape.draw(g);
+                }
                 if(shape == selected) { // do knob painting for the selected shape
-                    knobs = selected.getKnobs();
+                    drawKnobs = true;
                 }
         /* The following code draws the bounding rectangles and a line across it (for debugging)
         g.setColor(Color.GRAY);
@@ -66,10 +92,11 @@ public class Canvas extends JPanel{
         */
             }
 
-            if(knobs != null) { // draw knobs at the end if there is currently a selected shape
-                for(Point p : knobs) {
-                    g.setColor(Color.BLACK);
-                    g.fillRect(p.x - (KNOB_SIZE / 2), p.y - (KNOB_SIZE / 2), KNOB_SIZE, KNOB_SIZE);
+            if(drawKnobs) { // draw knobs at the end if there is currently a selected shape
+                knobCount = selected.getKnobs(knobBuffer);
+                g.setColor(Color.BLACK);
+                for(int i = 0; i < knobCount; i++) {
+                    g.fillRect(knobBuffer[i * 2] - (KNOB_SIZE / 2), knobBuffer[i * 2 + 1] - (KNOB_SIZE / 2), KNOB_SIZE, KNOB_SIZE);
                 }
             }
         }
@@ -83,6 +110,25 @@ public class Canvas extends JPanel{
             //        "(note: as far as can be observed, this error does not negatively harm the program at all)");
             //ex.printStackTrace();
         }
+        paintEvent.end();
+        if(paintEvent.shouldCommit()) {
+            paintEvent.shapes = shapeList.size();
+            paintEvent.commit();
+        }
+    }
+
+    /**
+     * Copies the current shapes into a new ShapeStore. This is a cheap,
+     * consistent snapshot that other threads can read (to save or
+     * export the board) while the canvas keeps changing
+     * @return a snapshot of the shapes on the canvas (back to front)
+     */
+    public ShapeStore snapshot() {
+        ShapeStore store = new ShapeStore(shapeList.size());
+        for(DShape shape : shapeList) {
+            store.add(shape.getModel());
+        }
+        return store;
     }
 
     /**
@@ -92,40 +138,247 @@ public class Canvas extends JPanel{
      */
     public void addShape(DShapeModel model) {
         if(model != null) {
-            DShape shape = null; // the DShape to hold whatever shape correlates to the parameter model
-            if(model instanceof DRectModel) { // make a rectangle and add it to the shape list
-                shape = new DRect();
-            }
-            else if(model instanceof DOvalModel) { // make an oval and add it to the shape list
-                shape = new DOval();
-            }
-            else if(model instanceof DLineModel) { // make a line and add it to the shape list
-                shape = new DLine();
-            }
-            else if(model instanceof DTextModel) { // make a text and add it to the shape list
-                shape = new DText();
-            }
+            DShape shape = createShape(model); // the DShape to hold whatever shape correlates to the parameter model
 
             //Add the shape if an appropriate DShapeModel was found
             if(shape != null) {
-                shape.setModel(model);
                 shapeList.add(shape);
+                shapeIndex.put(model.getId(), shape);
 
                 // set the just-created shape to be the selected shape
-                selected = shapeList.get(shapeList.size() - 1);
+                selected = shape;
             }
             repaint();
         }
     }
 
     /**
-     * Returns the current list of shapes in the canvas
+     * Creates the shape object matching the class of the
+     * parameter model, connected to that model
+     * @param model the shape model to make a shape object for
+     * @return the new shape, or null if the model is null or of an unknown class
+     */
+    private DShape createShape(DShapeModel model) {
+        DShape shape = null;
+        if(model instanceof DRectModel) { // make a rectangle
+            shape = new DRect();
+        }
+        else if(model instanceof DOvalModel) { // make an oval
+            shape = new DOval();
+        }
+        else if(model instanceof DLineModel) { // make a line
+            shape = new DLine();
+        }
+        else if(model instanceof DTextModel) { // make a text
+            shape = new DText();
+        }
+        else if(model instanceof DImageModel) { // make a picture
+            shape = new DImage();
+        }
+        if(shape != null) {
+            shape.setModel(model);
+            shape.setCanvas(this);
+        }
+        return shape;
+    }
+
+    /**
+     * Adds a shape for every valid model in the collection (back
+     * to front), indexing them and joining them to the z-order in
+     * bulk, then repaints once. The last added shape becomes the
+     * selected shape, as with addShape
+     * @param models the shape models to make shape objects for
+     * @return the shapes that were added, in the same order
+     */
+    public List<DShape> addShapes(Collection<? extends DShapeModel> models) {
+        List<DShape> added = new ArrayList<DShape>(models.size());
+        shapeIndex.ensureCapacity(shapeIndex.size() + models.size());
+        for(DShapeModel model : models) {
+            DShape shape = createShape(model);
+            if(shape != null) {
+                shapeIndex.put(model.getId(), shape);
+                added.add(shape);
+            }
+        }
+        if(!added.isEmpty()) {
+            shapeList.addAll(added);
+            selected = added.get(added.size() - 1);
+            repaint();
+        }
+        return added;
+    }
+
+    /**
+     * Inserts a shape for every model at the matching z-position,
+     * then repaints once. Unlike addShape, the selection is left
+     * alone (this is used to fill in a board while it loads)
+     * @param models the shape models to make shape objects for (all must be drawable)
+     * @param indexes the z-position of every new shape, each counted after the previous insertions
+     * @return the shapes that were inserted, in the same order
+     */
+    public List<DShape> insertShapes(List<? extends DShapeModel> models, int[] indexes) {
+        List<DShape> inserted = new ArrayList<DShape>(models.size());
+        shapeIndex.ensureCapacity(shapeIndex.size() + models.size());
+        for(int i = 0; i < models.size(); i++) {
+            DShape shape = createShape(models.get(i));
+            if(shape == null) {
+                throw new IllegalArgumentException("Model cannot be drawn: " + models.get(i));
+            }
+            shapeList.add(Math.min(indexes[i], shapeList.size()), shape);
+            shapeIndex.put(shape.getModel().getId(), shape);
+            inserted.add(shape);
+        }
+        if(!inserted.isEmpty()) {
+            repaint();
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the shape on the canvas whose model has the specified id
+     * @param id the id of the model to look for
+     * @return the shape with the specified model id, or null if there is none
+     */
+    public DShape getShapeById(int id) {
+        return shapeIndex.get(id);
+    }
+
+    /**
+     * Removes the argument shape from the canvas (deselecting
+     * it if it was the selected shape)
+     * @param shape the shape to remove
+     * @return the z-position the shape had, or -1 if it was not on the canvas
+     */
+    public int removeShape(DShape shape) {
+        int oldIndex = shapeList.indexOf(shape);
+        if(oldIndex == -1) {
+            return -1;
+        }
+        shapeList.remove(oldIndex);
+        if(shapeIndex.get(shape.getModel().getId()) == shape) {
+            shapeIndex.remove(shape.getModel().getId());
+        }
+        shape.getModel().removeModelListener(shape);
+        shape.setCanvas(null);
+        if(selected == shape) {
+            selected = null;
+        }
+        repaint();
+        return oldIndex;
+    }
+
+    /**
+     * Moves the argument shape to the front of the canvas
+     * (i.e., to the end of the shape list)
+     * @param shape the shape to move to the front
+     * @return the z-position the shape had before moving, or -1 if it is not on the canvas
+     */
+    public int moveShapeToFront(DShape shape) {
+        int oldIndex = shapeList.moveToFront(shape);
+        if(oldIndex != -1) {
+            repaint();
+        }
+        return oldIndex;
+    }
+
+    /**
+     * Moves the argument shape to the back of the canvas
+     * (i.e., to the beginning of the shape list)
+     * @param shape the shape to move to the back
+     * @return the z-position the shape had before moving, or -1 if it is not on the canvas
+     */
+    public int moveShapeToBack(DShape shape) {
+        int oldIndex = shapeList.moveToBack(shape);
+        if(oldIndex != -1) {
+            repaint();
+        }
+        return oldIndex;
+    }
+
+    /**
+     * Returns the current list of shapes in the canvas (the same
+     * list instance is kept for the lifetime of the canvas, so it
+     * can be shared with the shape table)
      * @return the current list of shapes in the canvas
      */
     public List<DShape> getShapeList() {
         return shapeList;
     }
 
+    /**
+     * Finds the knob of the selected shape that contains the
+     * specified point. The knob positions are kept in an internal
+     * buffer afterwards, so they can be read with getKnobX / getKnobY
+     * @param x the x-coordinate to test
+     * @param y the y-coordinate to test
+     * @return the index of the knob containing the point (the last
+     * one if knobs overlap), or -1 if no knob contains it
+     */
+    public int getKnobIndexAt(int x, int y) {
+        int knobIndex = -1;
+        if(selected != null) {
+            knobCount = selected.getKnobs(knobBuffer);
+            for(int i = 0; i < knobCount; i++) {
+                int knobLeft = knobBuffer[i * 2] - (KNOB_SIZE / 2);
+                int knobTop = knobBuffer[i * 2 + 1] - (KNOB_SIZE / 2);
+                // Check if the point was in bounds of the current knob
+                if(x >= knobLeft && x <= knobLeft + KNOB_SIZE && y >= knobTop && y <= knobTop + KNOB_SIZE) {
+                    knobIndex = i;
+                }
+            }
+        }
+        return knobIndex;
+    }
+
+    /**
+     * Returns the number of knobs stored by the last knob lookup
+     * @return the number of knobs stored by the last knob lookup
+     */
+    public int getKnobCount() {
+        return knobCount;
+    }
+
+    /**
+     * Returns the x-coordinate of the specified knob from the last knob lookup
+     * @param knobIndex the index of the knob
+     * @return the x-coordinate of the specified knob
+     */
+    public int getKnobX(int knobIndex) {
+        return knobBuffer[knobIndex * 2];
+    }
+
+    /**
+     * Returns the y-coordinate of the specified knob from the last knob lookup
+     * @param knobIndex the index of the knob
+     * @return the y-coordinate of the specified knob
+     */
+    public int getKnobY(int knobIndex) {
+        return knobBuffer[knobIndex * 2 + 1];
+    }
+
+    /**
+     * Finds the front-most shape the specified point hits (within
+     * HIT_TOLERANCE of its drawn geometry). Every shape is first checked
+     * against its bounds grown by the tolerance (a few comparisons, without
+     * allocating), so the exact test only runs for the few shapes near the point
+     * @param x the x-coordinate to test
+     * @param y the y-coordinate to test
+     * @return the front-most shape hit by the point, or null if there is none
+     */
+    public DShape getShapeAt(int x, int y) {
+        Iterator<DShape> frontToBack = shapeList.descendingIterator(); // go in reverse to check shapes in the front first
+        while(frontToBack.hasNext()) {
+            DShape shape = frontToBack.next();
+            shape.getBounds(hitBounds);
+            if(x >= hitBounds.x - HIT_TOLERANCE && x <= hitBounds.x + hitBounds.width + HIT_TOLERANCE &&
+                    y >= hitBounds.y - HIT_TOLERANCE && y <= hitBounds.y + hitBounds.height + HIT_TOLERANCE &&
+                    shape.hitTest(x, y, HIT_TOLERANCE)) {
+                return shape;
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the currently selected shape on the canvas
      * @return the currently selected shape on the canvas
@@ -157,11 +410,21 @@ public class Canvas extends JPanel{
      * something is being dragged on the screen
      */
     public void stopDragging() {
+        renderQuality.endInteraction();
         dragMode = NOT_DRAGGING;
         xOffset = 0;
         yOffset = 0;
     }
 
+    /**
+     * Reports a change that did not come from this canvas (such as an
+     * update from the server), so a burst of them is painted fast and
+     * repainted in full quality once it ends
+     */
+    public void noteRemoteUpdate() {
+        renderQuality.noteActivity();
+    }
+
     /**
      * Returns the current drag mode of the canvas
      * @return the current drag mode of the canvas
@@ -175,6 +438,9 @@ public class Canvas extends JPanel{
      * @param dragMode the new drag mode to set the canvas to
      */
     public void setDragMode(int dragMode) {
+        if(dragMode == DRAG_MOVING || dragMode == DRAG_RESIZING) {
+            renderQuality.beginInteraction();
+        }
         this.dragMode = dragMode;
     }
 
@@ -237,7 +503,11 @@ public class Canvas extends JPanel{
      * essentially resetting the canvas completely
      */
     public void clearCanvas() {
-        shapeList = new ArrayList<DShape>();
+        for(DShape shape : shapeList) {
+            shape.setCanvas(null);
+        }
+        shapeList.clear();
+        shapeIndex.clear();
         selected = null;
         dragMode = NOT_DRAGGING;
         xOffset = 0;
@@ -0,0 +1,802 @@
+import java.awt.*;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Single thread that owns the connections of a server whiteboard's
+ * clients. The event dispatch thread (the only writer of the board)
+ * just queues commands holding copies of the changed models; this
+ * thread encodes every operation once, keeps an encoded copy of the
+ * board and hands the messages to a queue per client, each drained
+ * by its own writer thread, so a slow client never holds up the user
+ * interface or the other clients. The encoded board is given the whole
+ * board once (when serving starts or a file is opened) and then kept
+ * up to date by every operation, so a joining client is sent it as is,
+ * without encoding or copying the board again. Its z-order is kept as
+ * a key per shape (moving to the front / back takes a key past the
+ * current front / back), so every operation costs O(log n).
+ *
+ * A client whose queued operations grow past MAX_BACKLOG_BYTES, or
+ * whose oldest queued operation is older than MAX_BACKLOG_AGE, has its
+ * queued operations dropped; once it has read what it was already
+ * sent it gets one snapshot of the board instead. Operations queued
+ * behind a snapshot only start counting once the snapshot is written.
+ * Memory per client is bounded by the backlog limit plus the snapshots
+ * and the operations that arrive while they are written.
+ *
+ * Clients may report the area of the board they show. Changes to shapes
+ * that stay outside a client's area are held back (a spatial index keeps
+ * the bounds of every shape) and sent once the area moves over them, so
+ * viewers of a large board only receive the changes they can see.
+ *
+ * Image shapes are sent with only the hash of their picture. Right
+ * before the first message that needs a picture, a client's writer
+ * sends it an "image" message with the encoded bytes, so each client
+ * receives every picture once however many shapes use it
+ */
+public class ClientBroadcaster extends Thread {
+
+    private static final long MAX_BACKLOG_BYTES = 4L * 1024 * 1024; // queued operation bytes that make a client lagging
+    private static final long MAX_BACKLOG_AGE = 5000; // age (milliseconds) of the oldest queued operation that makes a client lagging
+
+    // kinds of commands
+    private static final int MESSAGE = 0; // send an operation to every client
+    private static final int ADD_CLIENT = 1; // start sending to a new client, after sending it the board
+    private static final int RESET_CLIENTS = 2; // send the whole board to every client
+    private static final int SNAPSHOT = 3; // send the board to a lagging client that caught up
+    private static final int VIEWPORT = 4; // a client reported the area of the board it shows
+
+    private BlockingQueue<Command> commands; // commands waiting to be carried out
+    private List<ClientConnection> clients; // the connected clients (only used by this thread)
+    private volatile ClientConnection[] clientArray; // the connected clients, readable from any thread
+    private Map<Integer, String> boardXml; // encoded model of every shape on the board (only used by this thread)
+    private TreeMap<Long, Integer> boardOrder; // id of every shape on the board by z-key, back to front (only used by this thread)
+    private Map<Integer, Long> zKeys; // z-key of every shape on the board (only used by this thread)
+    private long frontKey; // largest z-key handed out (only used by this thread)
+    private long backKey; // smallest z-key handed out (only used by this thread)
+    private Map<Integer, String> boardImages; // hash of the picture of every image shape on the board, each held in the ImageStore (only used by this thread)
+    private SpatialGrid shapeBounds; // bounds of every shape on the board (only used by this thread)
+    private Map<ObjectOutputStream, Rectangle> earlyViewports; // areas reported by clients not added yet (only used by this thread)
+    private String clearXml; // encoded model sent with "clear" instructions
+    private WhiteboardMonitor monitor; // counters updated with every message sent
+
+    /**
+     * Creates a new broadcaster (call start to run it)
+     * @param monitor the counters to update with every message sent
+     */
+    public ClientBroadcaster(WhiteboardMonitor monitor) {
+        super("Whiteboard client broadcaster");
+        setDaemon(true);
+        commands = new LinkedBlockingQueue<Command>();
+        clients = new ArrayList<ClientConnection>();
+        clientArray = new ClientConnection[0];
+        boardXml = new HashMap<Integer, String>();
+        boardOrder = new TreeMap<Long, Integer>();
+        zKeys = new HashMap<Integer, Long>();
+        frontKey = 0;
+        backKey = 0;
+        boardImages = new HashMap<Integer, String>();
+        shapeBounds = new SpatialGrid();
+        earlyViewports = new HashMap<ObjectOutputStream, Rectangle>();
+        clearXml = null;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Queues an operation to send to every client
+     * @param instruction the instruction for the clients ("add", "change", ...)
+     * @param model the model the instruction applies to (copied right away)
+     */
+    public void broadcast(String instruction, DShapeModel model) {
+        broadcast(instruction, model, DShapeModel.CHANGED_ALL);
+    }
+
+    /**
+     * Queues an operation to send to every client, naming the
+     * attributes it changed: the bounds of a shape are only indexed
+     * again, and its picture only looked up again, if they changed
+     * @param instruction the instruction for the clients ("add", "change", ...)
+     * @param model the model the instruction applies to (copied right away)
+     * @param changeMask the attributes a "change" touched (DShapeModel CHANGED_ constants)
+     */
+    public void broadcast(String instruction, DShapeModel model, int changeMask) {
+        Command command = new Command(MESSAGE);
+        command.instruction = instruction;
+        command.model = copyModel(model);
+        command.changeMask = changeMask;
+        commands.add(command);
+    }
+
+    /**
+     * Queues a new client, which is first sent the board as it is after
+     * every operation queued before this call, then every later operation
+     * @param output the stream of the new client
+     */
+    public void addClient(ObjectOutputStream output) {
+        Command command = new Command(ADD_CLIENT);
+        command.output = output;
+        commands.add(command);
+    }
+
+    /**
+     * Queues replacing the encoded board and sending the whole board
+     * to every client (when serving starts and after a file was opened)
+     * @param board the models of the board, back to front (copied right away)
+     */
+    public void resetClients(List<DShapeModel> board) {
+        Command command = new Command(RESET_CLIENTS);
+        command.board = copyModels(board);
+        commands.add(command);
+    }
+
+    /**
+     * Queues a client's report of the area of the board it shows
+     * (from then on, changes to shapes outside it are held back
+     * until the area moves over them)
+     * @param output the stream of the client
+     * @param viewport the area of the board the client shows
+     */
+    public void setViewport(ObjectOutputStream output, Rectangle viewport) {
+        Command command = new Command(VIEWPORT);
+        command.output = output;
+        command.viewport = new Rectangle(viewport);
+        commands.add(command);
+    }
+
+    /**
+     * Returns the number of connected clients
+     * @return the number of connected clients
+     */
+    public int getClientCount() {
+        return clientArray.length;
+    }
+
+    /**
+     * Returns the number of messages waiting to be sent to each client
+     * @return the queue depth of every connected client
+     */
+    public int[] getClientQueueDepths() {
+        ClientConnection[] current = clientArray;
+        int[] depths = new int[current.length];
+        for(int i = 0; i < current.length; i++) {
+            depths[i] = current[i].getQueueDepth();
+        }
+        return depths;
+    }
+
+    /**
+     * Creates a copy of a model that no later edit can change
+     * (line points are never changed in place, so sharing them is safe)
+     * @param model the model to copy
+     * @return a new model of the same class holding the same values
+     */
+    public static DShapeModel copyModel(DShapeModel model) {
+        DShapeModel copy = ShapeStore.newModel(ShapeStore.typeOf(model));
+        copy.mimic(model);
+        return copy;
+    }
+
+    /**
+     * Carries out queued commands until the program ends
+     */
+    public void run() {
+        clearXml = encode(new DShapeModel());
+        List<Command> batch = new ArrayList<Command>();
+        Map<Integer, Command> lastChanges = new HashMap<Integer, Command>(); // last change of every model in the batch
+        while(true) {
+            try {
+                batch.clear();
+                batch.add(commands.take());
+                commands.drainTo(batch);
+            }
+            catch(InterruptedException ex) {
+                return;
+            }
+
+            // a change carries the whole model, so only the last change of a model in a batch has to be sent
+            // (taking over what the dropped changes touched)
+            lastChanges.clear();
+            for(int i = batch.size() - 1; i >= 0; i--) {
+                Command command = batch.get(i);
+                if(command.kind == MESSAGE && command.instruction.equals("change")) {
+                    Command lastChange = lastChanges.get(command.model.getId());
+                    if(lastChange == null) {
+                        lastChanges.put(command.model.getId(), command);
+                    }
+                    else {
+                        lastChange.changeMask |= command.changeMask;
+                        batch.set(i, null);
+                    }
+                }
+            }
+
+            for(Command command : batch) {
+                if(command == null) {
+                    continue;
+                }
+                switch(command.kind) {
+                    case MESSAGE:
+                        sendToAll(command.instruction, command.model, command.changeMask);
+                        break;
+                    case ADD_CLIENT:
+                        ClientConnection client = new ClientConnection(command.output);
+                        client.sendSnapshot(snapshot());
+                        clients.add(client);
+                        clientArray = clients.toArray(new ClientConnection[clients.size()]);
+                        client.start();
+                        Rectangle earlyViewport = earlyViewports.remove(command.output);
+                        if(earlyViewport != null) {
+                            moveViewport(client, earlyViewport);
+                        }
+                        break;
+                    case RESET_CLIENTS:
+                        setBoard(command.board);
+                        List<Message> messages = snapshot();
+                        for(ClientConnection connected : clients) {
+                            connected.sendSnapshot(messages);
+                        }
+                        break;
+                    case SNAPSHOT:
+                        if(command.client.isLagging()) { // (it may have been reset since asking)
+                            command.client.sendSnapshot(snapshot());
+                        }
+                        break;
+                    case VIEWPORT:
+                        boolean found = false;
+                        for(ClientConnection viewer : clients) {
+                            if(viewer.output == command.output) {
+                                moveViewport(viewer, command.viewport);
+                                found = true;
+                            }
+                        }
+                        if(!found) { // the report beat the client's own setup
+                            earlyViewports.put(command.output, command.viewport);
+                        }
+                        break;
+                    default:
+                        // no other kinds of commands
+                }
+            }
+
+            // remove sockets from list that do not work
+            for(int i = clients.size() - 1; i >= 0; i--) {
+                if(clients.get(i).isFailed()) {
+                    clients.remove(i);
+                }
+            }
+            if(clients.size() != clientArray.length) {
+                clientArray = clients.toArray(new ClientConnection[clients.size()]);
+            }
+        }
+    }
+
+    /**
+     * Encodes an operation, applies it to the encoded board and
+     * queues it for every current client
+     * @param instruction the instruction sent by the server
+     * @param updatedModel the shape model sent by the server
+     * @param changeMask the attributes a "change" touched
+     */
+    private void sendToAll(String instruction, DShapeModel updatedModel, int changeMask) {
+        WhiteboardEvents.MessageEvent messageEvent = new WhiteboardEvents.MessageEvent();
+        messageEvent.begin();
+
+        // convert model into xml
+        String modelMessage = encode(updatedModel);
+        int id = updatedModel.getId();
+        Rectangle oldBounds = shapeBounds.get(id);
+        applyToBoard(instruction, updatedModel, modelMessage, changeMask);
+        Rectangle newBounds = shapeBounds.get(id);
+
+        // queue xml message for all clients that can see it
+        Message message = new Message(instruction, modelMessage, boardImages.get(id), true);
+        long now = System.currentTimeMillis();
+        int clientCount = 0;
+        for(ClientConnection client : clients) {
+            if(client.wantsOperation(instruction, id, oldBounds, newBounds)) {
+                client.sendOperation(message, now);
+                clientCount++;
+            }
+        }
+
+        monitor.recordOperation(message.bytes * clientCount);
+        messageEvent.end();
+        if(messageEvent.shouldCommit()) {
+            messageEvent.instruction = instruction;
+            messageEvent.clients = clientCount;
+            messageEvent.bytes = message.bytes;
+            messageEvent.commit();
+        }
+    }
+
+    /**
+     * Sends a client the changes held back for shapes that
+     * its new area shows (where they are now or where the
+     * client last saw them)
+     * @param client the client that reported a new area
+     * @param viewport the area of the board the client now shows
+     */
+    private void moveViewport(ClientConnection client, Rectangle viewport) {
+        long now = System.currentTimeMillis();
+        for(Integer id : client.moveViewport(viewport, shapeBounds)) {
+            String modelMessage = boardXml.get(id);
+            if(modelMessage != null) {
+                client.sendOperation(new Message("change", modelMessage, boardImages.get(id), true), now);
+            }
+        }
+    }
+
+    /**
+     * Applies an operation to the encoded board
+     * @param instruction the instruction of the operation
+     * @param model the model the operation applies to
+     * @param modelMessage the encoded model
+     * @param changeMask the attributes a "change" touched
+     */
+    private void applyToBoard(String instruction, DShapeModel model, String modelMessage, int changeMask) {
+        int id = model.getId();
+        if(instruction.equals("add") || instruction.equals("change")) {
+            if(instruction.equals("add") || boardXml.containsKey(id)) {
+                boolean added = boardXml.put(id, modelMessage) == null;
+                if(added) { // an existing shape keeps its place
+                    placeShape(id, ++frontKey);
+                }
+                if(added || instruction.equals("add") || (changeMask & DShapeModel.CHANGED_BOUNDS) != 0) {
+                    shapeBounds.put(id, model.getBounds());
+                }
+                if(added || instruction.equals("add") || (changeMask & DShapeModel.CHANGED_IMAGE) != 0) {
+                    putImage(model);
+                }
+            }
+        }
+        else if(instruction.equals("remove")) {
+            boardXml.remove(id);
+            ImageStore.release(boardImages.remove(id));
+            shapeBounds.remove(id);
+            Long zKey = zKeys.remove(id);
+            if(zKey != null) {
+                boardOrder.remove(zKey);
+            }
+        }
+        else if(instruction.equals("front")) {
+            if(boardXml.containsKey(id)) {
+                placeShape(id, ++frontKey);
+            }
+        }
+        else if(instruction.equals("back")) {
+            if(boardXml.containsKey(id)) {
+                placeShape(id, --backKey);
+            }
+        }
+        else if(instruction.equals("clear")) {
+            clearBoard();
+        }
+    }
+
+    /**
+     * Gives a shape of the encoded board a new z-key (O(log n))
+     * @param id the id of the shape
+     * @param zKey the new z-key of the shape
+     */
+    private void placeShape(int id, long zKey) {
+        Long oldKey = zKeys.put(id, zKey);
+        if(oldKey != null) {
+            boardOrder.remove(oldKey);
+        }
+        boardOrder.put(zKey, id);
+    }
+
+    /**
+     * Empties the encoded board
+     */
+    private void clearBoard() {
+        boardXml.clear();
+        for(String hash : boardImages.values()) {
+            ImageStore.release(hash);
+        }
+        boardImages.clear();
+        shapeBounds.clear();
+        boardOrder.clear();
+        zKeys.clear();
+        frontKey = 0;
+        backKey = 0;
+    }
+
+    /**
+     * Replaces the encoded board
+     * @param board the models of the board, back to front
+     */
+    private void setBoard(List<DShapeModel> board) {
+        clearBoard();
+        for(DShapeModel model : board) {
+            boardXml.put(model.getId(), encode(model));
+            placeShape(model.getId(), ++frontKey);
+            shapeBounds.put(model.getId(), model.getBounds());
+            putImage(model);
+        }
+    }
+
+    /**
+     * Remembers (and holds) the picture of a shape on the board,
+     * releasing the picture it had before
+     * @param model the model of the shape
+     */
+    private void putImage(DShapeModel model) {
+        String oldHash;
+        if(model instanceof DImageModel && ((DImageModel)model).getImageHash() != null) {
+            String hash = ((DImageModel)model).getImageHash();
+            ImageStore.hold(hash);
+            oldHash = boardImages.put(model.getId(), hash);
+        }
+        else {
+            oldHash = boardImages.remove(model.getId());
+        }
+        ImageStore.release(oldHash);
+    }
+
+    /**
+     * Builds the messages that make a client match the board:
+     * clear its whiteboard, then add every shape
+     * @return the messages of a snapshot of the board
+     */
+    private List<Message> snapshot() {
+        WhiteboardEvents.ClientSetupEvent setupEvent = new WhiteboardEvents.ClientSetupEvent();
+        setupEvent.begin();
+        List<Message> messages = new ArrayList<Message>(boardXml.size() + 1);
+        messages.add(new Message("clear", clearXml, null, false)); // first tell client to reset their whiteboard
+        long bytes = messages.get(0).bytes;
+        for(Integer id : boardOrder.values()) { // now add all current shapes in the whiteboard server, back to front
+            Message message = new Message("add", boardXml.get(id), boardImages.get(id), false);
+            messages.add(message);
+            bytes += message.bytes;
+        }
+        setupEvent.end();
+        if(setupEvent.shouldCommit()) {
+            setupEvent.shapes = boardXml.size();
+            setupEvent.bytes = bytes;
+            setupEvent.commit();
+        }
+        return messages;
+    }
+
+    /**
+     * Converts a model into the XML sent to clients
+     * @param model the model to encode
+     * @return the XML of the model
+     */
+    private static String encode(DShapeModel model) {
+        ByteArrayOutputStream memStream = new ByteArrayOutputStream();
+        XMLEncoder encoder = new XMLEncoder(memStream);
+        encoder.writeObject(model);
+        encoder.close();
+        return memStream.toString();
+    }
+
+    /**
+     * Copies every model of a board
+     * @param board the models to copy
+     * @return copies of the models, in the same order
+     */
+    private static List<DShapeModel> copyModels(List<DShapeModel> board) {
+        List<DShapeModel> copies = new ArrayList<DShapeModel>(board.size());
+        for(DShapeModel model : board) {
+            copies.add(copyModel(model));
+        }
+        return copies;
+    }
+
+    /**
+     * A command queued for the broadcaster thread
+     */
+    private static class Command {
+        private int kind; // which kind of command this is
+        private String instruction; // instruction of a message
+        private DShapeModel model; // model of a message
+        private int changeMask; // attributes a change message touched
+        private ObjectOutputStream output; // stream of a new client
+        private List<DShapeModel> board; // whole board for a reset
+        private ClientConnection client; // lagging client asking for a snapshot
+        private Rectangle viewport; // area of the board a client shows
+
+        /**
+         * Creates a new command of the specified kind
+         * @param kind the kind of command
+         */
+        Command(int kind) {
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * An encoded message, ready to be written to clients
+     */
+    private static class Message {
+        private String instruction; // the instruction for the clients
+        private String modelMessage; // the XML of the model
+        private String imageHash; // hash of the picture the client needs first (null for shapes without one)
+        private long bytes; // size of the message (the XML is ASCII, so one byte per character)
+        private boolean operation; // true for operations, false for parts of a snapshot (which are never dropped)
+
+        /**
+         * Creates a new message
+         * @param instruction the instruction for the clients
+         * @param modelMessage the XML of the model
+         * @param imageHash hash of the picture the client needs first (null for shapes without one)
+         * @param operation true for operations, false for parts of a snapshot
+         */
+        Message(String instruction, String modelMessage, String imageHash, boolean operation) {
+            this.instruction = instruction;
+            this.modelMessage = modelMessage;
+            this.imageHash = imageHash;
+            this.operation = operation;
+            bytes = instruction.length() + modelMessage.length();
+        }
+    }
+
+    /**
+     * A connected client: its queue of messages and the thread writing them
+     */
+    private class ClientConnection extends Thread {
+        private ObjectOutputStream output; // stream of the client
+        private ArrayDeque<Message> queue; // messages waiting to be written (snapshot parts, then operations)
+        private ArrayDeque<Long> operationTimes; // time every counted queued operation was queued (milliseconds), oldest first
+        private long backlogBytes; // bytes of the counted queued operations
+        private int snapshotParts; // parts of snapshots queued but not yet written
+        private int heldOperations; // operations queued behind a snapshot part (only counted once every snapshot part is written)
+        private long heldBytes; // bytes of the operations queued behind a snapshot part
+        private boolean lagging; // true from dropping the backlog until a snapshot is queued
+        private boolean snapshotRequested; // true once a lagging client that caught up asked for its snapshot
+        private volatile boolean failed; // true once writing to the client failed
+        private Rectangle viewport; // area of the board the client shows (null until reported: then it gets every change) (broadcaster thread only)
+        private SpatialGrid deferred; // shapes with changes held back, by the bounds the client last got (broadcaster thread only)
+        private Set<String> sentImages; // hashes of the pictures already written to the client (writer thread only)
+
+        /**
+         * Creates a new connection writing to the client's stream
+         * @param output the stream of the client
+         */
+        ClientConnection(ObjectOutputStream output) {
+            super("Whiteboard client writer");
+            setDaemon(true);
+            this.output = output;
+            queue = new ArrayDeque<Message>();
+            operationTimes = new ArrayDeque<Long>();
+            backlogBytes = 0;
+            snapshotParts = 0;
+            heldOperations = 0;
+            heldBytes = 0;
+            lagging = false;
+            snapshotRequested = false;
+            failed = false;
+            viewport = null;
+            deferred = new SpatialGrid();
+            sentImages = new HashSet<String>();
+        }
+
+        /**
+         * Decides whether to send an operation to the client (called on
+         * the broadcaster thread). Changes to shapes the client neither
+         * sees now nor will see after the change are held back
+         * @param instruction the instruction of the operation
+         * @param id the id of the model the operation applies to
+         * @param oldBounds the bounds of the shape before the operation (null if it was not on the board)
+         * @param newBounds the bounds of the shape after the operation (null if it is not on the board)
+         * @return true if the operation should be sent
+         */
+        boolean wantsOperation(String instruction, int id, Rectangle oldBounds, Rectangle newBounds) {
+            if(instruction.equals("clear")) {
+                deferred.clear();
+                return true;
+            }
+            if(instruction.equals("change") && viewport != null && oldBounds != null && newBounds != null) {
+                Rectangle shownBounds = deferred.contains(id) ? deferred.get(id) : oldBounds; // where the client draws the shape
+                if(!SpatialGrid.overlaps(shownBounds, viewport) && !SpatialGrid.overlaps(newBounds, viewport)) {
+                    if(!deferred.contains(id)) {
+                        deferred.put(id, shownBounds);
+                    }
+                    return false;
+                }
+            }
+            if(!instruction.equals("front") && !instruction.equals("back")) { // the client gets the shape as it is now
+                deferred.remove(id);
+            }
+            return true;
+        }
+
+        /**
+         * Moves the area the client shows (called on the broadcaster thread)
+         * @param newViewport the area of the board the client now shows
+         * @param shapeBounds the bounds of every shape on the board
+         * @return the ids of the held back shapes to send now (no longer held back)
+         */
+        Set<Integer> moveViewport(Rectangle newViewport, SpatialGrid shapeBounds) {
+            viewport = newViewport;
+            Set<Integer> due = deferred.query(newViewport); // shapes the client draws, out of date, in its new area
+            if(deferred.size() > 0) {
+                for(Integer id : shapeBounds.query(newViewport)) { // shapes that moved into the new area while held back
+                    if(deferred.contains(id)) {
+                        due.add(id);
+                    }
+                }
+            }
+            for(Integer id : due) {
+                deferred.remove(id);
+            }
+            return due;
+        }
+
+        /**
+         * Queues an operation, unless the client is lagging (then its
+         * snapshot will hold the operation). If the backlog grows too
+         * large or too old, every queued operation is dropped and the
+         * client becomes lagging. Operations queued behind a snapshot
+         * only count towards the backlog once the snapshot is written,
+         * so a client slowly reading a large snapshot is not sent
+         * another one as soon as it has read the first
+         * @param message the encoded operation
+         * @param now the current time (milliseconds)
+         */
+        synchronized void sendOperation(Message message, long now) {
+            if(failed || lagging) {
+                return;
+            }
+            queue.add(message);
+            if(snapshotParts > 0) { // the backlog clock starts once the client has the snapshot
+                heldOperations++;
+                heldBytes += message.bytes;
+                notifyAll();
+                return;
+            }
+            operationTimes.add(now);
+            backlogBytes += message.bytes;
+
+            long backlogAge = now - operationTimes.peekFirst();
+            if(backlogBytes > MAX_BACKLOG_BYTES || backlogAge > MAX_BACKLOG_AGE) {
+                int droppedMessages = 0;
+                while(!queue.isEmpty() && queue.peekLast().operation) { // parts of a snapshot being sent are kept
+                    queue.pollLast();
+                    droppedMessages++;
+                }
+                WhiteboardEvents.ClientLagEvent lagEvent = new WhiteboardEvents.ClientLagEvent();
+                lagEvent.droppedMessages = droppedMessages;
+                lagEvent.droppedBytes = backlogBytes;
+                lagEvent.backlogAge = backlogAge;
+                lagEvent.commit();
+                monitor.recordLaggingClientReset();
+                backlogBytes = 0;
+                operationTimes.clear();
+                lagging = true;
+                snapshotRequested = false;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Queues a snapshot of the board (after any messages already
+         * queued), which ends lagging
+         * @param messages the messages of the snapshot
+         */
+        synchronized void sendSnapshot(List<Message> messages) {
+            deferred.clear(); // (only ever called on the broadcaster thread)
+            queue.addAll(messages);
+            snapshotParts += messages.size();
+            lagging = false;
+            snapshotRequested = false;
+            notifyAll();
+        }
+
+        /**
+         * Returns whether the client is waiting for a snapshot
+         * @return true if the client is lagging
+         */
+        synchronized boolean isLagging() {
+            return lagging;
+        }
+
+        /**
+         * Returns whether writing to the client failed
+         * @return true if the client no longer works
+         */
+        boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the number of messages waiting to be written
+         * @return the number of queued messages
+         */
+        synchronized int getQueueDepth() {
+            return queue.size();
+        }
+
+        /**
+         * Writes queued messages until the client stops working,
+         * flushing whenever the queue runs empty
+         */
+        public void run() {
+            try {
+                while(true) {
+                    Message message;
+                    boolean more;
+                    synchronized(this) {
+                        while(queue.isEmpty()) {
+                            if(lagging && !snapshotRequested) { // caught up with what was sent: time for the snapshot
+                                snapshotRequested = true;
+                                Command command = new Command(SNAPSHOT);
+                                command.client = this;
+                                commands.add(command);
+                            }
+                            wait();
+                        }
+                        message = queue.poll();
+                        if(message.operation && !operationTimes.isEmpty()) { // (counted operations are queued before held ones)
+                            backlogBytes -= message.bytes;
+                            operationTimes.poll();
+                        }
+                        else if(message.operation) {
+                            heldOperations--;
+                            heldBytes -= message.bytes;
+                        }
+                        else if(--snapshotParts == 0) { // the last snapshot part: the held operations start counting now
+                            long now = System.currentTimeMillis();
+                            for(int i = 0; i < heldOperations; i++) {
+                                operationTimes.add(now);
+                            }
+                            backlogBytes += heldBytes;
+                            heldOperations = 0;
+                            heldBytes = 0;
+                        }
+                        more = !queue.isEmpty();
+                    }
+
+                    // the picture of an image shape goes first, the first time the client needs it
+                    if(message.imageHash != null && !sentImages.contains(message.imageHash)) {
+                        byte[] imageBytes = ImageStore.get(message.imageHash);
+                        if(imageBytes != null) {
+                            output.writeUnshared("image");
+                            output.writeUnshared(imageBytes);
+                            sentImages.add(message.imageHash);
+                        }
+                    }
+
+                    // unshared, so the stream does not keep every message it ever sent
+                    output.writeUnshared(message.instruction);
+                    output.writeUnshared(message.modelMessage);
+                    if(!more) {
+                        output.flush();
+                    }
+                }
+            }
+            catch(InterruptedException ex) {
+                // stop writing
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+            finally {
+                synchronized(this) {
+                    failed = true;
+                    queue.clear();
+                }
+                try {
+                    output.close();
+                }
+                catch(IOException ex) {
+                    // nothing more can be done
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * DShape which draws a picture, scaled to fill its bounds. While
+ * the shape is on a canvas it holds its picture in the ImageStore
+ */
+public class DImage extends DShape{
+
+    private boolean shown; // true while the shape is on a canvas
+    private String heldHash; // hash of the picture the shape holds in the ImageStore (null if none)
+
+    /**
+     * Creates a new DImage shape
+     */
+    public DImage() {
+        super(new DImageModel());
+        shown = false;
+        heldHash = null;
+    }
+
+    /**
+     * Sets the DImageModel connected with this DImage to
+     * be the parameter (holding its picture instead, if shown)
+     * @param model the DImageModel to connect with this DImage
+     */
+    @Override
+    public void setModel(DShapeModel model) {
+        super.setModel(model);
+        holdImage();
+    }
+
+    /**
+     * Sets the component the shape is shown on, holding the
+     * picture while there is one and releasing it afterwards
+     * @param canvas the component showing the shape (null once it no longer does)
+     */
+    @Override
+    public void setCanvas(Component canvas) {
+        super.setCanvas(canvas);
+        shown = canvas != null;
+        holdImage();
+    }
+
+    /**
+     * Holds the new picture when the model's picture changes,
+     * then repaints as any shape does
+     * @param model the DShapeModel that sent the notification message
+     * @param changeMask the attributes that changed
+     */
+    @Override
+    public void modelChanged(DShapeModel model, int changeMask) {
+        if((changeMask & DShapeModel.CHANGED_IMAGE) != 0) {
+            holdImage();
+        }
+        super.modelChanged(model, changeMask);
+    }
+
+    /**
+     * Makes the picture held in the ImageStore the one of the
+     * model while the shape is shown (and none otherwise)
+     */
+    private void holdImage() {
+        String hash = shown ? ((DImageModel)getModel()).getImageHash() : null;
+        if(hash == null ? heldHash == null : hash.equals(heldHash)) {
+            return;
+        }
+        ImageStore.hold(hash);
+        ImageStore.release(heldHash);
+        heldHash = hash;
+    }
+
+    /**
+     * Draws the DImage based on the current status of the connected
+     * DImageModel, from a bitmap of the shared BitmapCache sized for
+     * the shape as it appears on the device. Pictures whose bytes have
+     * not arrived yet (or cannot be decoded) are drawn as a crossed box
+     * @param g the Graphics object needed to draw
+     */
+    @Override
+    public void draw(Graphics g) {
+        DImageModel model = (DImageModel)getModel();
+        int width = Math.abs(model.getWidth());
+        int height = Math.abs(model.getHeight());
+
+        // size on the device (bigger than the model on scaled / high density displays)
+        double scaleX = 1;
+        double scaleY = 1;
+        if(g instanceof Graphics2D) {
+            AffineTransform transform = ((Graphics2D)g).getTransform();
+            scaleX = Math.hypot(transform.getScaleX(), transform.getShearY());
+            scaleY = Math.hypot(transform.getShearX(), transform.getScaleY());
+        }
+        BufferedImage bitmap = BitmapCache.getShared().get(model.getImageHash(),
+                (int)Math.ceil(width * scaleX), (int)Math.ceil(height * scaleY));
+
+        if(bitmap == null) {
+            g.setColor(model.getColor());
+            g.drawRect(model.getX(), model.getY(), model.getWidth(), model.getHeight());
+            g.drawLine(model.getX(), model.getY(), model.getX() + model.getWidth(), model.getY() + model.getHeight());
+            g.drawLine(model.getX(), model.getY() + model.getHeight(), model.getX() + model.getWidth(), model.getY());
+            return;
+        }
+        if(g instanceof Graphics2D && ((Graphics2D)g).getRenderingHint(RenderingHints.KEY_INTERPOLATION) == null) {
+            // smooth scaling, unless the caller chose (such as RenderQuality)
+            ((Graphics2D)g).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        g.drawImage(bitmap, model.getX(), model.getY(), model.getWidth(), model.getHeight(), null);
+    }
+}
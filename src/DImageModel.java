@@ -0,0 +1,59 @@
+/**
+ * The model for drawing a picture. The model only holds the
+ * hash of the picture; its bytes are kept once in the ImageStore
+ */
+public class DImageModel extends DShapeModel{
+
+    private String imageHash; // hash of the picture in the ImageStore (null for no picture)
+
+    /**
+     * Creates a new DImageModel
+     */
+    public DImageModel() {
+        super();
+        imageHash = null;
+    }
+
+    /**
+     * Returns the hash of the picture of the model
+     * @return the hash of the picture in the ImageStore
+     */
+    public String getImageHash() {
+        return imageHash;
+    }
+
+    /**
+     * Sets the picture of the model to be the parameter
+     * @param imageHash the hash of the new picture in the ImageStore
+     */
+    public void setImageHash(String imageHash) {
+        this.imageHash = imageHash;
+        notifyModelListeners(CHANGED_IMAGE);
+    }
+
+    /**
+     * Makes this model copy the attributes
+     * of the parameter model (assumed to be a DImageModel)
+     * @param other the model to copy the parameters of
+     */
+    @Override
+    public void mimic(DShapeModel other) {
+        beginUpdate(); // report the whole copy as a single change
+        try {
+            super.mimic(other);
+            setImageHash(((DImageModel)other).getImageHash());
+        }
+        finally {
+            endUpdate();
+        }
+    }
+
+    /**
+     * Returns a string representation of the image model
+     * @return a string representation of the image model
+     */
+    @Override
+    public String toString() {
+        return super.toString() + "; image = " + imageHash;
+    }
+}
@@ -26,6 +26,31 @@ public class DLine extends DShape{
         g.drawLine(model.getP1().x, model.getP1().y, model.getP2().x, model.getP2().y);
     }
 
+    /**
+     * Checks whether a point is within the tolerance of the
+     * line segment (rather than anywhere in its bounds)
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @param tolerance the farthest (in pixels) the point may be from the line
+     * @return true if the point hits the line
+     */
+    @Override
+    public boolean hitTest(int x, int y, int tolerance) {
+        DLineModel model = (DLineModel)getModel();
+        Point p1 = model.getP1();
+        Point p2 = model.getP2();
+        double dx = p2.x - p1.x;
+        double dy = p2.y - p1.y;
+        double lengthSquared = dx * dx + dy * dy;
+
+        // closest point of the segment to (x, y), as a fraction of the way from p1 to p2
+        double t = lengthSquared == 0 ? 0 : ((x - p1.x) * dx + (y - p1.y) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double offsetX = x - (p1.x + t * dx);
+        double offsetY = y - (p1.y + t * dy);
+        return offsetX * offsetX + offsetY * offsetY <= (double)tolerance * tolerance;
+    }
+
     /**
      * Returns the knobs of the DLine (one for
      * each of the two points that make up the line)
@@ -39,4 +64,20 @@ public class DLine extends DShape{
         knobs.add(model.getP2()); // second point knob
         return knobs;
     }
+
+    /**
+     * Writes the two knobs of the DLine (one for each
+     * point of the line) into the argument buffer
+     * @param knobBuffer the buffer to write into (must hold at least MAX_KNOBS * 2 ints)
+     * @return the number of knobs written into the buffer
+     */
+    @Override
+    public int getKnobs(int[] knobBuffer) {
+        DLineModel model = (DLineModel)getModel();
+        knobBuffer[0] = model.getP1().x; // first point knob
+        knobBuffer[1] = model.getP1().y;
+        knobBuffer[2] = model.getP2().x; // second point knob
+        knobBuffer[3] = model.getP2().y;
+        return 2;
+    }
 }
@@ -26,6 +26,18 @@ public class DLineModel extends DShapeModel{
         return new Rectangle(Math.min(p1.x, p2.x), Math.min(p1.y, p2.y), Math.abs(p1.x - p2.x), Math.abs(p1.y - p2.y));
     }
 
+    /**
+     * Writes the bounds of the line into the argument
+     * rectangle instead of allocating a new one
+     * @param rv the Rectangle to store the bounds in
+     * @return the argument Rectangle, holding the bounds of the line
+     */
+    @Override
+    public Rectangle getBounds(Rectangle rv) {
+        rv.setBounds(Math.min(p1.x, p2.x), Math.min(p1.y, p2.y), Math.abs(p1.x - p2.x), Math.abs(p1.y - p2.y));
+        return rv;
+    }
+
     /**
      * Returns the first point that creates
      * this line
@@ -51,7 +63,7 @@ public class DLineModel extends DShapeModel{
      */
     public void setP1(Point p1){
         this.p1 = p1;
-        notifyModelListeners();
+        notifyModelListeners(CHANGED_BOUNDS);
     }
 
     /**
@@ -62,7 +74,7 @@ public class DLineModel extends DShapeModel{
      */
     public void setP2(Point p2){
         this.p2 = p2;
-        notifyModelListeners();
+        notifyModelListeners(CHANGED_BOUNDS);
     }
 
     /**
@@ -111,7 +123,7 @@ public class DLineModel extends DShapeModel{
         int oldX = p1.x;
         p1.x += x - oldX;
         p2.x += x - oldX;
-        notifyModelListeners();
+        notifyModelListeners(CHANGED_X);
     }
 
     /**
@@ -124,7 +136,7 @@ public class DLineModel extends DShapeModel{
         int oldY = p1.y;
         p1.y += y - oldY;
         p2.y += y - oldY;
-        notifyModelListeners();
+        notifyModelListeners(CHANGED_Y);
     }
 
     /**
@@ -141,7 +153,7 @@ public class DLineModel extends DShapeModel{
         else {
             p1.x += width - oldWidth;
         }
-        notifyModelListeners();
+        notifyModelListeners(CHANGED_WIDTH);
     }
 
     /**
@@ -158,7 +170,7 @@ public class DLineModel extends DShapeModel{
         else {
             p1.y += height - oldHeight;
         }
-        notifyModelListeners();
+        notifyModelListeners(CHANGED_HEIGHT);
     }
 
     /**
@@ -168,9 +180,15 @@ public class DLineModel extends DShapeModel{
      */
     @Override
     public void mimic(DShapeModel other) {
-        super.mimic(other);
-        setP1(((DLineModel)other).getP1());
-        setP2(((DLineModel)other).getP2());
+        beginUpdate(); // report the whole copy as a single change
+        try {
+            super.mimic(other);
+            setP1(((DLineModel)other).getP1());
+            setP2(((DLineModel)other).getP2());
+        }
+        finally {
+            endUpdate();
+        }
     }
 
     /**
@@ -23,4 +23,26 @@ public class DOval extends DShape{
         g.setColor(model.getColor());
         g.fillOval(model.getX(), model.getY(), model.getWidth(), model.getHeight());
     }
+
+    /**
+     * Checks whether a point is inside the oval grown by the
+     * tolerance (so clicks in the corners of the bounds miss),
+     * using the ellipse equation
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @param tolerance the farthest (in pixels) the point may be outside the oval
+     * @return true if the point hits the oval
+     */
+    @Override
+    public boolean hitTest(int x, int y, int tolerance) {
+        DOvalModel model = (DOvalModel)getModel();
+        double radiusX = Math.abs(model.getWidth()) / 2.0 + tolerance;
+        double radiusY = Math.abs(model.getHeight()) / 2.0 + tolerance;
+        if(radiusX <= 0 || radiusY <= 0) {
+            return false;
+        }
+        double offsetX = (x - (model.getX() + model.getWidth() / 2.0)) / radiusX;
+        double offsetY = (y - (model.getY() + model.getHeight() / 2.0)) / radiusY;
+        return offsetX * offsetX + offsetY * offsetY <= 1;
+    }
 }
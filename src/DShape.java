@@ -8,13 +8,20 @@ import java.util.List;
  */
 public class DShape implements ModelListener{
 
+    public static final int MAX_KNOBS = 4; // largest number of knobs any DShape has (size knob buffers with MAX_KNOBS * 2)
+    private static final int REPAINT_MARGIN = Canvas.KNOB_SIZE / 2 + 1; // pixels drawn outside the bounds (knobs and the right / bottom outline)
+
     private DShapeModel model; // pointer to a DShapeModel, which holds information on how to draw shapes
+    private Component canvas; // component the shape is shown on, repainted where the shape changes (null if not shown)
+    private Rectangle shownBounds; // bounds of the model when the canvas was last asked to repaint the shape
 
     /**
      * Constructs a new generic DShape
      */
     public DShape() {
         model = null;
+        canvas = null;
+        shownBounds = null;
     }
 
     /**
@@ -26,6 +33,8 @@ public class DShape implements ModelListener{
     protected DShape(DShapeModel model) {
         this.model = model;
         this.model.addModelListener(this);
+        canvas = null;
+        shownBounds = model.getBounds();
     }
 
     /**
@@ -55,6 +64,19 @@ public class DShape implements ModelListener{
         }
         this.model = model;
         this.model.addModelListener(this);
+        shownBounds = model.getBounds();
+    }
+
+    /**
+     * Sets the component the shape is shown on, which is then
+     * repainted just where the shape changes
+     * @param canvas the component showing the shape (null once it no longer does)
+     */
+    public void setCanvas(Component canvas) {
+        this.canvas = canvas;
+        if(model != null) {
+            shownBounds = model.getBounds();
+        }
     }
 
     /**
@@ -66,6 +88,33 @@ public class DShape implements ModelListener{
         return model.getBounds();
     }
 
+    /**
+     * Writes the basic boundaries of the DShape into the
+     * argument rectangle (does not allocate)
+     * @param rv the Rectangle to store the bounds in
+     * @return the argument Rectangle, holding the bounds of this DShape
+     */
+    public Rectangle getBounds(Rectangle rv) {
+        return model.getBounds(rv);
+    }
+
+    /**
+     * Checks whether a point hits the drawn shape, allowing it to be
+     * up to the tolerance away. The generic DShape (like the shapes
+     * that fill their whole bounds) is hit anywhere in its bounds;
+     * subclasses with other geometry test it exactly. Callers check
+     * the bounds grown by the tolerance first, so this is only run
+     * for points near the shape
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @param tolerance the farthest (in pixels) the point may be from the shape
+     * @return true if the point hits the shape
+     */
+    public boolean hitTest(int x, int y, int tolerance) {
+        return x >= model.getX() - tolerance && x <= model.getX() + model.getWidth() + tolerance &&
+                y >= model.getY() - tolerance && y <= model.getY() + model.getHeight() + tolerance;
+    }
+
     /**
      * Gets the points for all the knobs associated
      * with this DShape
@@ -81,6 +130,29 @@ public class DShape implements ModelListener{
         return knobs;
     }
 
+    /**
+     * Writes the knob coordinates of this DShape into the argument
+     * buffer as (x, y) pairs, in the same order as getKnobs(), without
+     * allocating any objects
+     * @param knobBuffer the buffer to write into (must hold at least MAX_KNOBS * 2 ints)
+     * @return the number of knobs written into the buffer
+     */
+    public int getKnobs(int[] knobBuffer) {
+        int x = model.getX();
+        int y = model.getY();
+        int width = model.getWidth();
+        int height = model.getHeight();
+        knobBuffer[0] = x; // "upper-left" knob
+        knobBuffer[1] = y;
+        knobBuffer[2] = x + width; // "upper-right" knob
+        knobBuffer[3] = y;
+        knobBuffer[4] = x; // "lower-left" knob
+        knobBuffer[5] = y + height;
+        knobBuffer[6] = x + width; // "lower-right" knob
+        knobBuffer[7] = y + height;
+        return 4;
+    }
+
     /**
      * Returns a String representation of the DShape, describing all
      * the qualities of the connected model
@@ -93,12 +165,26 @@ public class DShape implements ModelListener{
 
     /**
      * Listener method that gets activated when the connected
-     * model for this DShape sends an alert that it has been changed
+     * model for this DShape sends an alert that it has been changed.
+     * The canvas is repainted only where the shape was and is now
+     * (and not at all for changes that are never drawn, like the id)
      * @param model the DShapeModel that sent the notification message
+     * @param changeMask the attributes that changed
      */
     @Override
-    public void modelChanged(DShapeModel model) {
-        // draw();
-        //System.err.println("DShape changed: " + toString());
+    public void modelChanged(DShapeModel model, int changeMask) {
+        if(canvas == null || (changeMask & ~DShapeModel.CHANGED_ID) == 0) {
+            return;
+        }
+        Rectangle damaged = model.getBounds();
+        if((changeMask & DShapeModel.CHANGED_BOUNDS) != 0) { // also clear where the shape was
+            Rectangle oldBounds = shownBounds;
+            shownBounds = new Rectangle(damaged);
+            if(oldBounds != null) {
+                damaged.add(oldBounds);
+            }
+        }
+        damaged.grow(REPAINT_MARGIN, REPAINT_MARGIN);
+        canvas.repaint(damaged.x, damaged.y, damaged.width, damaged.height);
     }
 }
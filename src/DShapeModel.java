@@ -8,9 +8,24 @@ import java.util.List;
  */
 public class DShapeModel {
 
+    // bits of the change mask passed along with model notifications
+    public static final int CHANGED_X = 1;
+    public static final int CHANGED_Y = 1 << 1;
+    public static final int CHANGED_WIDTH = 1 << 2;
+    public static final int CHANGED_HEIGHT = 1 << 3;
+    public static final int CHANGED_COLOR = 1 << 4;
+    public static final int CHANGED_ID = 1 << 5;
+    public static final int CHANGED_TEXT = 1 << 6;
+    public static final int CHANGED_FONT = 1 << 7;
+    public static final int CHANGED_IMAGE = 1 << 8;
+    public static final int CHANGED_BOUNDS = CHANGED_X | CHANGED_Y | CHANGED_WIDTH | CHANGED_HEIGHT;
+    public static final int CHANGED_ALL = 0x1FF;
+
     private int x, y, width, height; // the four values for drawing DShapes
     private Color color; // the color of the shape
     private List<ModelListener> modelListenerList; // list of listeners of this DShape
+    private int updateDepth; // number of beginUpdate calls not yet matched by endUpdate
+    private int pendingChanges; // change mask collected while notifications are suppressed
 
     // special field for networking purposes
     private int id;
@@ -26,6 +41,8 @@ public class DShapeModel {
         color = Color.GRAY;
         modelListenerList = new ArrayList<ModelListener>();
         id = -1;
+        updateDepth = 0;
+        pendingChanges = 0;
     }
 
     /**
@@ -83,7 +100,7 @@ public class DShapeModel {
     public void setX(int x) {
         if(this.x != x) {
             this.x = x;
-            notifyModelListeners();
+            notifyModelListeners(CHANGED_X);
         }
     }
 
@@ -94,7 +111,7 @@ public class DShapeModel {
     public void setY(int y) {
         if(this.y != y) {
             this.y = y;
-            notifyModelListeners();
+            notifyModelListeners(CHANGED_Y);
         }
     }
 
@@ -105,7 +122,7 @@ public class DShapeModel {
     public void setWidth(int width) {
         if(this.width != width) {
             this.width = width;
-            notifyModelListeners();
+            notifyModelListeners(CHANGED_WIDTH);
         }
     }
 
@@ -116,7 +133,7 @@ public class DShapeModel {
     public void setHeight(int height) {
         if(this.height != height) {
             this.height = height;
-            notifyModelListeners();
+            notifyModelListeners(CHANGED_HEIGHT);
         }
     }
 
@@ -127,7 +144,7 @@ public class DShapeModel {
     public void setColor(Color color) {
         if(color != null) {
             this.color = color;
-            notifyModelListeners();
+            notifyModelListeners(CHANGED_COLOR);
         }
     }
 
@@ -137,7 +154,32 @@ public class DShapeModel {
      */
     public void setId(int id) {
         this.id = id;
-        notifyModelListeners();
+        notifyModelListeners(CHANGED_ID);
+    }
+
+    /**
+     * Starts a batch of changes to the model. Until the matching
+     * endUpdate call, listeners are not notified; the changes are
+     * collected and reported in a single notification at the end.
+     * Batches may be nested (only the outermost one notifies)
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /**
+     * Ends a batch of changes started with beginUpdate, notifying
+     * the listeners once if anything changed during the batch
+     */
+    public void endUpdate() {
+        if(updateDepth > 0) {
+            updateDepth--;
+            if(updateDepth == 0 && pendingChanges != 0) {
+                int changes = pendingChanges;
+                pendingChanges = 0;
+                notifyModelListeners(changes);
+            }
+        }
     }
 
     /**
@@ -145,8 +187,22 @@ public class DShapeModel {
      * a change has occurred to the data of the model
      */
     protected void notifyModelListeners() {
+        notifyModelListeners(CHANGED_ALL);
+    }
+
+    /**
+     * Notifies all current model listeners that the attributes in
+     * the change mask have changed (or records the changes for later
+     * if a batch of changes is in progress)
+     * @param changeMask the attributes that changed (CHANGED_ constants)
+     */
+    protected void notifyModelListeners(int changeMask) {
+        if(updateDepth > 0) {
+            pendingChanges |= changeMask;
+            return;
+        }
         for(ModelListener modelListener : modelListenerList) {
-            modelListener.modelChanged(this);
+            modelListener.modelChanged(this, changeMask);
         }
     }
 
@@ -158,6 +214,18 @@ public class DShapeModel {
         return new Rectangle(x, y, width, height);
     }
 
+    /**
+     * Writes the bounding rectangle of the generic shape model into
+     * the argument rectangle, so callers on hot paths (painting, hit-testing)
+     * can reuse a single Rectangle instead of allocating a new one per call
+     * @param rv the Rectangle to store the bounds in
+     * @return the argument Rectangle, holding the bounds of this model
+     */
+    public Rectangle getBounds(Rectangle rv) {
+        rv.setBounds(x, y, width, height);
+        return rv;
+    }
+
     /**
      * Adds a new model listener to listen to this model
      * @param listener the model listener to have listen to this model
@@ -187,13 +255,34 @@ public class DShapeModel {
      * @param other the model to copy the parameters of
      */
     public void mimic(DShapeModel other) {
+        int changes = 0; // only the attributes that differ are reported
+        if(x != other.getX()) {
+            changes |= CHANGED_X;
+        }
+        if(y != other.getY()) {
+            changes |= CHANGED_Y;
+        }
+        if(width != other.getWidth()) {
+            changes |= CHANGED_WIDTH;
+        }
+        if(height != other.getHeight()) {
+            changes |= CHANGED_HEIGHT;
+        }
+        if(color == null ? other.getColor() != null : !color.equals(other.getColor())) {
+            changes |= CHANGED_COLOR;
+        }
+        if(id != other.getId()) {
+            changes |= CHANGED_ID;
+        }
         this.x = other.getX();
         this.y = other.getY();
         this.width = other.getWidth();
         this.height = other.getHeight();
         this.color = other.getColor();
         this.id = other.getId();
-        notifyModelListeners();
+        if(changes != 0) {
+            notifyModelListeners(changes);
+        }
     }
 
     /**
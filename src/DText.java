@@ -34,11 +34,12 @@ public class DText extends DShape{
     /**
      * Computes the appropriate Font to use
      * when drawing the DText based on the size
-     * of the current bounding rectangle
+     * of the current bounding rectangle (package-private
+     * so the default-package benchmark workload can time it)
      * @param g the Graphics object needed to draw
      * @return the Font best suited for the current DText
      */
-    private Font computeFont(Graphics g) {
+    Font computeFont(Graphics g) {
         // initialize the font to be size 1 of same style as current model font
         double size = 1.0; // changes the size of the newFont by incrementing up until the text is out of bounds
         DTextModel model = (DTextModel)getModel();
@@ -39,6 +39,7 @@ public class DTextModel extends DShapeModel{
      */
     public void setText(String text) {
         this.text = text;
+        notifyModelListeners(CHANGED_TEXT);
     }
 
     /**
@@ -47,6 +48,7 @@ public class DTextModel extends DShapeModel{
      */
     public void setTextFont(Font font) {
         textFont = font;
+        notifyModelListeners(CHANGED_FONT);
     }
 
     /**
@@ -56,9 +58,15 @@ public class DTextModel extends DShapeModel{
      */
     @Override
     public void mimic(DShapeModel other) {
-        super.mimic(other);
-        setText(((DTextModel)other).getText());
-        setTextFont(((DTextModel)other).getTextFont());
+        beginUpdate(); // report the whole copy as a single change
+        try {
+            super.mimic(other);
+            setText(((DTextModel)other).getText());
+            setTextFont(((DTextModel)other).getTextFont());
+        }
+        finally {
+            endUpdate();
+        }
     }
 
     /**
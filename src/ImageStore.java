@@ -0,0 +1,182 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed store of the encoded bytes (PNG, JPEG, ...) of
+ * every picture on the board. A picture is keyed by the SHA-256 hash
+ * of its bytes, so image shapes only hold the hash and the bytes are
+ * kept, saved and sent once however many shapes show the same picture.
+ * Bytes are never changed once stored, so they can be shared freely
+ * between threads.
+ *
+ * Whatever needs a picture to stay (a shape on a board, the server's
+ * copy of the board, an open recording) holds it, and releases it
+ * once done. A picture no one holds is dropped by the next call to
+ * dropUnused, which the whiteboard makes once a change to its board
+ * is complete (so a picture stored just before the shape that will
+ * hold it is added is not dropped in between)
+ */
+public class ImageStore {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Map<String, byte[]> images = new ConcurrentHashMap<String, byte[]>(); // encoded bytes of every picture, by hash
+    private static final Map<String, Integer> holders = new HashMap<String, Integer>(); // number of holders of every held picture, by hash (also the lock of the holder counts)
+    private static final Set<String> unused = new HashSet<String>(); // hashes of the stored pictures no one holds (guarded by holders)
+
+    /**
+     * ImageStore only has static methods, so it is never constructed
+     */
+    private ImageStore() {
+    }
+
+    /**
+     * Stores the encoded bytes of a picture (bytes already
+     * stored under the same hash are kept instead). Unless
+     * something holds the picture by then, it is dropped
+     * by the next call to dropUnused
+     * @param bytes the encoded picture (must not be changed afterwards)
+     * @return the hash the picture is stored under
+     */
+    public static String put(byte[] bytes) {
+        String hash = hashOf(bytes);
+        synchronized(holders) {
+            images.putIfAbsent(hash, bytes);
+            if(!holders.containsKey(hash)) {
+                unused.add(hash);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Holds a picture, so it is kept until released (a picture can be
+     * held before its bytes are stored, and by any number of holders)
+     * @param hash the hash of the picture (null holds nothing)
+     */
+    public static void hold(String hash) {
+        if(hash == null) {
+            return;
+        }
+        synchronized(holders) {
+            Integer count = holders.get(hash);
+            holders.put(hash, count == null ? 1 : count + 1);
+            unused.remove(hash);
+        }
+    }
+
+    /**
+     * Releases a picture held before; once no one holds
+     * it, it is dropped by the next call to dropUnused
+     * @param hash the hash of the picture (null releases nothing)
+     */
+    public static void release(String hash) {
+        if(hash == null) {
+            return;
+        }
+        synchronized(holders) {
+            Integer count = holders.get(hash);
+            if(count == null) { // (never held)
+                return;
+            }
+            if(count > 1) {
+                holders.put(hash, count - 1);
+            }
+            else {
+                holders.remove(hash);
+                if(images.containsKey(hash)) {
+                    unused.add(hash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the bytes of every picture no one holds
+     */
+    public static void dropUnused() {
+        synchronized(holders) {
+            for(String hash : unused) {
+                images.remove(hash);
+            }
+            unused.clear();
+        }
+    }
+
+    /**
+     * Drops the bytes of a picture, unless something holds it
+     * (for pictures only read for a moment, such as to render
+     * a thumbnail of a board that is not open)
+     * @param hash the hash of the picture (null drops nothing)
+     */
+    public static void forget(String hash) {
+        if(hash == null) {
+            return;
+        }
+        synchronized(holders) {
+            if(!holders.containsKey(hash)) {
+                images.remove(hash);
+                unused.remove(hash);
+            }
+        }
+    }
+
+    /**
+     * Returns the encoded bytes of a picture
+     * @param hash the hash of the picture
+     * @return the encoded picture (must not be changed), or null if it is not stored
+     */
+    public static byte[] get(String hash) {
+        return hash == null ? null : images.get(hash);
+    }
+
+    /**
+     * Checks whether a picture is stored
+     * @param hash the hash of the picture
+     * @return true if the bytes of the picture are stored
+     */
+    public static boolean contains(String hash) {
+        return hash != null && images.containsKey(hash);
+    }
+
+    /**
+     * Computes the hash a picture is stored under
+     * @param bytes the encoded picture
+     * @return the SHA-256 hash of the bytes, as lower case hex
+     */
+    public static String hashOf(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    /**
+     * Creates a new SHA-256 digest (for hashing content too large to
+     * hold in memory the way pictures are stored)
+     * @return a new SHA-256 digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // every Java platform has SHA-256
+        }
+    }
+
+    /**
+     * Formats a digest the way hashes are written everywhere
+     * @param digest the digest bytes
+     * @return the digest as lower case hex
+     */
+    public static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for(int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
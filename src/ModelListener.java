@@ -10,6 +10,9 @@ public interface ModelListener {
      * has been changed in some way
      * @param model the DShapeModel to listen to
      *              for any changes
+     * @param changeMask the attributes that changed (a combination
+     *                   of the DShapeModel CHANGED_ constants), so
+     *                   changes a listener does not use can be skipped
      */
-    void modelChanged(DShapeModel model);
+    void modelChanged(DShapeModel model, int changeMask);
 }
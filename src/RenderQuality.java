@@ -0,0 +1,110 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Picks the rendering hints a component paints with: speed hints (no
+ * antialiasing, plain text, nearest-neighbour pictures) while the user
+ * drags / resizes a shape or a burst of remote updates is arriving, and
+ * full antialiased quality at rest. Once nothing has happened for
+ * IDLE_DELAY, the component is repainted once in quality mode. Only
+ * used on the event dispatch thread
+ */
+public class RenderQuality {
+
+    public static final int IDLE_DELAY = 250; // milliseconds without activity before repainting in quality mode
+
+    private JComponent component; // the component painted with these hints
+    private boolean fast; // true while painting with the speed hints
+    private boolean interacting; // true while a drag / resize is in progress
+    private Timer idleTimer; // goes off once activity has stopped for IDLE_DELAY
+
+    /**
+     * Creates a new controller for the component, starting in quality mode
+     * @param component the component painted with these hints (repainted when quality returns)
+     */
+    public RenderQuality(JComponent component) {
+        this.component = component;
+        fast = false;
+        interacting = false;
+        idleTimer = new Timer(IDLE_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if(!interacting && fast) { // at rest: paint once more, properly
+                    fast = false;
+                    RenderQuality.this.component.repaint();
+                }
+            }
+        });
+        idleTimer.setRepeats(false);
+    }
+
+    /**
+     * Switches to speed mode until endInteraction is called
+     * (a drag / resize started)
+     */
+    public void beginInteraction() {
+        interacting = true;
+        fast = true;
+        idleTimer.stop();
+    }
+
+    /**
+     * Ends an interaction, returning to quality mode
+     * once IDLE_DELAY passes without more activity
+     */
+    public void endInteraction() {
+        if(interacting) {
+            interacting = false;
+            idleTimer.restart();
+        }
+    }
+
+    /**
+     * Reports a single update (such as one arriving from the
+     * server), staying in speed mode until IDLE_DELAY passes
+     * without another
+     */
+    public void noteActivity() {
+        fast = true;
+        if(!interacting) {
+            idleTimer.restart();
+        }
+    }
+
+    /**
+     * Returns whether the component is currently painted with the speed hints
+     * @return true in speed mode, false in quality mode
+     */
+    public boolean isFast() {
+        return fast;
+    }
+
+    /**
+     * Sets the hints of the current mode on the graphics (font metrics
+     * hints are left alone, since DText sizes its font from the metrics
+     * and text must not change size when the mode changes)
+     * @param g the graphics the component is about to paint with
+     */
+    public void apply(Graphics g) {
+        if(!(g instanceof Graphics2D)) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D)g;
+        if(fast) {
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_NORMALIZE);
+        }
+        else {
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        }
+    }
+}
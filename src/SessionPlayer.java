@@ -0,0 +1,204 @@
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Window that plays back a session recording on its own canvas,
+ * at a choice of speeds. Dragging the time slider seeks straight
+ * to that point of the recording
+ */
+public class SessionPlayer extends JFrame {
+
+    private static final long serialVersionUID = 1L; // version of the serialized form (JFrame is Serializable)
+    private static final int TICK_INTERVAL = 40; // milliseconds between playback steps
+    private static final String[] SPEED_NAMES = {"0.5x", "1x", "2x", "4x", "8x", "16x", "64x"}; // playback speeds offered
+    private static final double[] SPEEDS = {0.5, 1, 2, 4, 8, 16, 64}; // the playback speeds, matching SPEED_NAMES
+
+    private SessionRecording recording; // the recording being played
+    private Canvas canvas; // the canvas the board is drawn on
+    private JSlider timeSlider; // shows / picks the current time (milliseconds into the recording)
+    private JLabel timeLabel; // shows the current time and the length of the recording
+    private JButton playButton; // starts / pauses playback
+    private JComboBox<String> speedComboBox; // picks the playback speed
+    private Timer timer; // steps the board forward while playing
+    private double playTime; // current playback time (milliseconds into the recording, kept fractional for slow speeds)
+    private long lastTick; // System.nanoTime() of the last playback step
+    private boolean updatingSlider; // true while the slider is moved by playback (not by the user)
+
+    /**
+     * Opens a new player window for a recording
+     * @param file the recording to play
+     * @throws IOException if the file is not a valid recording
+     */
+    public SessionPlayer(File file) throws IOException {
+        recording = new SessionRecording(file);
+        playTime = 0;
+        updatingSlider = false;
+
+        setTitle("Replay - " + file.getName());
+        setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        setLayout(new BorderLayout());
+
+        canvas = new Canvas();
+        add(canvas, BorderLayout.CENTER);
+
+        JPanel controlPanel = new JPanel();
+        controlPanel.setLayout(new BorderLayout());
+        playButton = new JButton("Play");
+        playButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if(timer.isRunning()) {
+                    pause();
+                }
+                else {
+                    play();
+                }
+            }
+        });
+        speedComboBox = new JComboBox<String>(SPEED_NAMES);
+        speedComboBox.setSelectedIndex(1); // 1x
+        timeSlider = new JSlider(0, (int)Math.min(recording.getDuration(), Integer.MAX_VALUE), 0);
+        timeSlider.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                if(!updatingSlider) { // the user dragged the slider
+                    seek(timeSlider.getValue());
+                }
+            }
+        });
+        timeLabel = new JLabel();
+
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.add(playButton);
+        buttonPanel.add(speedComboBox);
+        controlPanel.add(buttonPanel, BorderLayout.WEST);
+        controlPanel.add(timeSlider, BorderLayout.CENTER);
+        controlPanel.add(timeLabel, BorderLayout.EAST);
+        add(controlPanel, BorderLayout.SOUTH);
+
+        timer = new Timer(TICK_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                step();
+            }
+        });
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+                try {
+                    recording.close();
+                }
+                catch(IOException ex) {
+                    // nothing more can be done
+                }
+            }
+        });
+
+        showBoard(true);
+        setPreferredSize(new Dimension(800, 450));
+        pack();
+        setLocationRelativeTo(null);
+        setVisible(true);
+    }
+
+    /**
+     * Starts playing from the current time (from the
+     * start again if the end was reached)
+     */
+    private void play() {
+        if(playTime >= recording.getDuration()) {
+            seek(0);
+        }
+        lastTick = System.nanoTime();
+        timer.start();
+        playButton.setText("Pause");
+    }
+
+    /**
+     * Stops playing, leaving the board at the current time
+     */
+    private void pause() {
+        timer.stop();
+        playButton.setText("Play");
+    }
+
+    /**
+     * Moves the board forward by the time since the last
+     * step, scaled by the playback speed
+     */
+    private void step() {
+        long now = System.nanoTime();
+        playTime += (now - lastTick) / 1000000.0 * SPEEDS[speedComboBox.getSelectedIndex()];
+        lastTick = now;
+        if(playTime >= recording.getDuration()) {
+            playTime = recording.getDuration();
+            pause();
+        }
+        canvas.noteRemoteUpdate(); // playing is a burst of updates
+        try {
+            showBoard(recording.advance((long)playTime));
+        }
+        catch(IOException ex) {
+            System.err.println(ex.getMessage() + ". Playback stopped");
+            pause();
+        }
+    }
+
+    /**
+     * Sends the board straight to a time of the recording
+     * @param time the time to go to (milliseconds into the recording)
+     */
+    private void seek(long time) {
+        playTime = time;
+        try {
+            recording.seek(time);
+        }
+        catch(IOException ex) {
+            System.err.println(ex.getMessage() + ". Playback stopped");
+            pause();
+        }
+        showBoard(true);
+    }
+
+    /**
+     * Draws the board at the current time and moves the slider to it
+     * @param reordered true if shapes came, went or moved since the board
+     *                  was last drawn (otherwise the canvas already holds the right models)
+     */
+    private void showBoard(boolean reordered) {
+        if(reordered) {
+            for(DShape shape : canvas.getShapeList()) { // the old shapes stop listening to models that may be shown again
+                shape.getModel().removeModelListener(shape);
+            }
+            canvas.clearCanvas();
+            canvas.addShapes(Arrays.asList(recording.getModels()));
+            canvas.resetSelectedShape(); // a replay has nothing selected
+        }
+        canvas.repaint();
+
+        updatingSlider = true;
+        timeSlider.setValue((int)Math.min(recording.getTime(), Integer.MAX_VALUE));
+        updatingSlider = false;
+        timeLabel.setText(formatTime(recording.getTime()) + " / " + formatTime(recording.getDuration()) + "  ");
+    }
+
+    /**
+     * Formats a time of the recording as hours:minutes:seconds
+     * @param time the time to format (milliseconds)
+     * @return the formatted time
+     */
+    private static String formatTime(long time) {
+        long seconds = time / 1000;
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,376 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records a whiteboard session to a file as the stream of board
+ * operations, each stamped with the time it happened, plus full
+ * keyframes of the board every so often, so a SessionRecording can
+ * seek anywhere by restoring the nearest keyframe instead of replaying
+ * from the start. A file is laid out as
+ *
+ *   header: magic, version, time recording started (long, milliseconds since the epoch)
+ *   frames: length of the body, kind (byte), time (long, milliseconds into the recording), body
+ *
+ * where the body of an operation frame is a BoardJournal record payload,
+ * the body of a keyframe is the number of shapes followed by an "add"
+ * payload for every shape, back to front, and the body of an image frame
+ * is the encoded bytes of a picture (written once, before the first frame
+ * that uses it, so a recording carries its own pictures). Operations are encoded
+ * on the calling thread; a background thread writes them, keeps its own
+ * copy of the board and writes a keyframe once the operations since the
+ * last keyframe take as much room as that keyframe did (so keyframes at
+ * most double the file, and a seek never replays more than about one
+ * keyframe's worth of operations)
+ */
+public class SessionRecorder extends Thread implements ModelListener {
+
+    public static final String EXTENSION = ".wbr"; // file extension used for session recordings
+    public static final int MAGIC = 0x57425231; // "WBR1", the first four bytes of every recording
+    public static final int VERSION = 1; // current version of the format
+
+    // kinds of frames
+    static final int FRAME_OPERATION = 1;
+    static final int FRAME_KEYFRAME = 2;
+    static final int FRAME_IMAGE = 3;
+
+    static final int HEADER_SIZE = 4 + 4 + 8; // bytes in the file header
+    static final int FRAME_HEADER_SIZE = 4 + 1 + 8; // bytes in a frame header (body length, kind and time)
+    private static final int MIN_KEYFRAME_SPACING = 256 * 1024; // fewest bytes of operations between keyframes
+    private static final long FLUSH_INTERVAL = 1000; // milliseconds between flushes of the file
+    private static final byte[] CLOSE_MARKER = new byte[0]; // queued to tell the writer thread to finish
+
+    private File file; // the file being recorded to
+    private OutputStream out; // buffered stream of the file
+    private long startNanos; // System.nanoTime() when recording started
+    private BlockingQueue<byte[]> frames; // encoded frames waiting to be written
+    private volatile boolean closed; // true once close was called
+    private Set<String> recordedImages; // hashes of the pictures already queued (calling thread only)
+
+    // only used by the writer thread
+    private BoardJournal.Fold board; // the board as of the last written frame
+    private long operationBytes; // bytes of operations written since the last keyframe
+    private long keyframeBytes; // bytes of the last keyframe
+
+    /**
+     * Creates the recording file and queues a keyframe of the
+     * current board (call start to begin writing)
+     * @param file the file to record to
+     * @param models the models of the board, back to front
+     * @throws IOException if the file cannot be created
+     */
+    public SessionRecorder(File file, List<DShapeModel> models) throws IOException {
+        super("Whiteboard session recorder");
+        setDaemon(true);
+        this.file = file;
+        frames = new LinkedBlockingQueue<byte[]>();
+        closed = false;
+        recordedImages = new HashSet<String>();
+        board = new BoardJournal.Fold();
+        operationBytes = 0;
+        keyframeBytes = 0;
+
+        out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        long startedAt = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        try {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(startedAt);
+        }
+        catch(IOException ex) {
+            out.close();
+            throw ex;
+        }
+        for(DShapeModel model : models) {
+            recordImage(model);
+        }
+        frames.add(encodeKeyframe(models.toArray(new DShapeModel[models.size()]), 0));
+    }
+
+    /**
+     * Writes every queued frame, flushes the file and
+     * stops the writer thread
+     */
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        frames.add(CLOSE_MARKER);
+        if(isAlive()) {
+            try {
+                join(10 * FLUSH_INTERVAL);
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        else {
+            try {
+                out.close();
+            }
+            catch(IOException ex) {
+                // nothing more can be done
+            }
+        }
+    }
+
+    /**
+     * Records that a shape was added to the front of the board,
+     * and starts recording the changes to its model
+     * @param model the model of the added shape
+     */
+    public void shapeAdded(DShapeModel model) {
+        trackModel(model);
+        recordImage(model);
+        append(BoardJournal.OP_ADD, model.getId(), model);
+    }
+
+    /**
+     * Starts recording the changes to a model that is
+     * already on the board
+     * @param model the model to record the changes of
+     */
+    public void trackModel(DShapeModel model) {
+        model.removeModelListener(this); // never listen twice to a model that is added again
+        model.addModelListener(this);
+    }
+
+    /**
+     * Stops recording the changes to a model
+     * @param model the model to stop recording the changes of
+     */
+    public void untrackModel(DShapeModel model) {
+        model.removeModelListener(this);
+    }
+
+    /**
+     * Records that many shapes were added to the front of the board
+     * @param models the models of the added shapes, back to front
+     */
+    public void shapesAdded(Collection<? extends DShapeModel> models) {
+        for(DShapeModel model : models) {
+            shapeAdded(model);
+        }
+    }
+
+    /**
+     * Records that a shape was removed from the board
+     * @param model the model of the removed shape
+     */
+    public void shapeRemoved(DShapeModel model) {
+        untrackModel(model);
+        append(BoardJournal.OP_REMOVE, model.getId(), null);
+    }
+
+    /**
+     * Records that a shape was moved to the front of the board
+     * @param model the model of the moved shape
+     */
+    public void shapeMovedToFront(DShapeModel model) {
+        append(BoardJournal.OP_FRONT, model.getId(), null);
+    }
+
+    /**
+     * Records that a shape was moved to the back of the board
+     * @param model the model of the moved shape
+     */
+    public void shapeMovedToBack(DShapeModel model) {
+        append(BoardJournal.OP_BACK, model.getId(), null);
+    }
+
+    /**
+     * Records that every shape was removed from the board
+     * (the removed models should no longer be changed)
+     */
+    public void boardCleared() {
+        append(BoardJournal.OP_CLEAR, -1, null);
+    }
+
+    /**
+     * Records the new state of a changed model
+     * @param model the DShapeModel that sent the notification message
+     * @param changeMask the attributes that changed
+     */
+    @Override
+    public void modelChanged(DShapeModel model, int changeMask) {
+        recordImage(model);
+        append(BoardJournal.OP_CHANGE, model.getId(), model);
+    }
+
+    /**
+     * Writes queued frames (and keyframes when they are due)
+     * until the recorder is closed
+     */
+    public void run() {
+        List<byte[]> batch = new ArrayList<byte[]>();
+        long lastFlush = System.currentTimeMillis();
+        long time = 0; // time of the last written frame
+        boolean running = true;
+        try {
+            while(running) {
+                byte[] first = frames.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                batch.clear();
+                if(first != null) {
+                    batch.add(first);
+                    frames.drainTo(batch);
+                }
+                for(byte[] frame : batch) {
+                    if(frame == CLOSE_MARKER) {
+                        running = false;
+                        break;
+                    }
+                    out.write(frame);
+                    ByteBuffer body = ByteBuffer.wrap(frame, FRAME_HEADER_SIZE, frame.length - FRAME_HEADER_SIZE);
+                    time = ByteBuffer.wrap(frame).getLong(4 + 1);
+                    if(frame[4] == FRAME_KEYFRAME) {
+                        board = new BoardJournal.Fold();
+                        int count = body.getInt();
+                        for(int i = 0; i < count; i++) {
+                            board.apply(body);
+                        }
+                        operationBytes = 0;
+                        keyframeBytes = frame.length;
+                    }
+                    else if(frame[4] == FRAME_OPERATION) {
+                        board.apply(body);
+                        operationBytes += frame.length;
+                        if(operationBytes >= Math.max(keyframeBytes, MIN_KEYFRAME_SPACING)) {
+                            byte[] keyframe = encodeKeyframe(board.toArray(), time);
+                            out.write(keyframe);
+                            operationBytes = 0;
+                            keyframeBytes = keyframe.length;
+                        }
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if(!running || now - lastFlush >= FLUSH_INTERVAL) {
+                    out.flush();
+                    lastFlush = now;
+                }
+            }
+        }
+        catch(InterruptedException ex) {
+            // stop writing
+        }
+        catch(IOException ex) {
+            closed = true;
+            System.err.println("Error writing session recording \"" + file + "\". Recording stopped");
+            // ex.printStackTrace();
+        }
+        finally {
+            try {
+                out.close();
+            }
+            catch(IOException ex) {
+                // nothing more can be done
+            }
+        }
+    }
+
+    /**
+     * Encodes an operation frame on the calling thread and queues it for the writer
+     * @param op the record operation (one of the BoardJournal operations)
+     * @param id the id of the affected model
+     * @param model the model to store in the frame (null for operations without a model)
+     */
+    private void append(int op, int id, DShapeModel model) {
+        if(closed) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream frame = new DataOutputStream(bytes);
+            frame.writeInt(0); // body length is filled in below
+            frame.writeByte(FRAME_OPERATION);
+            frame.writeLong(elapsedMillis());
+            BoardJournal.writePayload(frame, op, id, model);
+            frame.close();
+            frames.add(withLength(bytes.toByteArray()));
+        }
+        catch(IOException ex) {
+            // writing to a byte array never fails
+        }
+    }
+
+    /**
+     * Queues an image frame with the picture of an image model,
+     * unless the picture is already in the recording
+     * @param model the model about to be recorded
+     */
+    private void recordImage(DShapeModel model) {
+        if(closed || !(model instanceof DImageModel)) {
+            return;
+        }
+        String hash = ((DImageModel)model).getImageHash();
+        byte[] bytes = ImageStore.get(hash);
+        if(bytes == null || !recordedImages.add(hash)) {
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + bytes.length);
+        frame.putInt(bytes.length);
+        frame.put((byte)FRAME_IMAGE);
+        frame.putLong(elapsedMillis());
+        frame.put(bytes);
+        frames.add(frame.array());
+    }
+
+    /**
+     * Encodes a keyframe of the board
+     * @param models the models of the board, back to front
+     * @param time the time of the keyframe (milliseconds into the recording)
+     * @return the encoded keyframe
+     */
+    private static byte[] encodeKeyframe(DShapeModel[] models, long time) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + models.length * 32);
+            DataOutputStream frame = new DataOutputStream(bytes);
+            frame.writeInt(0); // body length is filled in below
+            frame.writeByte(FRAME_KEYFRAME);
+            frame.writeLong(time);
+            frame.writeInt(models.length);
+            for(DShapeModel model : models) {
+                BoardJournal.writePayload(frame, BoardJournal.OP_ADD, model.getId(), model);
+            }
+            frame.close();
+            return withLength(bytes.toByteArray());
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException(ex); // writing to a byte array never fails
+        }
+    }
+
+    /**
+     * Fills in the body length at the start of an encoded frame
+     * @param frame the encoded frame
+     * @return the same frame
+     */
+    private static byte[] withLength(byte[] frame) {
+        ByteBuffer.wrap(frame).putInt(frame.length - FRAME_HEADER_SIZE);
+        return frame;
+    }
+
+    /**
+     * Returns how long the recording has been running
+     * @return the milliseconds since recording started
+     */
+    private long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays back a session recording (see SessionRecorder). Opening the
+ * file maps it and indexes its keyframes by time; the board can then
+ * be moved forward a little at a time (for playing) or sent to any
+ * time at all, by restoring the nearest earlier keyframe and applying
+ * only the operations after it. The pictures of a recording are added
+ * to the ImageStore while it is indexed, and held until it is closed.
+ * A recording cut short by a
+ * crash plays up to its last complete frame
+ */
+public class SessionRecording {
+
+    private File file; // the file being played
+    private RandomAccessFile in; // the open file
+    private MappedByteBuffer buffer; // mapping of the whole file
+    private long startedAt; // time the recording started (milliseconds since the epoch)
+    private int end; // offset just past the last complete frame
+    private long duration; // time of the last frame (milliseconds into the recording)
+    private long[] keyframeTimes; // time of every keyframe, in file order
+    private int[] keyframeOffsets; // file offset of every keyframe
+    private int keyframeCount; // number of keyframes
+    private List<String> imageHashes; // hashes of the pictures of the recording, held in the ImageStore
+
+    private BoardJournal.Fold board; // the board at the current time
+    private long time; // current time (milliseconds into the recording)
+    private int position; // offset of the next frame to apply
+
+    /**
+     * Opens the recording and indexes its keyframes, leaving
+     * the board at the start of the recording
+     * @param file the recording to play
+     * @throws IOException if the file cannot be read or is not a valid recording
+     */
+    public SessionRecording(File file) throws IOException {
+        this.file = file;
+        imageHashes = new ArrayList<String>();
+        in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            if(channel.size() < SessionRecorder.HEADER_SIZE) {
+                throw new IOException("File \"" + file + "\" is too short to be a session recording");
+            }
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File \"" + file + "\" is too large to play");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if(buffer.getInt() != SessionRecorder.MAGIC) {
+                throw new IOException("File \"" + file + "\" is not a session recording");
+            }
+            int version = buffer.getInt();
+            if(version != SessionRecorder.VERSION) {
+                throw new IOException("Unsupported session recording version " + version);
+            }
+            startedAt = buffer.getLong();
+            indexFrames();
+            if(keyframeCount == 0) {
+                throw new IOException("File \"" + file + "\" has no keyframe");
+            }
+            seek(0);
+        }
+        catch(RuntimeException ex) { // buffer underflows mean the file is corrupt
+            releaseImages();
+            in.close();
+            throw new IOException("File \"" + file + "\" is not a valid session recording", ex);
+        }
+        catch(IOException ex) {
+            releaseImages();
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the time the recording started
+     * @return the time the recording started (milliseconds since the epoch)
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Returns the length of the recording
+     * @return the time of the last operation (milliseconds into the recording)
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the current time of the board
+     * @return the current time (milliseconds into the recording)
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the board at the current time. Changes to shapes are
+     * applied to these same models, so they only have to be fetched
+     * again after advance / seek report that shapes came, went or moved
+     * @return the models of the board, back to front
+     */
+    public DShapeModel[] getModels() {
+        return board.toArray();
+    }
+
+    /**
+     * Sends the board to any time, by restoring the last keyframe at or
+     * before that time and applying the operations after it
+     * @param target the time to go to (milliseconds into the recording)
+     * @throws IOException if the recording is corrupt
+     */
+    public void seek(long target) throws IOException {
+        target = Math.max(target, keyframeTimes[0]); // nothing was recorded before the first keyframe
+        int keyframe = Arrays.binarySearch(keyframeTimes, 0, keyframeCount, target);
+        if(keyframe < 0) {
+            keyframe = -keyframe - 2; // last keyframe before the target
+        }
+        else {
+            while(keyframe + 1 < keyframeCount && keyframeTimes[keyframe + 1] == target) { // latest of equal times
+                keyframe++;
+            }
+        }
+        keyframe = Math.max(keyframe, 0);
+
+        try {
+            ByteBuffer frame = frameBody(keyframeOffsets[keyframe]);
+            board = new BoardJournal.Fold();
+            int count = frame.getInt();
+            for(int i = 0; i < count; i++) {
+                board.apply(frame);
+            }
+        }
+        catch(RuntimeException ex) { // buffer underflows / bad records mean the file is corrupt
+            throw new IOException("File \"" + file + "\" is not a valid session recording", ex);
+        }
+        time = keyframeTimes[keyframe];
+        position = keyframeOffsets[keyframe] + SessionRecorder.FRAME_HEADER_SIZE + buffer.getInt(keyframeOffsets[keyframe]);
+        advance(target);
+    }
+
+    /**
+     * Moves the board forward to a later time, applying every operation
+     * up to it (going backwards seeks instead)
+     * @param target the time to go to (milliseconds into the recording)
+     * @return true if shapes were added, removed or reordered (false if at most shapes changed)
+     * @throws IOException if the recording is corrupt
+     */
+    public boolean advance(long target) throws IOException {
+        if(target < time) {
+            seek(target);
+            return true;
+        }
+        boolean reordered = false;
+        try {
+            while(position < end) {
+                long frameTime = buffer.getLong(position + 4 + 1);
+                if(frameTime > target) {
+                    break;
+                }
+                int length = buffer.getInt(position);
+                if(buffer.get(position + 4) == SessionRecorder.FRAME_OPERATION) { // keyframes are skipped: the board already matches them
+                    ByteBuffer frame = frameBody(position);
+                    reordered |= frame.get(frame.position()) != BoardJournal.OP_CHANGE;
+                    board.apply(frame);
+                }
+                position += SessionRecorder.FRAME_HEADER_SIZE + length;
+            }
+        }
+        catch(RuntimeException ex) { // buffer underflows / bad records mean the file is corrupt
+            throw new IOException("File \"" + file + "\" is not a valid session recording", ex);
+        }
+        time = Math.min(target, duration);
+        return reordered;
+    }
+
+    /**
+     * Closes the file (the mapping itself is released once
+     * it is garbage collected) and releases the pictures
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        releaseImages();
+        in.close();
+    }
+
+    /**
+     * Releases the pictures of the recording held in the ImageStore
+     */
+    private void releaseImages() {
+        for(String hash : imageHashes) {
+            ImageStore.release(hash);
+        }
+        imageHashes.clear();
+    }
+
+    /**
+     * Walks the frame headers, finding the keyframes, the length
+     * of the recording and the end of the last complete frame
+     * (and adding the pictures of image frames to the ImageStore)
+     */
+    private void indexFrames() {
+        keyframeTimes = new long[16];
+        keyframeOffsets = new int[16];
+        keyframeCount = 0;
+        duration = 0;
+
+        int offset = SessionRecorder.HEADER_SIZE;
+        int limit = buffer.limit();
+        while(offset <= limit - SessionRecorder.FRAME_HEADER_SIZE) {
+            int length = buffer.getInt(offset);
+            if(length < 0 || length > limit - offset - SessionRecorder.FRAME_HEADER_SIZE) { // torn frame
+                break;
+            }
+            long frameTime = buffer.getLong(offset + 4 + 1);
+            if(buffer.get(offset + 4) == SessionRecorder.FRAME_KEYFRAME) {
+                if(keyframeCount == keyframeTimes.length) {
+                    keyframeTimes = Arrays.copyOf(keyframeTimes, keyframeCount * 2);
+                    keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframeCount * 2);
+                }
+                keyframeTimes[keyframeCount] = frameTime;
+                keyframeOffsets[keyframeCount] = offset;
+                keyframeCount++;
+            }
+            else if(buffer.get(offset + 4) == SessionRecorder.FRAME_IMAGE) {
+                byte[] bytes = new byte[length];
+                frameBody(offset).get(bytes);
+                String hash = ImageStore.put(bytes);
+                ImageStore.hold(hash);
+                imageHashes.add(hash);
+            }
+            duration = Math.max(duration, frameTime);
+            offset += SessionRecorder.FRAME_HEADER_SIZE + length;
+        }
+        end = offset;
+    }
+
+    /**
+     * Returns the body of a frame
+     * @param offset the file offset of the frame
+     * @return a buffer over the body of the frame
+     */
+    private ByteBuffer frameBody(int offset) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + SessionRecorder.FRAME_HEADER_SIZE);
+        body.limit(offset + SessionRecorder.FRAME_HEADER_SIZE + buffer.getInt(offset));
+        return body;
+    }
+}
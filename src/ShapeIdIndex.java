@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * Hash index from shape model ids to the DShapes using them.
+ * Keys are kept as primitive ints in an open-addressing table
+ * (linear probing), so lookups do not box the id or allocate
+ */
+public class ShapeIdIndex {
+
+    private static final int DEFAULT_CAPACITY = 16; // starting table size (always a power of two)
+
+    private int[] keys; // ids of the stored shapes
+    private DShape[] values; // shapes stored under the matching keys (null marks an empty slot)
+    private int size; // number of ids currently in the index
+
+    /**
+     * Constructs a new, empty ShapeIdIndex
+     */
+    public ShapeIdIndex() {
+        keys = new int[DEFAULT_CAPACITY];
+        values = new DShape[DEFAULT_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns the number of ids currently in the index
+     * @return the number of ids currently in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the shape stored under the argument id
+     * @param id the id to look up
+     * @return the shape stored under the id, or null if there is none
+     */
+    public DShape get(int id) {
+        int mask = keys.length - 1;
+        for(int slot = hash(id) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            if(keys[slot] == id) {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the argument shape under the argument id,
+     * replacing any shape previously stored under it
+     * @param id the id to store the shape under
+     * @param shape the shape to store
+     */
+    public void put(int id, DShape shape) {
+        if((size + 1) * 4 > keys.length * 3) { // keep the load factor under 0.75
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while(values[slot] != null) {
+            if(keys[slot] == id) { // replace existing entry
+                values[slot] = shape;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        values[slot] = shape;
+        size++;
+    }
+
+    /**
+     * Removes the entry stored under the argument id
+     * @param id the id to remove
+     * @return the shape that was stored under the id, or null if there was none
+     */
+    public DShape remove(int id) {
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while(values[slot] != null && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        DShape removed = values[slot];
+        if(removed == null) {
+            return null;
+        }
+
+        // shift back any following entries of the probe run so lookups never stop at the new gap
+        int gap = slot;
+        for(int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if(((next - home) & mask) >= ((next - gap) & mask)) { // entry can legally move into the gap
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Grows the table so the argument number of ids fit
+     * without any further resizing
+     * @param capacity the number of ids the index must be able to hold
+     */
+    public void ensureCapacity(int capacity) {
+        int tableSize = keys.length;
+        while(capacity * 4 > tableSize * 3) {
+            tableSize *= 2;
+        }
+        if(tableSize != keys.length) {
+            resize(tableSize);
+        }
+    }
+
+    /**
+     * Removes every entry from the index
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Rebuilds the table with the specified capacity
+     * @param capacity the new table size (a power of two)
+     */
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        DShape[] oldValues = values;
+        keys = new int[capacity];
+        values = new DShape[capacity];
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] != null) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of the id so sequential ids do not cluster
+     * @param id the id to hash
+     * @return the spread hash of the id
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
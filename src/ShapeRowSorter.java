@@ -0,0 +1,493 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sorts and filters the rows of a ShapeTableModel through primitive
+ * arrays: the view is an int array of model rows (with the inverse
+ * mapping beside it), sorted by packing each value and row into a long,
+ * so no Integer is boxed and no Comparator is called. Rows that change
+ * are taken out and put back by binary search instead of sorting the
+ * whole view again; large changes rebuild it. Without a sort key or a
+ * filter the view is the model (the z-order) and no arrays are kept.
+ *
+ * Rows can be filtered by a range of every column and by a region of
+ * the board their shape must overlap, set directly or through a filter
+ * expression such as "width > 100, x <= 500"
+ */
+public class ShapeRowSorter extends RowSorter<ShapeTableModel> {
+
+    private static final int REBUILD_THRESHOLD = 64; // most changed rows put back one at a time (more rebuild the view)
+    private static final String[] COLUMN_KEYS = {"x", "y", "width", "height"}; // column names in filter expressions
+
+    private ShapeTableModel model; // the model whose rows are sorted / filtered
+    private int sortColumn; // column sorted by (-1 for the z-order)
+    private boolean descending; // true if sorted from the largest value down
+    private int[] mins; // smallest value shown in every column
+    private int[] maxes; // largest value shown in every column
+    private Rectangle region; // area of the board the shapes shown must overlap (null for anywhere)
+    private int[] viewToModel; // model row of every view row (null while the view is the model)
+    private int[] modelToView; // view row of every model row, -1 if filtered out (null while the view is the model)
+    private int viewCount; // number of view rows in viewToModel
+    private Rectangle bounds; // reused rectangle for the bounds of the shape being filtered
+
+    /**
+     * Creates a new sorter of the model, showing every row in z-order
+     * @param model the model whose rows are sorted / filtered
+     */
+    public ShapeRowSorter(ShapeTableModel model) {
+        this.model = model;
+        sortColumn = -1;
+        descending = false;
+        mins = new int[model.getColumnCount()];
+        maxes = new int[model.getColumnCount()];
+        Arrays.fill(mins, Integer.MIN_VALUE);
+        Arrays.fill(maxes, Integer.MAX_VALUE);
+        region = null;
+        bounds = new Rectangle();
+    }
+
+    /**
+     * Returns the model whose rows are sorted / filtered
+     * @return the model
+     */
+    @Override
+    public ShapeTableModel getModel() {
+        return model;
+    }
+
+    /**
+     * Cycles the sort of a column: ascending, descending, then back
+     * to the z-order (called when a column header is clicked)
+     * @param column the column clicked
+     */
+    @Override
+    public void toggleSortOrder(int column) {
+        List<SortKey> keys = new ArrayList<SortKey>(1);
+        if(column != sortColumn) {
+            keys.add(new SortKey(column, SortOrder.ASCENDING));
+        }
+        else if(!descending) {
+            keys.add(new SortKey(column, SortOrder.DESCENDING));
+        }
+        setSortKeys(keys);
+    }
+
+    /**
+     * Returns the current sort key
+     * @return a list holding the sort key, or an empty list in z-order
+     */
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        if(sortColumn == -1) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new SortKey(sortColumn, descending ? SortOrder.DESCENDING : SortOrder.ASCENDING));
+    }
+
+    /**
+     * Sorts by the first of the keys (later keys are ignored, as
+     * ties are always kept in z-order)
+     * @param keys the sort keys (null / empty / UNSORTED for the z-order)
+     */
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        int column = -1;
+        boolean down = false;
+        if(keys != null && !keys.isEmpty() && keys.get(0).getSortOrder() != SortOrder.UNSORTED) {
+            column = keys.get(0).getColumn();
+            if(column < 0 || column >= model.getColumnCount()) {
+                throw new IllegalArgumentException("Invalid sort key column: " + column);
+            }
+            down = keys.get(0).getSortOrder() == SortOrder.DESCENDING;
+        }
+        if(column == sortColumn && down == descending) {
+            return;
+        }
+        sortColumn = column;
+        descending = down;
+        fireSortOrderChanged();
+        rebuild();
+    }
+
+    /**
+     * Only shows rows whose value in a column is within a range
+     * @param column the column
+     * @param min the smallest value shown
+     * @param max the largest value shown
+     */
+    public void setColumnRange(int column, int min, int max) {
+        mins[column] = min;
+        maxes[column] = max;
+        rebuild();
+    }
+
+    /**
+     * Only shows the shapes overlapping an area of the board
+     * @param region the area (copied), or null to show shapes anywhere
+     */
+    public void setRegion(Rectangle region) {
+        this.region = region == null ? null : new Rectangle(region);
+        rebuild();
+    }
+
+    /**
+     * Sets the column ranges from a filter expression: terms separated
+     * by commas, each a column name (x, y, width or height), a comparison
+     * (&lt;, &lt;=, &gt;, &gt;= or =) and a whole number, such as
+     * "width > 100, x &lt;= 500". An empty expression shows every row
+     * (the region is left as it is)
+     * @param expression the filter expression
+     * @throws IllegalArgumentException if the expression is malformed (the filter is left unchanged)
+     */
+    public void setFilterExpression(String expression) {
+        long[] lows = new long[mins.length];
+        long[] highs = new long[maxes.length];
+        Arrays.fill(lows, Integer.MIN_VALUE);
+        Arrays.fill(highs, Integer.MAX_VALUE);
+        for(String term : expression.split(",")) {
+            term = term.trim().toLowerCase();
+            if(term.isEmpty()) {
+                continue;
+            }
+            int column = -1;
+            for(int c = 0; c < COLUMN_KEYS.length; c++) {
+                if(term.startsWith(COLUMN_KEYS[c]) && (column == -1 || COLUMN_KEYS[c].length() > COLUMN_KEYS[column].length())) {
+                    column = c;
+                }
+            }
+            if(column == -1) {
+                throw new IllegalArgumentException("Unknown column in \"" + term + "\"");
+            }
+            String rest = term.substring(COLUMN_KEYS[column].length()).trim();
+            String operator = rest.startsWith("<=") || rest.startsWith(">=") ? rest.substring(0, 2) : rest.substring(0, Math.min(rest.length(), 1));
+            long value;
+            try {
+                value = Long.parseLong(rest.substring(operator.length()).trim());
+            }
+            catch(NumberFormatException ex) {
+                throw new IllegalArgumentException("Bad number in \"" + term + "\"");
+            }
+            long low = Integer.MIN_VALUE, high = Integer.MAX_VALUE;
+            if(operator.equals("<")) {
+                high = value - 1;
+            }
+            else if(operator.equals("<=")) {
+                high = value;
+            }
+            else if(operator.equals(">")) {
+                low = value + 1;
+            }
+            else if(operator.equals(">=")) {
+                low = value;
+            }
+            else if(operator.equals("=")) {
+                low = value;
+                high = value;
+            }
+            else {
+                throw new IllegalArgumentException("Bad comparison in \"" + term + "\"");
+            }
+            // narrow the range already set for the column (terms are and-ed)
+            lows[column] = Math.max(lows[column], low);
+            highs[column] = Math.min(highs[column], high);
+        }
+        for(int c = 0; c < mins.length; c++) {
+            if(lows[c] > highs[c]) { // nothing can match: an empty range
+                mins[c] = Integer.MAX_VALUE;
+                maxes[c] = Integer.MIN_VALUE;
+            }
+            else {
+                mins[c] = (int)Math.max(lows[c], Integer.MIN_VALUE);
+                maxes[c] = (int)Math.min(highs[c], Integer.MAX_VALUE);
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * Returns the model row shown in a view row
+     * @param index the view row
+     * @return the model row shown there
+     */
+    @Override
+    public int convertRowIndexToModel(int index) {
+        if(index < 0 || index >= getViewRowCount()) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index);
+        }
+        return viewToModel == null ? index : viewToModel[index];
+    }
+
+    /**
+     * Returns the view row showing a model row
+     * @param index the model row
+     * @return the view row showing it, or -1 if it is filtered out
+     */
+    @Override
+    public int convertRowIndexToView(int index) {
+        if(index < 0 || index >= model.getRowCount()) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index);
+        }
+        return modelToView == null ? index : modelToView[index];
+    }
+
+    /**
+     * Returns the number of rows shown
+     * @return the number of rows left by the filter
+     */
+    @Override
+    public int getViewRowCount() {
+        return viewToModel == null ? model.getRowCount() : viewCount;
+    }
+
+    /**
+     * Returns the number of rows of the model
+     * @return the number of rows of the model
+     */
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    /**
+     * Rebuilds the view after the columns of the model changed
+     */
+    @Override
+    public void modelStructureChanged() {
+        rebuild();
+    }
+
+    /**
+     * Rebuilds the view after every row of the model changed
+     */
+    @Override
+    public void allRowsChanged() {
+        rebuild();
+    }
+
+    /**
+     * Adds rows inserted into the model to the view
+     * @param firstRow the first inserted model row
+     * @param endRow the last inserted model row
+     */
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        if(viewToModel == null) {
+            return; // (the view is the model)
+        }
+        int count = endRow - firstRow + 1;
+        if(count > REBUILD_THRESHOLD) {
+            rebuild();
+            return;
+        }
+        int[] previous = Arrays.copyOf(viewToModel, viewCount);
+        for(int v = 0; v < viewCount; v++) { // rows after the inserted ones move down
+            if(viewToModel[v] >= firstRow) {
+                viewToModel[v] += count;
+            }
+        }
+        for(int row = firstRow; row <= endRow; row++) {
+            insert(row);
+        }
+        mapModelToView();
+        fireRowSorterChanged(previous);
+    }
+
+    /**
+     * Takes rows deleted from the model out of the view
+     * @param firstRow the first deleted model row
+     * @param endRow the last deleted model row
+     */
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        if(viewToModel == null) {
+            return; // (the view is the model)
+        }
+        int[] previous = Arrays.copyOf(viewToModel, viewCount);
+        int count = endRow - firstRow + 1;
+        removeRange(firstRow, endRow);
+        for(int v = 0; v < viewCount; v++) { // rows after the deleted ones move up
+            if(viewToModel[v] > endRow) {
+                viewToModel[v] -= count;
+            }
+        }
+        mapModelToView();
+        fireRowSorterChanged(previous);
+    }
+
+    /**
+     * Moves changed rows to their new place in the view (or in / out of it)
+     * @param firstRow the first changed model row
+     * @param endRow the last changed model row
+     */
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        if(viewToModel == null) {
+            return; // (the view is the model)
+        }
+        if(endRow - firstRow + 1 > REBUILD_THRESHOLD) {
+            rebuild();
+            return;
+        }
+        int[] previous = Arrays.copyOf(viewToModel, viewCount);
+        removeRange(firstRow, endRow);
+        for(int row = firstRow; row <= endRow; row++) {
+            insert(row);
+        }
+        if(viewCount != previous.length || !Arrays.equals(previous, Arrays.copyOf(viewToModel, viewCount))) {
+            mapModelToView();
+            fireRowSorterChanged(previous);
+        }
+    }
+
+    /**
+     * Moves changed rows to their new place in the view (or in / out of it)
+     * @param firstRow the first changed model row
+     * @param endRow the last changed model row
+     * @param column the changed column
+     */
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        rowsUpdated(firstRow, endRow);
+    }
+
+    /**
+     * Checks whether a model row passes the filter
+     * @param row the model row
+     * @return true if the row is shown
+     */
+    private boolean include(int row) {
+        DShapeModel shapeModel = model.getModelAt(row);
+        for(int c = 0; c < mins.length; c++) {
+            if(mins[c] != Integer.MIN_VALUE || maxes[c] != Integer.MAX_VALUE) {
+                int value = ShapeTableModel.valueOf(shapeModel, c);
+                if(value < mins[c] || value > maxes[c]) {
+                    return false;
+                }
+            }
+        }
+        return region == null || SpatialGrid.overlaps(shapeModel.getBounds(bounds), region);
+    }
+
+    /**
+     * Checks whether any row can be filtered out
+     * @return true if a column range or a region is set
+     */
+    private boolean isFiltering() {
+        if(region != null) {
+            return true;
+        }
+        for(int c = 0; c < mins.length; c++) {
+            if(mins[c] != Integer.MIN_VALUE || maxes[c] != Integer.MAX_VALUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the sort key of a model row: the sorted value (inverted
+     * when sorting descending) in the high half and the row in the low
+     * half, so ties stay in z-order and plain long order is view order
+     * @param row the model row
+     * @return the sort key of the row
+     */
+    private long keyOf(int row) {
+        if(sortColumn == -1) {
+            return row;
+        }
+        int value = model.getInt(row, sortColumn);
+        return ((long)(descending ? ~value : value) << 32) | row; // (~ reverses int order without overflowing)
+    }
+
+    /**
+     * Sorts and filters every row of the model again
+     */
+    private void rebuild() {
+        int[] previous = viewToModel == null ? null : Arrays.copyOf(viewToModel, viewCount);
+        int rowCount = model.getRowCount();
+        if(sortColumn == -1 && !isFiltering()) {
+            viewToModel = null;
+            modelToView = null;
+            viewCount = 0;
+        }
+        else {
+            long[] keys = new long[rowCount];
+            int count = 0;
+            for(int row = 0; row < rowCount; row++) {
+                if(include(row)) {
+                    keys[count++] = keyOf(row);
+                }
+            }
+            if(sortColumn != -1) {
+                Arrays.sort(keys, 0, count);
+            }
+            viewToModel = new int[Math.max(rowCount, 16)];
+            for(int v = 0; v < count; v++) {
+                viewToModel[v] = (int)keys[v];
+            }
+            viewCount = count;
+            mapModelToView();
+        }
+        fireRowSorterChanged(previous);
+    }
+
+    /**
+     * Puts a model row into the view at its sorted place, if it passes the filter
+     * @param row the model row
+     */
+    private void insert(int row) {
+        if(!include(row)) {
+            return;
+        }
+        long key = keyOf(row);
+        int low = 0, high = viewCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(keyOf(viewToModel[middle]) < key) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        if(viewCount == viewToModel.length) {
+            viewToModel = Arrays.copyOf(viewToModel, viewCount * 2);
+        }
+        System.arraycopy(viewToModel, low, viewToModel, low + 1, viewCount - low);
+        viewToModel[low] = row;
+        viewCount++;
+    }
+
+    /**
+     * Takes a range of model rows out of the view
+     * @param firstRow the first model row
+     * @param endRow the last model row
+     */
+    private void removeRange(int firstRow, int endRow) {
+        int kept = 0;
+        for(int v = 0; v < viewCount; v++) {
+            if(viewToModel[v] < firstRow || viewToModel[v] > endRow) {
+                viewToModel[kept++] = viewToModel[v];
+            }
+        }
+        viewCount = kept;
+    }
+
+    /**
+     * Recomputes the view row of every model row from the view
+     */
+    private void mapModelToView() {
+        int rowCount = model.getRowCount();
+        if(modelToView == null || modelToView.length < rowCount) {
+            modelToView = new int[Math.max(rowCount, 16)];
+        }
+        Arrays.fill(modelToView, 0, rowCount, -1);
+        for(int v = 0; v < viewCount; v++) {
+            modelToView[viewToModel[v]] = v;
+        }
+    }
+}
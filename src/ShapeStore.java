@@ -0,0 +1,520 @@
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Columnar (struct-of-arrays) store of shape data for
+ * very large boards. Instead of a DShape, a DShapeModel and
+ * its listener list per shape, every shape is a slot in parallel
+ * primitive arrays, with side tables only for text and pictures. DShapeModels
+ * can be created from (and written back into) any slot, so the
+ * rest of the program can keep working with the usual model API.
+ * The board being edited still keeps a DShape and a DShapeModel per
+ * shape; stores hold its snapshots (for saving and exporting) and
+ * boards that are only drawn (such as for thumbnails)
+ */
+public class ShapeStore {
+
+    public static final int TYPE_SHAPE = 0; // type tag for generic DShapeModels
+    public static final int TYPE_RECT = 1; // type tag for DRectModels
+    public static final int TYPE_OVAL = 2; // type tag for DOvalModels
+    public static final int TYPE_LINE = 3; // type tag for DLineModels
+    public static final int TYPE_TEXT = 4; // type tag for DTextModels
+    public static final int TYPE_IMAGE = 5; // type tag for DImageModels
+
+    private static final int DEFAULT_CAPACITY = 16; // starting number of slots
+
+    // primitive columns (one entry per shape, in z-order from back to front)
+    // for lines, (x, y) is p1 and (x + width, y + height) is p2, so width / height may be negative
+    private int[] ids;
+    private int[] xs;
+    private int[] ys;
+    private int[] widths;
+    private int[] heights;
+    private int[] rgbs;
+    private int[] types;
+
+    // side tables for text shapes (only allocated once the first text shape is stored)
+    private String[] texts;
+    private Font[] fonts;
+
+    // side table for image shapes (only allocated once the first image shape is stored)
+    private String[] imageHashes;
+
+    private int size; // number of shapes currently in the store
+
+    private DText textFlyweight; // reusable DText for painting text slots
+    private DImage imageFlyweight; // reusable DImage for painting image slots
+    private Color lastColor; // last Color used while painting (reused while consecutive shapes share a color)
+
+    /**
+     * Constructs a new, empty ShapeStore
+     */
+    public ShapeStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new, empty ShapeStore with room
+     * for the specified number of shapes
+     * @param capacity the number of shapes to reserve room for
+     */
+    public ShapeStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new int[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+        widths = new int[capacity];
+        heights = new int[capacity];
+        rgbs = new int[capacity];
+        types = new int[capacity];
+        size = 0;
+        textFlyweight = null;
+        imageFlyweight = null;
+        lastColor = null;
+    }
+
+    /**
+     * Returns the type tag to use for the argument model
+     * @param model the model to get the type tag of
+     * @return the type tag matching the class of the model
+     */
+    public static int typeOf(DShapeModel model) {
+        if(model instanceof DRectModel) {
+            return TYPE_RECT;
+        }
+        else if(model instanceof DOvalModel) {
+            return TYPE_OVAL;
+        }
+        else if(model instanceof DLineModel) {
+            return TYPE_LINE;
+        }
+        else if(model instanceof DTextModel) {
+            return TYPE_TEXT;
+        }
+        else if(model instanceof DImageModel) {
+            return TYPE_IMAGE;
+        }
+        return TYPE_SHAPE;
+    }
+
+    /**
+     * Creates a new, empty model of the class matching the type tag
+     * @param type the type tag of the model to create
+     * @return a new model of the class matching the type tag
+     */
+    public static DShapeModel newModel(int type) {
+        switch(type) {
+            case TYPE_RECT:
+                return new DRectModel();
+            case TYPE_OVAL:
+                return new DOvalModel();
+            case TYPE_LINE:
+                return new DLineModel();
+            case TYPE_TEXT:
+                return new DTextModel();
+            case TYPE_IMAGE:
+                return new DImageModel();
+            default:
+                return new DShapeModel();
+        }
+    }
+
+    /**
+     * Returns the number of shapes in the store
+     * @return the number of shapes in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the argument model to the front of the store
+     * @param model the model to copy into the store
+     * @return the slot index the model was stored in
+     */
+    public int add(DShapeModel model) {
+        ensureCapacity(size + 1);
+        size++;
+        set(size - 1, model);
+        return size - 1;
+    }
+
+    /**
+     * Overwrites the specified slot with the contents of the argument model
+     * @param index the slot to overwrite
+     * @param model the model to copy into the slot
+     */
+    public void set(int index, DShapeModel model) {
+        checkIndex(index);
+        int type = typeOf(model);
+        ids[index] = model.getId();
+        types[index] = type;
+        rgbs[index] = model.getColor().getRGB();
+        if(type == TYPE_LINE) {
+            DLineModel lineModel = (DLineModel)model;
+            xs[index] = lineModel.getP1().x;
+            ys[index] = lineModel.getP1().y;
+            widths[index] = lineModel.getP2().x - lineModel.getP1().x;
+            heights[index] = lineModel.getP2().y - lineModel.getP1().y;
+        }
+        else {
+            xs[index] = model.getX();
+            ys[index] = model.getY();
+            widths[index] = model.getWidth();
+            heights[index] = model.getHeight();
+        }
+
+        if(type == TYPE_TEXT) {
+            ensureTextTables();
+            texts[index] = ((DTextModel)model).getText();
+            fonts[index] = ((DTextModel)model).getTextFont();
+        }
+        else if(texts != null) { // clear out any text previously stored in this slot
+            texts[index] = null;
+            fonts[index] = null;
+        }
+
+        if(type == TYPE_IMAGE) {
+            if(imageHashes == null) {
+                imageHashes = new String[ids.length];
+            }
+            imageHashes[index] = ((DImageModel)model).getImageHash();
+        }
+        else if(imageHashes != null) { // clear out any picture previously stored in this slot
+            imageHashes[index] = null;
+        }
+    }
+
+    /**
+     * Removes the shape in the specified slot, shifting
+     * the shapes in front of it back by one slot
+     * @param index the slot to remove
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        int moved = size - index - 1;
+        System.arraycopy(ids, index + 1, ids, index, moved);
+        System.arraycopy(xs, index + 1, xs, index, moved);
+        System.arraycopy(ys, index + 1, ys, index, moved);
+        System.arraycopy(widths, index + 1, widths, index, moved);
+        System.arraycopy(heights, index + 1, heights, index, moved);
+        System.arraycopy(rgbs, index + 1, rgbs, index, moved);
+        System.arraycopy(types, index + 1, types, index, moved);
+        if(texts != null) {
+            System.arraycopy(texts, index + 1, texts, index, moved);
+            System.arraycopy(fonts, index + 1, fonts, index, moved);
+            texts[size - 1] = null;
+            fonts[size - 1] = null;
+        }
+        if(imageHashes != null) {
+            System.arraycopy(imageHashes, index + 1, imageHashes, index, moved);
+            imageHashes[size - 1] = null;
+        }
+        size--;
+    }
+
+    /**
+     * Removes all shapes from the store (keeping the allocated capacity)
+     */
+    public void clear() {
+        if(texts != null) {
+            Arrays.fill(texts, 0, size, null);
+            Arrays.fill(fonts, 0, size, null);
+        }
+        if(imageHashes != null) {
+            Arrays.fill(imageHashes, 0, size, null);
+        }
+        size = 0;
+    }
+
+    /**
+     * Returns the type tag of the specified slot
+     * @param index the slot to check
+     * @return the type tag of the specified slot
+     */
+    public int getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    /**
+     * Returns the id of the specified slot
+     * @param index the slot to check
+     * @return the id of the specified slot
+     */
+    public int getId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    /**
+     * Returns the x-coordinate of the specified slot (p1.x for lines)
+     * @param index the slot to check
+     * @return the x-coordinate of the specified slot
+     */
+    public int getX(int index) {
+        checkIndex(index);
+        return xs[index];
+    }
+
+    /**
+     * Returns the y-coordinate of the specified slot (p1.y for lines)
+     * @param index the slot to check
+     * @return the y-coordinate of the specified slot
+     */
+    public int getY(int index) {
+        checkIndex(index);
+        return ys[index];
+    }
+
+    /**
+     * Returns the width of the specified slot (p2.x - p1.x for lines)
+     * @param index the slot to check
+     * @return the width of the specified slot
+     */
+    public int getWidth(int index) {
+        checkIndex(index);
+        return widths[index];
+    }
+
+    /**
+     * Returns the height of the specified slot (p2.y - p1.y for lines)
+     * @param index the slot to check
+     * @return the height of the specified slot
+     */
+    public int getHeight(int index) {
+        checkIndex(index);
+        return heights[index];
+    }
+
+    /**
+     * Returns the packed ARGB color of the specified slot
+     * @param index the slot to check
+     * @return the packed ARGB color of the specified slot
+     */
+    public int getRGB(int index) {
+        checkIndex(index);
+        return rgbs[index];
+    }
+
+    /**
+     * Returns the text of the specified slot
+     * @param index the slot to check
+     * @return the text of the specified slot (null if the slot is not text)
+     */
+    public String getText(int index) {
+        checkIndex(index);
+        return texts == null ? null : texts[index];
+    }
+
+    /**
+     * Returns the font of the specified slot
+     * @param index the slot to check
+     * @return the font of the specified slot (null if the slot is not text)
+     */
+    public Font getTextFont(int index) {
+        checkIndex(index);
+        return fonts == null ? null : fonts[index];
+    }
+
+    /**
+     * Returns the picture hash of the specified slot
+     * @param index the slot to check
+     * @return the hash of the picture in the ImageStore (null if the slot is not an image)
+     */
+    public String getImageHash(int index) {
+        checkIndex(index);
+        return imageHashes == null ? null : imageHashes[index];
+    }
+
+    /**
+     * Holds the picture of every image slot in the ImageStore, so the
+     * pictures stay while the store is used (such as by a save running
+     * on another thread); releaseImages lets them go again
+     */
+    public void holdImages() {
+        if(imageHashes != null) {
+            for(int i = 0; i < size; i++) {
+                ImageStore.hold(imageHashes[i]);
+            }
+        }
+    }
+
+    /**
+     * Releases the pictures held by holdImages (the slots
+     * must not have been changed in between)
+     */
+    public void releaseImages() {
+        if(imageHashes != null) {
+            for(int i = 0; i < size; i++) {
+                ImageStore.release(imageHashes[i]);
+            }
+        }
+    }
+
+    /**
+     * Creates a new model (of the matching DShapeModel subclass)
+     * holding the contents of the specified slot
+     * @param index the slot to create a model for
+     * @return a new model holding the contents of the slot
+     */
+    public DShapeModel createModel(int index) {
+        checkIndex(index);
+        DShapeModel model = newModel(types[index]);
+        loadModel(index, model);
+        return model;
+    }
+
+    /**
+     * Copies the contents of the specified slot into the argument
+     * model, which must be of the class matching the slot type.
+     * This lets a single model be reused as a view over many slots
+     * @param index the slot to copy from
+     * @param model the model to copy into
+     */
+    public void loadModel(int index, DShapeModel model) {
+        checkIndex(index);
+        model.beginUpdate(); // report the whole copy as a single change
+        try {
+            if(model.getColor().getRGB() != rgbs[index]) {
+                model.setColor(new Color(rgbs[index], true));
+            }
+            if(types[index] == TYPE_LINE) {
+                DLineModel lineModel = (DLineModel)model;
+                lineModel.setP1(new Point(xs[index], ys[index]));
+                lineModel.setP2(new Point(xs[index] + widths[index], ys[index] + heights[index]));
+            }
+            else {
+                model.setX(xs[index]);
+                model.setY(ys[index]);
+                model.setWidth(widths[index]);
+                model.setHeight(heights[index]);
+            }
+            if(types[index] == TYPE_TEXT) {
+                ((DTextModel)model).setText(texts[index]);
+                ((DTextModel)model).setTextFont(fonts[index]);
+            }
+            if(types[index] == TYPE_IMAGE) {
+                ((DImageModel)model).setImageHash(imageHashes[index]);
+            }
+            if(model.getId() != ids[index]) {
+                model.setId(ids[index]);
+            }
+        }
+        finally {
+            model.endUpdate();
+        }
+    }
+
+    /**
+     * Paints every shape in the store from back to front straight
+     * from the primitive columns (text and image slots are painted
+     * through a single reused DText / DImage)
+     * @param g the Graphics object used for drawing
+     */
+    public void draw(Graphics g) {
+        draw(g, 0, size);
+    }
+
+    /**
+     * Paints the shapes of a range of slots from back to front
+     * (lets long paints be split into steps)
+     * @param g the Graphics object used for drawing
+     * @param from the first slot to paint
+     * @param to the slot after the last slot to paint
+     */
+    public void draw(Graphics g, int from, int to) {
+        if(from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + " to " + to + ", Size: " + size);
+        }
+        for(int i = from; i < to; i++) {
+            switch(types[i]) {
+                case TYPE_RECT:
+                    g.setColor(colorOf(i));
+                    g.fillRect(xs[i], ys[i], widths[i], heights[i]);
+                    break;
+                case TYPE_OVAL:
+                    g.setColor(colorOf(i));
+                    g.fillOval(xs[i], ys[i], widths[i], heights[i]);
+                    break;
+                case TYPE_LINE:
+                    g.setColor(colorOf(i));
+                    g.drawLine(xs[i], ys[i], xs[i] + widths[i], ys[i] + heights[i]);
+                    break;
+                case TYPE_TEXT:
+                    if(textFlyweight == null) {
+                        textFlyweight = new DText();
+                    }
+                    loadModel(i, textFlyweight.getModel());
+                    textFlyweight.draw(g);
+                    break;
+                case TYPE_IMAGE:
+                    if(imageFlyweight == null) {
+                        imageFlyweight = new DImage();
+                    }
+                    loadModel(i, imageFlyweight.getModel());
+                    imageFlyweight.draw(g);
+                    break;
+                default:
+                    // generic shapes are never drawn
+            }
+        }
+    }
+
+    /**
+     * Returns the Color of the specified slot, reusing the last
+     * Color handed out if the packed value matches
+     * @param index the slot to get the color of
+     * @return the Color of the specified slot
+     */
+    private Color colorOf(int index) {
+        if(lastColor == null || lastColor.getRGB() != rgbs[index]) {
+            lastColor = new Color(rgbs[index], true);
+        }
+        return lastColor;
+    }
+
+    /**
+     * Makes sure the columns have room for at least the specified number of shapes
+     * @param capacity the number of shapes the columns must be able to hold
+     */
+    public void ensureCapacity(int capacity) {
+        if(capacity > ids.length) {
+            int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1)); // grow by 50%
+            ids = Arrays.copyOf(ids, newCapacity);
+            xs = Arrays.copyOf(xs, newCapacity);
+            ys = Arrays.copyOf(ys, newCapacity);
+            widths = Arrays.copyOf(widths, newCapacity);
+            heights = Arrays.copyOf(heights, newCapacity);
+            rgbs = Arrays.copyOf(rgbs, newCapacity);
+            types = Arrays.copyOf(types, newCapacity);
+            if(texts != null) {
+                texts = Arrays.copyOf(texts, newCapacity);
+                fonts = Arrays.copyOf(fonts, newCapacity);
+            }
+            if(imageHashes != null) {
+                imageHashes = Arrays.copyOf(imageHashes, newCapacity);
+            }
+        }
+    }
+
+    /**
+     * Allocates the text side tables if they do not exist yet
+     */
+    private void ensureTextTables() {
+        if(texts == null) {
+            texts = new String[ids.length];
+            fonts = new Font[ids.length];
+        }
+    }
+
+    /**
+     * Checks that the argument is the index of a used slot
+     * @param index the index to check
+     */
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -1,6 +1,12 @@
+import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An AbstractTable model used in the
@@ -10,15 +16,36 @@ import java.util.List;
  */
 public class ShapeTableModel extends AbstractTableModel implements ModelListener{
 
+    public static final int COLUMN_X = 0; // column of the x-coordinates
+    public static final int COLUMN_Y = 1; // column of the y-coordinates
+    public static final int COLUMN_WIDTH = 2; // column of the widths
+    public static final int COLUMN_HEIGHT = 3; // column of the heights
+
     private String[] columnNames = {"X", "Y", "Width", "Height"}; // names of the columns in the table
-    private List<DShape> data; // list of all the DShapes currently on the canvas
+    private List<DShape> data; // list of all the DShapes currently on the canvas (shared with the canvas)
+    private Map<DShapeModel, DShape> shapesByModel; // shape of each model this table listens to (used to find the row of a changed model)
+    private Map<DShapeModel, DShape> pendingUpdates; // changed models whose rows have not been refreshed yet
+    private boolean flushScheduled; // true if a refresh of pendingUpdates is queued on the event dispatch thread
 
     /**
-     * Creates a new shape table model
+     * Creates a new shape table model with its own shape list
      */
     public ShapeTableModel() {
+        this(new ZOrderList());
+    }
+
+    /**
+     * Creates a new shape table model whose rows are the argument
+     * shape list (normally the canvas's z-ordered shape list, so
+     * both views share a single ordering)
+     * @param data the shape list to show in the table
+     */
+    public ShapeTableModel(List<DShape> data) {
         super();
-        data = new ArrayList<DShape>();
+        this.data = data;
+        shapesByModel = new IdentityHashMap<DShapeModel, DShape>();
+        pendingUpdates = new IdentityHashMap<DShapeModel, DShape>();
+        flushScheduled = false;
     }
 
     /**
@@ -33,20 +60,60 @@ public class ShapeTableModel extends AbstractTableModel implements ModelListener
 
     /**
      * Listener method that gets called when any DShapeModel that this
-     * table model is listening to gets changed (and the table needs to be updated)
+     * table model is listening to gets changed (and the table needs to be updated).
+     * Changes are collected and the affected rows are refreshed with a single
+     * event the next time the event dispatch thread gets to it, so a burst of
+     * changes (such as a drag) does not fire an event per change.
+     * Changes that leave the bounds alone (color, text, ...) are
+     * skipped, since the table only shows the bounds
      * @param model the DShapeModel that triggered this listener
+     * @param changeMask the attributes that changed
      */
     @Override
-    public void modelChanged(DShapeModel model) {
-        int row;
-        for(row = 0; row < data.size(); row++) {
-            if(data.get(row).getModel().equals(model)) { // found the shape that uses the argument model, which we must update
-                break;
+    public void modelChanged(DShapeModel model, int changeMask) {
+        if((changeMask & DShapeModel.CHANGED_BOUNDS) == 0) {
+            return;
+        }
+        synchronized(pendingUpdates) {
+            DShape shape = shapesByModel.get(model);
+            if(shape == null) {
+                return;
             }
+            pendingUpdates.put(model, shape);
+            if(flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
         }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                flushPendingUpdates();
+            }
+        });
+    }
 
-        // update the contents of the row with the updated shape model
-        fireTableRowsUpdated(row, row);
+    /**
+     * Fires one row update event covering the rows of every
+     * model changed since the last refresh
+     */
+    private void flushPendingUpdates() {
+        int firstRow = Integer.MAX_VALUE;
+        int lastRow = -1;
+        synchronized(pendingUpdates) {
+            for(DShape shape : pendingUpdates.values()) {
+                int row = data.indexOf(shape); // O(log n) on the shared z-order list
+                if(row != -1) { // shape may have been removed since it changed
+                    firstRow = Math.min(firstRow, row);
+                    lastRow = Math.max(lastRow, row);
+                }
+            }
+            pendingUpdates.clear();
+            flushScheduled = false;
+        }
+        if(lastRow != -1) {
+            fireTableRowsUpdated(firstRow, lastRow);
+        }
     }
 
     /**
@@ -75,29 +142,62 @@ public class ShapeTableModel extends AbstractTableModel implements ModelListener
      */
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-        DShape shape = data.get(rowIndex);
+        if(columnIndex < 0 || columnIndex >= columnNames.length) {
+            return null;
+        }
+        return getInt(rowIndex, columnIndex);
+    }
+
+    /**
+     * Returns the value of a cell without boxing it (used by
+     * sorting, filtering and the cell renderer)
+     * @param rowIndex the row of the cell
+     * @param columnIndex the column of the cell
+     * @return the value of the cell
+     */
+    public int getInt(int rowIndex, int columnIndex) {
+        return valueOf(data.get(rowIndex).getModel(), columnIndex);
+    }
+
+    /**
+     * Returns the model of the shape shown in a row
+     * @param rowIndex the row of the shape
+     * @return the model of the shape
+     */
+    public DShapeModel getModelAt(int rowIndex) {
+        return data.get(rowIndex).getModel();
+    }
+
+    /**
+     * Returns the value a column shows for a model
+     * @param model the model of the shape
+     * @param columnIndex the column (COLUMN_X, COLUMN_Y, COLUMN_WIDTH or COLUMN_HEIGHT)
+     * @return the value of the column for the model
+     */
+    public static int valueOf(DShapeModel model, int columnIndex) {
         switch(columnIndex) { // determine which data to return based on the passed column index
-            case 0:
-                return shape.getModel().getX();
-            case 1:
-                return shape.getModel().getY();
-            case 2:
-                return shape.getModel().getWidth();
-            case 3:
-                return shape.getModel().getHeight();
+            case COLUMN_X:
+                return model.getX();
+            case COLUMN_Y:
+                return model.getY();
+            case COLUMN_WIDTH:
+                return model.getWidth();
+            case COLUMN_HEIGHT:
+                return model.getHeight();
             default:
-                return null;
+                throw new IndexOutOfBoundsException("Column: " + columnIndex);
         }
     }
 
     /**
      * Gets the Class of the specified column in the table model
+     * (every column holds ints, so this works on an empty table too)
      * @param c the column number to check
      * @return the Class of the specified column number
      */
     @Override
     public Class getColumnClass(int c) {
-        return getValueAt(0, c).getClass();
+        return Integer.class;
     }
 
     /**
@@ -129,50 +229,65 @@ public class ShapeTableModel extends AbstractTableModel implements ModelListener
     }
 
     /**
-     * Adds a new DShape to the table
+     * Adds a new DShape to the table (a shape already placed in
+     * the shared shape list by the canvas is not added again)
      * @param shape the shape to add to the table
      */
     public void addShape(DShape shape) {
         shape.getModel().addModelListener(this);
-        data.add(shape);
-        fireTableDataChanged();
+        synchronized(pendingUpdates) {
+            shapesByModel.put(shape.getModel(), shape);
+        }
+        if(!data.contains(shape)) {
+            data.add(shape);
+        }
+        int row = data.indexOf(shape);
+        fireTableRowsInserted(row, row);
     }
 
     /**
-     * Moves the specified DShape to the front (i.e., to
-     * the end of the data list)
-     * @param shape the DShape to move to the front
+     * Adds many DShapes to the table at once, firing a single
+     * event for all of them (shapes already placed in the shared
+     * shape list by the canvas are not added again)
+     * @param shapes the shapes to add to the table
      */
-    public void moveShapeToFront(DShape shape) {
-        DShape matchShape = null;
-        for (int i = 0; i < data.size(); i++) { // look for the shape to move to the front (i.e., at the end of data list)
-            if(shape == data.get(i)) {
-                matchShape = data.remove(i);
-                data.add(matchShape); // add match shape to the end of data
-                break;
+    public void addShapes(Collection<? extends DShape> shapes) {
+        if(shapes.isEmpty()) {
+            return;
+        }
+        List<DShape> missing = new ArrayList<DShape>();
+        synchronized(pendingUpdates) {
+            for(DShape shape : shapes) {
+                shape.getModel().addModelListener(this);
+                shapesByModel.put(shape.getModel(), shape);
+                if(!data.contains(shape)) {
+                    missing.add(shape);
+                }
             }
         }
-        if(matchShape != null) {
+        data.addAll(missing);
+
+        // the canvas appends new shapes, so they normally form one block of rows at the end
+        int lastRow = data.size() - 1;
+        int firstRow = data.size() - shapes.size();
+        if(firstRow >= 0 && data.indexOf(shapes.iterator().next()) == firstRow) {
+            fireTableRowsInserted(firstRow, lastRow);
+        }
+        else {
             fireTableDataChanged();
         }
     }
 
     /**
-     * Moves the specified DShape to the back (i.e., to
-     * the first index of the data list)
-     * @param shape
+     * Updates the table after a DShape was moved from one
+     * row to another in the shared shape list (only the rows
+     * in between the two positions change)
+     * @param fromRow the row the shape was moved from
+     * @param toRow the row the shape was moved to
      */
-    public void moveShapeToBack(DShape shape) {
-        DShape matchShape = null;
-        for (int i = 0; i < data.size(); i++) { // look for the shape to move to the back (i.e., at the beginning of data list)
-            if(shape == data.get(i)) {
-                matchShape = data.remove(i);
-                data.add(0, matchShape); // add matchShape to the front of data
-                break;
-            }
-        }
-        if(matchShape != null) {
-            fireTableDataChanged();
+    public void shapeMoved(int fromRow, int toRow) {
+        if(fromRow != -1 && fromRow != toRow) {
+            fireTableRowsUpdated(Math.min(fromRow, toRow), Math.max(fromRow, toRow));
         }
     }
 
@@ -181,20 +296,82 @@ public class ShapeTableModel extends AbstractTableModel implements ModelListener
      * @param shape the shape to remove from the table
      */
     public void removeShape(DShape shape) {
-        for(int i = 0; i < data.size(); i++) { // loop through the data and remove first occurrence of argument found
-            if(shape == data.get(i)) {
-                data.get(i).getModel().removeModelListener(this);
-                data.remove(i);
-                break;
-            }
+        int row = data.indexOf(shape);
+        if(row != -1) {
+            data.remove(row);
+        }
+        shapeRemoved(shape, row);
+    }
+
+    /**
+     * Updates the table after a DShape was taken out of
+     * the shared shape list, and stops listening to its model
+     * @param shape the shape that was removed
+     * @param oldRow the row the shape had before it was removed (-1 if unknown)
+     */
+    public void shapeRemoved(DShape shape, int oldRow) {
+        shape.getModel().removeModelListener(this);
+        synchronized(pendingUpdates) {
+            shapesByModel.remove(shape.getModel());
+            pendingUpdates.remove(shape.getModel());
+        }
+        if(oldRow != -1) {
+            fireTableRowsDeleted(oldRow, oldRow);
+        }
+        else {
+            fireTableDataChanged();
         }
-        fireTableDataChanged();
     }
 
     /**
      * Clears the data inside the table
      */
     public void clearData() {
-        data = new ArrayList<DShape>();
+        synchronized(pendingUpdates) {
+            for(DShapeModel model : shapesByModel.keySet()) {
+                model.removeModelListener(this);
+            }
+            shapesByModel.clear();
+            pendingUpdates.clear();
+        }
+        data.clear();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Renders the cells of a table showing a ShapeTableModel straight
+     * from the int columns: the value JTable passes in is ignored (a table
+     * calling the renderer with a null value skips boxing altogether)
+     * and only the rows being painted are ever read
+     */
+    public static class CellRenderer extends DefaultTableCellRenderer {
+
+        private static final long serialVersionUID = 1L; // version of the serialized form
+
+        /**
+         * Creates a new renderer, right-aligned like other numbers
+         */
+        public CellRenderer() {
+            super();
+            setHorizontalAlignment(JLabel.RIGHT);
+        }
+
+        /**
+         * Returns the component painting a cell, set to the value of the cell
+         * @param table the table being painted
+         * @param value ignored (the value is read from the model)
+         * @param isSelected true if the cell is selected
+         * @param hasFocus true if the cell has the focus
+         * @param row the view row of the cell
+         * @param column the view column of the cell
+         * @return the component painting the cell
+         */
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+            ShapeTableModel model = (ShapeTableModel)table.getModel();
+            setText(Integer.toString(model.getInt(table.convertRowIndexToModel(row), table.convertColumnIndexToModel(column))));
+            return this;
+        }
     }
 }
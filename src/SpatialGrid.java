@@ -0,0 +1,231 @@
+import java.awt.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spatial index of shape bounds by id, bucketing every shape into the
+ * square cells of a uniform grid that its bounds touch, so the shapes
+ * in an area are found by visiting only the cells under it. Shapes
+ * spanning very many cells are kept in a separate list that every
+ * query checks, so one huge shape never fills thousands of cells
+ */
+public class SpatialGrid {
+
+    private static final int CELL_SIZE = 256; // side of a cell (pixels)
+    private static final int MAX_CELLS = 64; // most cells a shape is bucketed into (larger shapes go in the large list)
+
+    private Map<Long, Set<Integer>> cells; // ids of the shapes touching every non-empty cell
+    private Map<Integer, Rectangle> bounds; // bounds of every shape
+    private Set<Integer> large; // ids of the shapes touching more than MAX_CELLS cells
+
+    /**
+     * Creates a new, empty grid
+     */
+    public SpatialGrid() {
+        cells = new HashMap<Long, Set<Integer>>();
+        bounds = new HashMap<Integer, Rectangle>();
+        large = new HashSet<Integer>();
+    }
+
+    /**
+     * Adds a shape, or moves it if it is already in the grid
+     * @param id the id of the shape
+     * @param shapeBounds the bounds of the shape (kept by the grid, so it must not be changed afterwards)
+     */
+    public void put(int id, Rectangle shapeBounds) {
+        Rectangle old = bounds.put(id, shapeBounds);
+        if(old != null) {
+            if(sameCells(old, shapeBounds)) {
+                return; // moved within the same cells: nothing to rebucket
+            }
+            unbucket(id, old);
+        }
+        bucket(id, shapeBounds);
+    }
+
+    /**
+     * Removes a shape from the grid
+     * @param id the id of the shape
+     * @return the bounds the shape had, or null if it was not in the grid
+     */
+    public Rectangle remove(int id) {
+        Rectangle old = bounds.remove(id);
+        if(old != null) {
+            unbucket(id, old);
+        }
+        return old;
+    }
+
+    /**
+     * Returns the bounds of a shape
+     * @param id the id of the shape
+     * @return the bounds of the shape, or null if it is not in the grid
+     */
+    public Rectangle get(int id) {
+        return bounds.get(id);
+    }
+
+    /**
+     * Checks whether a shape is in the grid
+     * @param id the id of the shape
+     * @return true if the shape is in the grid
+     */
+    public boolean contains(int id) {
+        return bounds.containsKey(id);
+    }
+
+    /**
+     * Returns the number of shapes in the grid
+     * @return the number of shapes in the grid
+     */
+    public int size() {
+        return bounds.size();
+    }
+
+    /**
+     * Removes every shape from the grid
+     */
+    public void clear() {
+        cells.clear();
+        bounds.clear();
+        large.clear();
+    }
+
+    /**
+     * Finds the shapes whose bounds overlap an area
+     * @param area the area to search
+     * @return the ids of the shapes overlapping the area
+     */
+    public Set<Integer> query(Rectangle area) {
+        Set<Integer> found = new HashSet<Integer>();
+        long cellCount = cellSpan(area.x, area.width) * cellSpan(area.y, area.height);
+        if(cellCount > cells.size()) { // fewer shapes' cells than cells to visit: checking every shape is cheaper
+            for(Map.Entry<Integer, Rectangle> entry : bounds.entrySet()) {
+                if(overlaps(entry.getValue(), area)) {
+                    found.add(entry.getKey());
+                }
+            }
+            return found;
+        }
+
+        int firstColumn = Math.floorDiv(area.x, CELL_SIZE);
+        int lastColumn = Math.floorDiv(area.x + area.width, CELL_SIZE);
+        int firstRow = Math.floorDiv(area.y, CELL_SIZE);
+        int lastRow = Math.floorDiv(area.y + area.height, CELL_SIZE);
+        for(int row = firstRow; row <= lastRow; row++) {
+            for(int column = firstColumn; column <= lastColumn; column++) {
+                Set<Integer> cell = cells.get(cellKey(column, row));
+                if(cell != null) {
+                    for(Integer id : cell) {
+                        if(overlaps(bounds.get(id), area)) {
+                            found.add(id);
+                        }
+                    }
+                }
+            }
+        }
+        for(Integer id : large) {
+            if(overlaps(bounds.get(id), area)) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether two rectangles overlap, counting touching edges and
+     * empty rectangles (lines along an axis have no width or no height)
+     * @param a the first rectangle
+     * @param b the second rectangle
+     * @return true if the rectangles overlap
+     */
+    public static boolean overlaps(Rectangle a, Rectangle b) {
+        return (long)a.x <= (long)b.x + b.width && (long)b.x <= (long)a.x + a.width &&
+                (long)a.y <= (long)b.y + b.height && (long)b.y <= (long)a.y + a.height;
+    }
+
+    /**
+     * Adds a shape to the cells its bounds touch (or to the large list)
+     * @param id the id of the shape
+     * @param shapeBounds the bounds of the shape
+     */
+    private void bucket(int id, Rectangle shapeBounds) {
+        if(cellSpan(shapeBounds.x, shapeBounds.width) * cellSpan(shapeBounds.y, shapeBounds.height) > MAX_CELLS) {
+            large.add(id);
+            return;
+        }
+        int lastColumn = Math.floorDiv(shapeBounds.x + shapeBounds.width, CELL_SIZE);
+        int lastRow = Math.floorDiv(shapeBounds.y + shapeBounds.height, CELL_SIZE);
+        for(int row = Math.floorDiv(shapeBounds.y, CELL_SIZE); row <= lastRow; row++) {
+            for(int column = Math.floorDiv(shapeBounds.x, CELL_SIZE); column <= lastColumn; column++) {
+                Long key = cellKey(column, row);
+                Set<Integer> cell = cells.get(key);
+                if(cell == null) {
+                    cell = new HashSet<Integer>();
+                    cells.put(key, cell);
+                }
+                cell.add(id);
+            }
+        }
+    }
+
+    /**
+     * Removes a shape from the cells its old bounds touched (or from the large list)
+     * @param id the id of the shape
+     * @param shapeBounds the old bounds of the shape
+     */
+    private void unbucket(int id, Rectangle shapeBounds) {
+        if(large.remove(id)) {
+            return;
+        }
+        int lastColumn = Math.floorDiv(shapeBounds.x + shapeBounds.width, CELL_SIZE);
+        int lastRow = Math.floorDiv(shapeBounds.y + shapeBounds.height, CELL_SIZE);
+        for(int row = Math.floorDiv(shapeBounds.y, CELL_SIZE); row <= lastRow; row++) {
+            for(int column = Math.floorDiv(shapeBounds.x, CELL_SIZE); column <= lastColumn; column++) {
+                Long key = cellKey(column, row);
+                Set<Integer> cell = cells.get(key);
+                if(cell != null) {
+                    cell.remove(id);
+                    if(cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether two bounds touch exactly the same cells
+     * @param a the first bounds
+     * @param b the second bounds
+     * @return true if both touch the same cells
+     */
+    private static boolean sameCells(Rectangle a, Rectangle b) {
+        return Math.floorDiv(a.x, CELL_SIZE) == Math.floorDiv(b.x, CELL_SIZE) &&
+                Math.floorDiv(a.y, CELL_SIZE) == Math.floorDiv(b.y, CELL_SIZE) &&
+                Math.floorDiv(a.x + a.width, CELL_SIZE) == Math.floorDiv(b.x + b.width, CELL_SIZE) &&
+                Math.floorDiv(a.y + a.height, CELL_SIZE) == Math.floorDiv(b.y + b.height, CELL_SIZE);
+    }
+
+    /**
+     * Returns the number of cells a span of coordinates touches
+     * @param start the first coordinate
+     * @param length the length of the span
+     * @return the number of cells touched
+     */
+    private static long cellSpan(int start, int length) {
+        return (long)Math.floorDiv(start + length, CELL_SIZE) - Math.floorDiv(start, CELL_SIZE) + 1;
+    }
+
+    /**
+     * Packs a cell column and row into a single map key
+     * @param column the cell column
+     * @param row the cell row
+     * @return the key of the cell
+     */
+    private static Long cellKey(int column, int row) {
+        return ((long)row << 32) | (column & 0xFFFFFFFFL);
+    }
+}
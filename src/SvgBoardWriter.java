@@ -0,0 +1,265 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams a board out as an SVG document, one element per shape,
+ * straight from the columns of a ShapeStore. Nothing is buffered
+ * besides the output stream, so memory use does not grow with the
+ * board, and the result is resolution independent. Shapes can be
+ * written in several steps (to report progress between them). Every
+ * picture is embedded once, as a symbol the image shapes then use
+ */
+public class SvgBoardWriter {
+
+    public static final String EXTENSION = ".svg"; // file extension used for SVG exports
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Writer out; // buffered writer over the output stream
+    private DText textFlyweight; // reusable DText for computing text fonts
+    private Graphics metricsGraphics; // scratch graphics used only for font metrics
+    private Map<String, Font> fontCache; // computed fonts by font name and text height
+    private Set<String> writtenImages; // hashes of the pictures already embedded as symbols
+
+    /**
+     * Starts a new SVG document on the output stream
+     * @param stream the stream to write the document to (closed by close)
+     * @param width the width of the board (pixels)
+     * @param height the height of the board (pixels)
+     * @param background the background color of the board
+     * @throws IOException if writing fails
+     */
+    public SvgBoardWriter(OutputStream stream, int width, int height, Color background) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(stream, UTF_8), 64 * 1024);
+        textFlyweight = new DText();
+        metricsGraphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+        fontCache = new HashMap<String, Font>();
+        writtenImages = new HashSet<String>();
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + width + "\" height=\"" + height +
+                "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+        out.write("<rect width=\"100%\" height=\"100%\"");
+        writePaint("fill", background.getRGB());
+        out.write("/>\n");
+    }
+
+    /**
+     * Writes the shapes of a range of slots of the store, back to front
+     * @param store the shapes to write
+     * @param from the first slot to write
+     * @param to the slot after the last slot to write
+     * @throws IOException if writing fails
+     */
+    public void write(ShapeStore store, int from, int to) throws IOException {
+        for(int i = from; i < to; i++) {
+            int x = store.getX(i);
+            int y = store.getY(i);
+            int width = store.getWidth(i);
+            int height = store.getHeight(i);
+            switch(store.getType(i)) {
+                case ShapeStore.TYPE_RECT:
+                    if(width > 0 && height > 0) { // Graphics.fillRect draws nothing for empty rectangles either
+                        out.write("<rect x=\"" + x + "\" y=\"" + y + "\" width=\"" + width + "\" height=\"" + height + "\"");
+                        writePaint("fill", store.getRGB(i));
+                        out.write("/>\n");
+                    }
+                    break;
+                case ShapeStore.TYPE_OVAL:
+                    if(width > 0 && height > 0) {
+                        out.write("<ellipse cx=\"" + (x + width / 2.0) + "\" cy=\"" + (y + height / 2.0) +
+                                "\" rx=\"" + (width / 2.0) + "\" ry=\"" + (height / 2.0) + "\"");
+                        writePaint("fill", store.getRGB(i));
+                        out.write("/>\n");
+                    }
+                    break;
+                case ShapeStore.TYPE_LINE:
+                    // for lines, the width / height of the slot are the offset from p1 to p2
+                    out.write("<line x1=\"" + x + "\" y1=\"" + y + "\" x2=\"" + (x + width) + "\" y2=\"" + (y + height) + "\"");
+                    writePaint("stroke", store.getRGB(i));
+                    out.write("/>\n");
+                    break;
+                case ShapeStore.TYPE_TEXT:
+                    writeText(store, i, x, y, width, height);
+                    break;
+                case ShapeStore.TYPE_IMAGE:
+                    writeImage(store, i, x, y, width, height);
+                    break;
+                default:
+                    // generic shapes are never drawn
+            }
+        }
+    }
+
+    /**
+     * Ends the document and closes the output stream
+     * @throws IOException if writing fails
+     */
+    public void close() throws IOException {
+        try {
+            out.write("</svg>\n");
+        }
+        finally {
+            metricsGraphics.dispose();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a text slot the way DText draws it: in the font sized to
+     * the height of the shape, with the baseline three quarters of the
+     * way down, and clipped to the bounds (by a nested viewport)
+     * @param store the store holding the slot
+     * @param index the slot to write
+     * @param x the x of the shape
+     * @param y the y of the shape
+     * @param width the width of the shape
+     * @param height the height of the shape
+     * @throws IOException if writing fails
+     */
+    private void writeText(ShapeStore store, int index, int x, int y, int width, int height) throws IOException {
+        String text = store.getText(index);
+        if(text == null || width <= 0 || height <= 0) {
+            return;
+        }
+        Font font = textFont(store, index, height);
+        out.write("<svg x=\"" + x + "\" y=\"" + y + "\" width=\"" + width + "\" height=\"" + height + "\" overflow=\"hidden\">");
+        out.write("<text x=\"0\" y=\"" + (height * 3 / 4) + "\" font-family=\"");
+        writeEscaped(font.getFamily());
+        out.write("\" font-size=\"" + font.getSize() + "\"");
+        writePaint("fill", store.getRGB(index));
+        out.write(" xml:space=\"preserve\">");
+        writeEscaped(text);
+        out.write("</text></svg>\n");
+    }
+
+    /**
+     * Writes an image slot as a use of the symbol of its picture
+     * (embedding the picture first, if it is not in the document yet)
+     * @param store the store holding the slot
+     * @param index the slot to write
+     * @param x the x of the shape
+     * @param y the y of the shape
+     * @param width the width of the shape
+     * @param height the height of the shape
+     * @throws IOException if writing fails
+     */
+    private void writeImage(ShapeStore store, int index, int x, int y, int width, int height) throws IOException {
+        String hash = store.getImageHash(index);
+        byte[] bytes = ImageStore.get(hash);
+        Dimension size = BitmapCache.getShared().getSourceSize(hash);
+        if(bytes == null || size == null || width <= 0 || height <= 0) {
+            return;
+        }
+        if(writtenImages.add(hash)) {
+            out.write("<symbol id=\"image-" + hash + "\" viewBox=\"0 0 " + size.width + " " + size.height +
+                    "\" preserveAspectRatio=\"none\"><image width=\"" + size.width + "\" height=\"" + size.height +
+                    "\" xlink:href=\"data:" + mimeType(bytes) + ";base64,");
+            out.write(Base64.getEncoder().encodeToString(bytes));
+            out.write("\"/></symbol>\n");
+        }
+        out.write("<use xlink:href=\"#image-" + hash + "\" x=\"" + x + "\" y=\"" + y +
+                "\" width=\"" + width + "\" height=\"" + height + "\"/>\n");
+    }
+
+    /**
+     * Guesses the MIME type of an encoded picture from its first bytes
+     * @param bytes the encoded picture
+     * @return the MIME type of the picture
+     */
+    private static String mimeType(byte[] bytes) {
+        if(bytes.length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8) {
+            return "image/jpeg";
+        }
+        else if(bytes.length >= 3 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F') {
+            return "image/gif";
+        }
+        else if(bytes.length >= 2 && bytes[0] == 'B' && bytes[1] == 'M') {
+            return "image/bmp";
+        }
+        return "image/png";
+    }
+
+    /**
+     * Returns the font DText would draw a text slot in (fonts only
+     * depend on the font name and height, so they are cached)
+     * @param store the store holding the slot
+     * @param index the text slot
+     * @param height the height of the shape
+     * @return the font to draw the text in
+     */
+    private Font textFont(ShapeStore store, int index, int height) {
+        Font storedFont = store.getTextFont(index);
+        String key = (storedFont == null ? "" : storedFont.getFontName()) + "/" + height;
+        Font font = fontCache.get(key);
+        if(font == null) {
+            store.loadModel(index, textFlyweight.getModel());
+            font = textFlyweight.computeFont(metricsGraphics);
+            fontCache.put(key, font);
+        }
+        return font;
+    }
+
+    /**
+     * Writes a fill / stroke attribute (and its opacity, for translucent colors)
+     * @param attribute the name of the paint attribute
+     * @param argb the packed color
+     * @throws IOException if writing fails
+     */
+    private void writePaint(String attribute, int argb) throws IOException {
+        out.write(" " + attribute + "=\"#");
+        String hex = Integer.toHexString(argb & 0xFFFFFF);
+        for(int i = hex.length(); i < 6; i++) {
+            out.write('0');
+        }
+        out.write(hex);
+        out.write("\"");
+        int alpha = argb >>> 24;
+        if(alpha != 0xFF) {
+            out.write(" " + attribute + "-opacity=\"" + (alpha / 255.0f) + "\"");
+        }
+    }
+
+    /**
+     * Writes a string with the XML special characters escaped
+     * @param string the string to write
+     * @throws IOException if writing fails
+     */
+    private void writeEscaped(String string) throws IOException {
+        for(int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch(c) {
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                default:
+                    if(c < 0x20 && c != '\t' && c != '\n' && c != '\r') { // not allowed in XML at all
+                        out.write(' ');
+                    }
+                    else {
+                        out.write(c);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the region-chunked whiteboard file format, where shapes are
+ * bucketed by square spatial tile so a reader can load just the
+ * part of a board in view (see TiledBoardReader). A file is laid out as
+ *
+ *   header:       magic, version, tile size, shape count, tile count,
+ *                 string count, largest shape width, largest shape height,
+ *                 image count (9 ints)
+ *   string table: as in BinaryBoardFile
+ *   image table:  as in BinaryBoardFile
+ *   tile index:   for each tile, its column, row, file offset (long) and shape count
+ *   tile data:    for each tile, one record per shape in z-order
+ *
+ * where a record is the z-position of the shape on the whole board
+ * followed by a BinaryBoardFile shape record. A shape belongs to the
+ * tile holding the top-left corner of its bounds
+ */
+public class TiledBoardFile {
+
+    public static final String EXTENSION = ".wbt"; // file extension used for tiled boards
+    public static final int MAGIC = 0x57425431; // "WBT1", the first four bytes of every tiled board
+    public static final int VERSION = 2; // current version of the format (version 1 had no image count / table)
+    public static final int DEFAULT_TILE_SIZE = 512; // side of a tile (pixels)
+
+    static final int HEADER_SIZE = 8 * 4; // bytes in the header (of a version 1 file, the shortest)
+    static final int INDEX_ENTRY_SIZE = 4 + 4 + 8 + 4; // bytes in a tile index entry
+    static final int RECORD_SIZE = 4 + BinaryBoardFile.RECORD_SIZE; // bytes in a shape record (z-position and shape)
+    private static final int BUFFER_SIZE = 64 * 1024; // size of the direct buffer used for writing
+
+    /**
+     * TiledBoardFile only has static methods, so it is never constructed
+     */
+    private TiledBoardFile() {
+    }
+
+    /**
+     * Checks whether the file starts with the tiled board magic bytes
+     * @param file the file to check
+     * @return true if the file is a tiled board
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isTiledBoard(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.length() >= 4 && in.readInt() == MAGIC;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the argument models (back to front) to the file, using
+     * tiles of the default size
+     * @param file the file to write
+     * @param models the models to save
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, DShapeModel[] models) throws IOException {
+        write(file, models, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Writes the argument models (back to front) to the file
+     * @param file the file to write
+     * @param models the models to save
+     * @param tileSize the side of a tile (pixels)
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, DShapeModel[] models, int tileSize) throws IOException {
+        if(tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+
+        // bucket the shapes by tile, keeping z-order inside each tile
+        Map<Long, List<Integer>> tiles = new HashMap<Long, List<Integer>>();
+        Rectangle bounds = new Rectangle();
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for(int i = 0; i < models.length; i++) {
+            models[i].getBounds(bounds);
+            maxWidth = Math.max(maxWidth, bounds.width);
+            maxHeight = Math.max(maxHeight, bounds.height);
+            Long key = tileKey(Math.floorDiv(bounds.x, tileSize), Math.floorDiv(bounds.y, tileSize));
+            List<Integer> tile = tiles.get(key);
+            if(tile == null) {
+                tile = new ArrayList<Integer>();
+                tiles.put(key, tile);
+            }
+            tile.add(i);
+        }
+
+        // lay the tiles out row by row, so neighbouring tiles are close together in the file
+        List<Long> tileKeys = new ArrayList<Long>(tiles.keySet());
+        Collections.sort(tileKeys, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                int rowOrder = Integer.compare(tileRow(a), tileRow(b));
+                return rowOrder != 0 ? rowOrder : Integer.compare(tileColumn(a), tileColumn(b));
+            }
+        });
+
+        List<String> strings = new ArrayList<String>();
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        BinaryBoardFile.collectStrings(models, strings, stringIndexes);
+        List<byte[]> images = BinaryBoardFile.collectImages(models);
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(tileSize);
+            buffer.putInt(models.length);
+            buffer.putInt(tileKeys.size());
+            buffer.putInt(strings.size());
+            buffer.putInt(maxWidth);
+            buffer.putInt(maxHeight);
+            buffer.putInt(images.size());
+            BinaryBoardFile.writeStrings(channel, buffer, strings);
+            BinaryBoardFile.writeImages(channel, buffer, images);
+
+            // the tile data starts right after the index, so every offset is known up front
+            long offset = channel.position() + buffer.position() + (long)tileKeys.size() * INDEX_ENTRY_SIZE;
+            for(Long key : tileKeys) {
+                int count = tiles.get(key).size();
+                BinaryBoardFile.ensureRoom(channel, buffer, INDEX_ENTRY_SIZE);
+                buffer.putInt(tileColumn(key));
+                buffer.putInt(tileRow(key));
+                buffer.putLong(offset);
+                buffer.putInt(count);
+                offset += (long)count * RECORD_SIZE;
+            }
+
+            for(Long key : tileKeys) {
+                for(int order : tiles.get(key)) {
+                    BinaryBoardFile.ensureRoom(channel, buffer, RECORD_SIZE);
+                    buffer.putInt(order);
+                    BinaryBoardFile.writeRecord(buffer, models[order], stringIndexes);
+                }
+            }
+
+            BinaryBoardFile.flush(channel, buffer);
+            channel.force(false);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Packs a tile column and row into a single map key
+     * @param column the tile column
+     * @param row the tile row
+     * @return the key of the tile
+     */
+    private static Long tileKey(int column, int row) {
+        return ((long)row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the tile column packed into a key
+     * @param key the key of the tile
+     * @return the tile column
+     */
+    private static int tileColumn(long key) {
+        return (int)key;
+    }
+
+    /**
+     * Returns the tile row packed into a key
+     * @param key the key of the tile
+     * @return the tile row
+     */
+    private static int tileRow(long key) {
+        return (int)(key >> 32);
+    }
+}
@@ -0,0 +1,184 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reads tiled boards (see TiledBoardFile) a tile at a time. Opening
+ * only reads the header, string table and tile index; the tile data
+ * stays in a memory-mapped buffer, so the operating system pages in
+ * only the tiles that are actually read and can drop them again
+ * under memory pressure
+ */
+public class TiledBoardReader {
+
+    private File file; // the file being read
+    private RandomAccessFile in; // the open file
+    private MappedByteBuffer buffer; // mapping of the whole file
+    private String[] strings; // string table of the file
+    private int tileSize; // side of a tile (pixels)
+    private int shapeCount; // number of shapes on the whole board
+    private int maxWidth, maxHeight; // size of the largest shape (how far shapes reach out of their tile)
+    private int[] columns, rows; // column / row of every tile
+    private long[] offsets; // file offset of the data of every tile
+    private int[] counts; // number of shapes in every tile
+
+    /**
+     * Opens the file and reads its tile index
+     * @param file the tiled board to read
+     * @throws IOException if the file cannot be read or is not a valid tiled board
+     */
+    public TiledBoardReader(File file) throws IOException {
+        this.file = file;
+        in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            if(channel.size() < TiledBoardFile.HEADER_SIZE) {
+                throw new IOException("File \"" + file + "\" is too short to be a tiled board");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if(buffer.getInt() != TiledBoardFile.MAGIC) {
+                throw new IOException("File \"" + file + "\" is not a tiled board");
+            }
+            int version = buffer.getInt();
+            if(version != 1 && version != TiledBoardFile.VERSION) {
+                throw new IOException("Unsupported tiled board version " + version);
+            }
+            tileSize = buffer.getInt();
+            shapeCount = buffer.getInt();
+            int tileCount = buffer.getInt();
+            int stringCount = buffer.getInt();
+            maxWidth = buffer.getInt();
+            maxHeight = buffer.getInt();
+            int imageCount = version == 1 ? 0 : buffer.getInt();
+            strings = BinaryBoardFile.readStrings(buffer, stringCount);
+            BinaryBoardFile.readImages(buffer, imageCount);
+
+            columns = new int[tileCount];
+            rows = new int[tileCount];
+            offsets = new long[tileCount];
+            counts = new int[tileCount];
+            for(int i = 0; i < tileCount; i++) {
+                columns[i] = buffer.getInt();
+                rows[i] = buffer.getInt();
+                offsets[i] = buffer.getLong();
+                counts[i] = buffer.getInt();
+                if(counts[i] < 0 || offsets[i] + (long)counts[i] * TiledBoardFile.RECORD_SIZE > channel.size()) {
+                    throw new IOException("File \"" + file + "\" is truncated");
+                }
+            }
+        }
+        catch(RuntimeException ex) { // buffer underflows mean the file is corrupt
+            in.close();
+            throw new IOException("File \"" + file + "\" is not a valid tiled board", ex);
+        }
+        catch(IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the number of shapes on the whole board
+     * @return the number of shapes on the whole board
+     */
+    public int getShapeCount() {
+        return shapeCount;
+    }
+
+    /**
+     * Returns the number of tiles in the file
+     * @return the number of tiles in the file
+     */
+    public int getTileCount() {
+        return counts.length;
+    }
+
+    /**
+     * Returns the number of shapes in a tile
+     * @param tile the index of the tile
+     * @return the number of shapes in the tile
+     */
+    public int getTileShapeCount(int tile) {
+        return counts[tile];
+    }
+
+    /**
+     * Returns the area shapes of a tile can cover: the tile itself,
+     * stretched right and down by the size of the largest shape
+     * @param tile the index of the tile
+     * @return the area the shapes of the tile can cover
+     */
+    public Rectangle getTileReach(int tile) {
+        return new Rectangle(columns[tile] * tileSize, rows[tile] * tileSize, tileSize + maxWidth, tileSize + maxHeight);
+    }
+
+    /**
+     * Returns every tile, ordered by how far its shapes can be from
+     * the viewport (tiles with shapes in view come first)
+     * @param viewport the area currently in view
+     * @return the indexes of all the tiles, nearest first
+     */
+    public int[] getTilesByDistance(Rectangle viewport) {
+        int tileCount = counts.length;
+        final long[] distances = new long[tileCount];
+        Integer[] order = new Integer[tileCount];
+        for(int i = 0; i < tileCount; i++) {
+            Rectangle reach = getTileReach(i);
+            long dx = Math.max(0, Math.max((long)reach.x - ((long)viewport.x + viewport.width), (long)viewport.x - ((long)reach.x + reach.width)));
+            long dy = Math.max(0, Math.max((long)reach.y - ((long)viewport.y + viewport.height), (long)viewport.y - ((long)reach.y + reach.height)));
+            distances[i] = dx + dy;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(distances[a], distances[b]);
+            }
+        });
+        int[] tiles = new int[tileCount];
+        for(int i = 0; i < tileCount; i++) {
+            tiles[i] = order[i];
+        }
+        return tiles;
+    }
+
+    /**
+     * Reads the shapes of a tile
+     * @param tile the index of the tile
+     * @param orders filled with the z-position of each shape on the whole board
+     *               (must have room for getTileShapeCount(tile) entries)
+     * @return new models for the shapes of the tile, in z-order
+     * @throws IOException if the tile data is corrupt
+     */
+    public DShapeModel[] readTile(int tile, int[] orders) throws IOException {
+        try {
+            ByteBuffer data = buffer.duplicate();
+            data.position((int)offsets[tile]);
+            DShapeModel[] models = new DShapeModel[counts[tile]];
+            for(int i = 0; i < models.length; i++) {
+                orders[i] = data.getInt();
+                models[i] = BinaryBoardFile.readRecord(data, strings);
+            }
+            return models;
+        }
+        catch(RuntimeException ex) { // buffer underflows / bad indexes mean the file is corrupt
+            throw new IOException("File \"" + file + "\" is not a valid tiled board", ex);
+        }
+    }
+
+    /**
+     * Closes the file (the mapping itself is released once
+     * it is garbage collected)
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -1,20 +1,32 @@
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
 import javax.swing.*;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.table.TableCellRenderer;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.beans.XMLDecoder;
-import java.beans.XMLEncoder;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * The Whiteboard class is the JFrame
@@ -30,6 +42,7 @@ public class Whiteboard extends JFrame {
     private JComboBox fontComboBox; // the combo box where drawn text can be modified (in font)
     private JTable shapeTable; // table that shows the qualities of all the models used for the shapes currently on the canvas
     private ShapeTableModel shapeTableModel; // abstract table model for the shape table JTable
+    private ShapeRowSorter shapeRowSorter; // sorts / filters the rows of the shape table
 
     // Special whiteboard networking fields
     private static final int NOT_NETWORKING = 0;
@@ -39,8 +52,19 @@ public class Whiteboard extends JFrame {
 
     private ServerAccepter serverAccepter; // server accepter takes in clients as they want to join
     private ClientHandler clientHandler; // client handler helps new clients connect to the server
-    private List<ObjectOutputStream> outputs = new ArrayList<ObjectOutputStream>(); // list of object streams to send data to from the server
+    private ClientBroadcaster broadcaster; // thread sending board operations to the clients of the server (null unless serving)
+    private BlockingQueue<Rectangle> viewportReports; // areas of the board in view, waiting to be reported to the server (client mode)
     private int idCounter; // keeps track of next id to give to next added shape
+    private SwingWorker<?, ?> boardLoader; // background loader of the XML / tiled file currently being opened (null if none)
+    private static final int AUTOSAVE_SLOTS = 4; // autosave journals tried before autosave is turned off, when others are locked
+    private BoardJournal journal; // autosave journal recording every change to the board (null when autosave is off)
+    private SessionRecorder recorder; // recorder of the session, for replaying it later (null unless recording)
+    private Thread recorderShutdownHook; // finishes the recording if the program exits while recording
+    private WhiteboardMonitor monitor; // live counters published over JMX
+    private WhiteboardEvents.BoardOpenEvent openEvent; // Flight Recorder event of the file being opened (null if none)
+    private static final int PROGRESS_INTERVAL = 200; // milliseconds between progress monitor updates
+    private static final int EXPORT_STEP = 4096; // number of shapes drawn between progress updates when exporting
+    private static final int MAX_IMAGE_SIZE = 400; // longest side (pixels) of a newly added picture
 
     /**
      * Constructs a new Whiteboard frame for
@@ -51,6 +75,31 @@ public class Whiteboard extends JFrame {
         idCounter = 0;
 
         canvas = new Canvas();
+        viewportReports = new LinkedBlockingQueue<Rectangle>();
+        canvas.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if(networkingStatus == CLIENT_MODE) {
+                    reportViewport();
+                }
+            }
+        });
+
+        monitor = new WhiteboardMonitor(new WhiteboardMonitor.BoardStatus() {
+            @Override
+            public int getShapeCount() {
+                return canvas.getShapeList().size();
+            }
+            @Override
+            public int[] getClientQueueDepths() {
+                ClientBroadcaster currentBroadcaster = broadcaster;
+                if(currentBroadcaster == null) {
+                    return new int[0];
+                }
+                return currentBroadcaster.getClientQueueDepths();
+            }
+        });
+        monitor.register();
 
         setTitle("Whiteboard");
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
@@ -84,58 +133,31 @@ public class Whiteboard extends JFrame {
 
                     //Check if any knob was pressed for resizing
                     DShape selected = canvas.getSelectedShape();
-                    if(selected != null) {
-                        List<Point> knobs = selected.getKnobs();
-                        for(int i = 0; i < knobs.size(); i++) {
-                            Point currentKnob = knobs.get(i);
-                            // Check if mouse click was in bounds of the current knob
-                            if(mouseX >= (currentKnob.x) - (Canvas.KNOB_SIZE / 2) &&
-                                    mouseX <= (currentKnob.x) - (Canvas.KNOB_SIZE / 2) + Canvas.KNOB_SIZE &&
-                                    mouseY >= (currentKnob.y) - (Canvas.KNOB_SIZE / 2) &&
-                                    mouseY <= (currentKnob.y) - (Canvas.KNOB_SIZE / 2) + Canvas.KNOB_SIZE) {
-
-                                // get appropriate anchor point depending on which knob was selected
-                                switch (i){
-                                    case 0 :
-                                        anchorPoint = knobs.size() - 1; //3 for 4 knobs, 1 for 2 knobs
-                                        break;
-                                    case 1 :
-                                        anchorPoint = knobs.size() - 2; // 2 for 4 knobs, 0 for 2 knobs
-                                        break;
-                                    case 2 :
-                                        anchorPoint = 1; // 1 for 4 knobs
-                                        break;
-                                    case 3 :
-                                        anchorPoint = 0; // 0 for 4 knobs
-                                        break;
-                                }
-                                foundShape = true;
-                                canvas.setDragMode(Canvas.DRAG_RESIZING);
-                            }
-                        }
+                    int knobIndex = canvas.getKnobIndexAt(mouseX, mouseY);
+                    if(knobIndex != -1) {
+                        // anchor is the "opposite" knob of the one pressed (3 <-> 0, 2 <-> 1 for 4 knobs; 1 <-> 0 for 2 knobs)
+                        anchorPoint = canvas.getKnobCount() - 1 - knobIndex;
+                        foundShape = true;
+                        canvas.setDragMode(Canvas.DRAG_RESIZING);
                     }
 
                     //If no knobs pressed, check if shape was pressed for moving
-                    List<DShape> shapeList = canvas.getShapeList();
                     if(!foundShape) {
-                        for(int i = shapeList.size() - 1; i >= 0; i--) { // go in reverse to check shapes in the front first
-                            DShape shape = shapeList.get(i);
-                            if(shape.getBounds().contains(mouseX, mouseY)) { // this is true if the mouse click was inside the given shape
-                                foundShape = true;
-                                selected = shape;
-                                canvas.setSelectedShape(selected);
-                                canvas.setDragMode(Canvas.DRAG_MOVING);
-                                if(selected instanceof DText) { // set JTextField / JComboBox to be selectable
-                                    drawTextField.setEnabled(true);
-                                    fontComboBox.setEnabled(true);
-                                    drawTextField.setText(((DTextModel)selected.getModel()).getText());
-                                }
-                                else { // set JTextField / JComboBox to not be selectable
-                                    drawTextField.setText("Edit drawn text here!");
-                                    drawTextField.setEnabled(false);
-                                    fontComboBox.setEnabled(false);
-                                }
-                                break;
+                        DShape shape = canvas.getShapeAt(mouseX, mouseY);
+                        if(shape != null) { // this is true if the mouse click was inside a shape
+                            foundShape = true;
+                            selected = shape;
+                            canvas.setSelectedShape(selected);
+                            canvas.setDragMode(Canvas.DRAG_MOVING);
+                            if(selected instanceof DText) { // set JTextField / JComboBox to be selectable
+                                drawTextField.setEnabled(true);
+                                fontComboBox.setEnabled(true);
+                                drawTextField.setText(((DTextModel)selected.getModel()).getText());
+                            }
+                            else { // set JTextField / JComboBox to not be selectable
+                                drawTextField.setText("Edit drawn text here!");
+                                drawTextField.setEnabled(false);
+                                fontComboBox.setEnabled(false);
                             }
                         }
                     }
@@ -151,8 +173,7 @@ public class Whiteboard extends JFrame {
                         // Set up an anchor if we have pressed a knob
                         if(selected != null && canvas.getDragMode() == Canvas.DRAG_RESIZING) {
                             // Anchor is the "opposite corner" of the selected knob
-                            List<Point> knobs = selected.getKnobs();
-                            canvas.setAnchor(knobs.get(anchorPoint).x, knobs.get(anchorPoint).y);
+                            canvas.setAnchor(canvas.getKnobX(anchorPoint), canvas.getKnobY(anchorPoint));
                         }
 
                         // Set up xOffset / yOffset if we have pressed a shape
@@ -175,21 +196,27 @@ public class Whiteboard extends JFrame {
         canvas.addMouseMotionListener(new MouseMotionListener() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // drag only works if we are not a client
+                if(canEdit()) { // drag only works as a non-client, once any file has loaded
                     int mouseX = e.getX();
                     int mouseY = e.getY();
 
                     DShape selected = canvas.getSelectedShape();
                     if(canvas.getDragMode() == Canvas.DRAG_MOVING && selected != null) { //need to move the shape
-                        selected.getModel().setX(mouseX + canvas.getXOffset());
-                        selected.getModel().setY(mouseY + canvas.getYOffset());
-                        canvas.repaint();
+                        DShapeModel selectedModel = selected.getModel();
+                        selectedModel.beginUpdate(); // notify listeners once for the whole move
+                        try {
+                            selectedModel.setX(mouseX + canvas.getXOffset());
+                            selectedModel.setY(mouseY + canvas.getYOffset());
+                        }
+                        finally {
+                            selectedModel.endUpdate(); // (the shape repaints the canvas where it moved)
+                        }
 
                         // update clients
                         if(networkingStatus == SERVER_MODE) {
                             String instruction = "change";
                             DShapeModel model = selected.getModel();
-                            messageClients(instruction, model);
+                            messageClients(instruction, model, DShapeModel.CHANGED_X | DShapeModel.CHANGED_Y);
                         }
                     }
                     else if(canvas.getDragMode() == Canvas.DRAG_RESIZING && selected != null) { //need to resize the shape
@@ -205,18 +232,23 @@ public class Whiteboard extends JFrame {
                         }
                         else { // do regular "resizing" for any other shape
                             DShapeModel selectedModel = selected.getModel();
-                            selectedModel.setX(Math.min(mouseX, canvas.getXAnchor()));
-                            selectedModel.setY(Math.min(mouseY, canvas.getYAnchor()));
-                            selectedModel.setWidth(Math.abs(mouseX - canvas.getXAnchor()));
-                            selectedModel.setHeight(Math.abs(mouseY - canvas.getYAnchor()));
+                            selectedModel.beginUpdate(); // notify listeners once for the whole resize
+                            try {
+                                selectedModel.setX(Math.min(mouseX, canvas.getXAnchor()));
+                                selectedModel.setY(Math.min(mouseY, canvas.getYAnchor()));
+                                selectedModel.setWidth(Math.abs(mouseX - canvas.getXAnchor()));
+                                selectedModel.setHeight(Math.abs(mouseY - canvas.getYAnchor()));
+                            }
+                            finally {
+                                selectedModel.endUpdate();
+                            }
                         }
-                        canvas.repaint();
 
                         // update clients
                         if(networkingStatus == SERVER_MODE) {
                             String instruction = "change";
                             DShapeModel model = selected.getModel();
-                            messageClients(instruction, model);
+                            messageClients(instruction, model, DShapeModel.CHANGED_BOUNDS);
                         }
                     }
 
@@ -240,7 +272,7 @@ public class Whiteboard extends JFrame {
         final JButton addRectButton = new JButton("Rect");
         addRectButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     // add a new DRect to the GUI
                     addShapeModel(new DRectModel());
 
@@ -256,7 +288,7 @@ public class Whiteboard extends JFrame {
         final JButton addOvalButton = new JButton("Oval");
         addOvalButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     // add a new DOval to the GUI
                     addShapeModel(new DOvalModel());
 
@@ -272,7 +304,7 @@ public class Whiteboard extends JFrame {
         final JButton addLineButton = new JButton("Line");
         addLineButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     // add a new DLine to the GUI
                     addShapeModel(new DLineModel());
 
@@ -288,7 +320,7 @@ public class Whiteboard extends JFrame {
         final JButton addTextButton = new JButton("Text");
         addTextButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     // add a new DText to the GUI
                     DTextModel m = new DTextModel();
                     addShapeModel(m);
@@ -303,12 +335,24 @@ public class Whiteboard extends JFrame {
                 }
             }
         });
+        final JButton addImageButton = new JButton("Image");
+        addImageButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
+                    String fileName = JOptionPane.showInputDialog("Picture File Name", null);
+                    if(fileName != null) {
+                        addImage(new File(fileName));
+                    }
+                }
+            }
+        });
 
         firstRow.add(addShapeLabel);
         firstRow.add(addRectButton);
         firstRow.add(addOvalButton);
         firstRow.add(addLineButton);
         firstRow.add(addTextButton);
+        firstRow.add(addImageButton);
 
         toolPanel.add(firstRow);
 
@@ -316,19 +360,18 @@ public class Whiteboard extends JFrame {
         final JButton setColorButton = new JButton("Set Color");
         setColorButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     if(canvas.getSelectedShape() != null) { // only show dialog if something is selected
                         Color oldColor = canvas.getSelectedShape().getModel().getColor();
                         Color selectedColor = JColorChooser.showDialog(null, "Choose Selected Shape Color", oldColor); // open a dialog to get a color selection from the user
                         if(selectedColor != null) {
                             canvas.getSelectedShape().getModel().setColor(selectedColor);
-                            canvas.repaint();
 
                             // update clients
                             if(networkingStatus == SERVER_MODE) {
                                 String instruction = "change";
                                 DShapeModel model = canvas.getSelectedShape().getModel();
-                                messageClients(instruction, model);
+                                messageClients(instruction, model, DShapeModel.CHANGED_COLOR);
                             }
                         }
                     }
@@ -346,7 +389,7 @@ public class Whiteboard extends JFrame {
         drawTextField.getDocument().addDocumentListener(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) { // user adds a character
-                if(networkingStatus != CLIENT_MODE) { // text field only works as a non-client
+                if(canEdit()) { // text field only works as a non-client, once any file has loaded
                     // if current selection is text, then we need to update text
                     DShape selectedShape = canvas.getSelectedShape();
                     if(selectedShape instanceof DText) {
@@ -356,16 +399,15 @@ public class Whiteboard extends JFrame {
                         // update clients
                         if(networkingStatus == SERVER_MODE) {
                             String instruction = "change";
-                            messageClients(instruction, model);
+                            messageClients(instruction, model, DShapeModel.CHANGED_TEXT);
                         }
                     }
-                    canvas.repaint();
                 }
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) { // user deletes a character
-                if(networkingStatus != CLIENT_MODE) { // text field only works as a non-client
+                if(canEdit()) { // text field only works as a non-client, once any file has loaded
                     // if current selection is text, then we need to update text
                     DShape selectedShape = canvas.getSelectedShape();
                     if(selectedShape instanceof DText) {
@@ -375,10 +417,9 @@ public class Whiteboard extends JFrame {
                         // update clients
                         if(networkingStatus == SERVER_MODE) {
                             String instruction = "change";
-                            messageClients(instruction, model);
+                            messageClients(instruction, model, DShapeModel.CHANGED_TEXT);
                         }
                     }
-                    canvas.repaint();
                 }
             }
 
@@ -389,7 +430,7 @@ public class Whiteboard extends JFrame {
         drawTextField.addFocusListener(new FocusListener() {
             @Override
             public void focusGained(FocusEvent e) { // mouse clicked on the text field
-                if(networkingStatus != CLIENT_MODE) { // text field only works as a non-client
+                if(canEdit()) { // text field only works as a non-client, once any file has loaded
                     // if current selection is text, then we need to update text field to match text drawing
                     DShape selectedShape = canvas.getSelectedShape();
                     if(selectedShape instanceof DText) {
@@ -416,7 +457,7 @@ public class Whiteboard extends JFrame {
         fontComboBox.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // combo box only works as a non-client
+                if(canEdit()) { // combo box only works as a non-client, once any file has loaded
                     // if current selection is text, then we need to update text field font
                     DShape selectedShape = canvas.getSelectedShape();
                     if(selectedShape instanceof DText) {
@@ -426,10 +467,9 @@ public class Whiteboard extends JFrame {
                         // update clients
                         if(networkingStatus == SERVER_MODE) {
                             String instruction = "change";
-                            messageClients(instruction, model);
+                            messageClients(instruction, model, DShapeModel.CHANGED_FONT);
                         }
                     }
-                    canvas.repaint();
                 }
             }
         });
@@ -449,7 +489,7 @@ public class Whiteboard extends JFrame {
         final JButton moveToFrontButton = new JButton("Move to Front");
         moveToFrontButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     DShape selectedShape = canvas.getSelectedShape();
                     if(selectedShape != null) {
 
@@ -468,7 +508,7 @@ public class Whiteboard extends JFrame {
         final JButton moveToBackButton = new JButton("Move to Back");
         moveToBackButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     DShape selectedShape = canvas.getSelectedShape();
                     if(selectedShape != null) {
 
@@ -487,7 +527,7 @@ public class Whiteboard extends JFrame {
         final JButton removeShapeButton = new JButton("Remove Shape");
         removeShapeButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                if(networkingStatus != CLIENT_MODE) { // button only works as a non-client
+                if(canEdit()) { // button only works as a non-client, once any file has loaded
                     DShape removeShape = canvas.getSelectedShape();
                     if(removeShape != null) {
 
@@ -534,15 +574,7 @@ public class Whiteboard extends JFrame {
                     String fileName = JOptionPane.showInputDialog("File Name", null);
                     if(fileName != null) {
                         File file = new File(fileName);
-                        openFile(file);
-
-                        // update clients
-                        if(networkingStatus == SERVER_MODE) {
-                            // set all the clients to the loaded whiteboard
-                            for(ObjectOutputStream output : outputs) {
-                                clientSetup(output);
-                            }
-                        }
+                        openFile(file); // clients are updated once the file has finished loading
                     }
                 }
             }
@@ -604,20 +636,102 @@ public class Whiteboard extends JFrame {
 
         toolPanel.add(sixthRow);
 
+        // Set up seventh row of tool panel
+        JPanel seventhRow = new JPanel();
+        seventhRow.setLayout(new GridLayout(1, 0));
+        final JButton recordButton = new JButton("Record Session");
+        recordButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // recording works in every mode (a client records the session it is watching)
+                if(recorder != null) {
+                    stopRecording();
+                    recordButton.setText("Record Session");
+                }
+                else {
+                    String fileName = JOptionPane.showInputDialog("Recording File Name", null);
+                    if(fileName != null && startRecording(new File(fileName))) {
+                        recordButton.setText("Stop Recording");
+                    }
+                }
+            }
+        });
+        JButton replayButton = new JButton("Replay Session");
+        replayButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String fileName = JOptionPane.showInputDialog("Recording File Name", null);
+                if(fileName != null) {
+                    replaySession(new File(fileName));
+                }
+            }
+        });
+
+        seventhRow.add(recordButton);
+        seventhRow.add(replayButton);
+
+        toolPanel.add(seventhRow);
+
         //Set up table of tool panel
-        shapeTableModel = new ShapeTableModel();
-        shapeTable = new JTable(shapeTableModel);
+        shapeTableModel = new ShapeTableModel(canvas.getShapeList()); // table rows share the canvas z-order
+        shapeTable = new JTable(shapeTableModel) {
+            @Override
+            public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
+                // the cell has the focus like in JTable.prepareRenderer: it is the lead cell of the focused table
+                boolean hasFocus = isFocusOwner() && getSelectionModel().getLeadSelectionIndex() == row &&
+                        getColumnModel().getSelectionModel().getLeadSelectionIndex() == column;
+
+                // cells are read straight from the int columns by the renderer, so no value is boxed here
+                return renderer.getTableCellRendererComponent(this, null, isCellSelected(row, column), hasFocus, row, column);
+            }
+        };
+        shapeTable.setDefaultRenderer(Integer.class, new ShapeTableModel.CellRenderer());
+        shapeRowSorter = new ShapeRowSorter(shapeTableModel);
+        shapeTable.setRowSorter(shapeRowSorter); // clicking a column header sorts by it
         JScrollPane tableScrollPane = new JScrollPane(shapeTable);
         shapeTable.setFillsViewportHeight(true);
         tableScrollPane.setPreferredSize(new Dimension(400, 200));
         shapeTable.setEnabled(false); // do not let users manually modify table contents
         shapeTable.getTableHeader().setReorderingAllowed(false); // do not let users move columns around
 
+        // filter row under the table ("width > 100, x <= 500", optionally only the shapes in view)
+        final JTextField filterField = new JTextField();
+        filterField.setToolTipText("Filter rows, such as: width > 100, x <= 500 (press Enter)");
+        final Color filterForeground = filterField.getForeground();
+        filterField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    shapeRowSorter.setFilterExpression(filterField.getText());
+                    filterField.setForeground(filterForeground);
+                }
+                catch(IllegalArgumentException ex) {
+                    filterField.setForeground(Color.RED); // malformed: keep the last filter
+                }
+            }
+        });
+        final JCheckBox inViewBox = new JCheckBox("In view");
+        inViewBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                shapeRowSorter.setRegion(inViewBox.isSelected() ? canvas.getVisibleRect() : null);
+            }
+        });
+        JPanel filterRow = new JPanel();
+        filterRow.setLayout(new BorderLayout());
+        filterRow.add(new JLabel("Filter "), BorderLayout.WEST);
+        filterRow.add(filterField, BorderLayout.CENTER);
+        filterRow.add(inViewBox, BorderLayout.EAST);
+        JPanel tablePanel = new JPanel();
+        tablePanel.setLayout(new BorderLayout());
+        tablePanel.add(tableScrollPane, BorderLayout.CENTER);
+        tablePanel.add(filterRow, BorderLayout.SOUTH);
+
         JPanel outerToolPanel = new JPanel();
         outerToolPanel.setLayout(new GridLayout(0, 1));
 
         outerToolPanel.add(toolPanel);
-        outerToolPanel.add(tableScrollPane);
+        outerToolPanel.add(tablePanel);
 
         //Add completed tool panel to WEST of Whiteboard
         add(outerToolPanel, BorderLayout.WEST);
@@ -629,9 +743,62 @@ public class Whiteboard extends JFrame {
         setMinimumSize(new Dimension(800, 400));
         pack();
         setLocationRelativeTo(null);
+
+        startAutosave(); // (before the window shows, so the board is restored before anything can be edited)
         setVisible(true);
     }
 
+    /**
+     * Adds a picture file to the whiteboard as a new image shape, at
+     * the size of the picture (shrunk to fit MAX_IMAGE_SIZE). The bytes
+     * of the picture are stored once, however often it is added
+     * @param file the picture file (any format ImageIO can read)
+     */
+    private void addImage(File file) {
+        try {
+            String hash = ImageStore.put(Files.readAllBytes(file.toPath()));
+            Dimension size = BitmapCache.getShared().getSourceSize(hash);
+            if(size == null) {
+                throw new IOException("Unsupported picture format");
+            }
+            double scale = Math.min(1, (double)MAX_IMAGE_SIZE / Math.max(size.width, size.height));
+
+            // add a new DImage to the GUI
+            DImageModel model = new DImageModel();
+            model.setImageHash(hash);
+            addShapeModel(model);
+            model.beginUpdate();
+            try {
+                model.setWidth(Math.max((int)Math.round(size.width * scale), 1));
+                model.setHeight(Math.max((int)Math.round(size.height * scale), 1));
+            }
+            finally {
+                model.endUpdate();
+            }
+
+            // update clients
+            if(networkingStatus == SERVER_MODE) {
+                messageClients("add", model);
+            }
+        }
+        catch(IOException ex) {
+            System.err.println("Error reading picture \"" + file + "\". Add operation aborted");
+            // ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Checks whether the user may edit the board: clients only
+     * mirror the server's board, and while a file is still loading
+     * a new shape would take an id that a shape yet to be loaded uses
+     * (and any change to the board would shift the positions the
+     * tiles of a tiled board are inserted at)
+     * @return true if the board can be edited right now
+     */
+    private boolean canEdit() {
+        return networkingStatus != CLIENT_MODE && boardLoader == null;
+    }
+
     /**
      * Adds a new shape model to the canvas / table
      * in the whiteboard
@@ -643,17 +810,29 @@ public class Whiteboard extends JFrame {
             // only use default values / id if we are the server / operating locally
             // the clients' calls to add should actually have corrected models already
             // give the model the default parameters
-            model.setX(10);
-            model.setY(10);
-            model.setWidth(20);
-            model.setHeight(20);
-            model.setId(idCounter);
+            model.beginUpdate();
+            try {
+                model.setX(10);
+                model.setY(10);
+                model.setWidth(20);
+                model.setHeight(20);
+                model.setId(idCounter);
+            }
+            finally {
+                model.endUpdate();
+            }
             idCounter++;
         }
 
         // add the model to the canvas and table
         canvas.addShape(model);
         shapeTableModel.addShape(canvas.getSelectedShape()); // this works because canvas automatically selects newly created shapes
+        if(journal != null) {
+            journal.shapeAdded(model);
+        }
+        if(recorder != null) {
+            recorder.shapeAdded(model);
+        }
 
         if(canvas.getSelectedShape() instanceof DText) { // set JTextField / JComboBox to be selectable since we made a DText object
             drawTextField.setEnabled(true);
@@ -672,21 +851,23 @@ public class Whiteboard extends JFrame {
      * @param removeShapeModel the shape to remove from the whiteboard
      */
     private void removeShapeModel(DShapeModel removeShapeModel) {
-        List<DShape> canvasShapes = canvas.getShapeList();
-        for(int i = 0; i < canvasShapes.size(); i++) {
-            if(canvasShapes.get(i).getModel().getId() == removeShapeModel.getId()) { // remove match found
-                DShape removeShape = canvasShapes.remove(i);
-                removeShape.getModel().removeModelListener(removeShape);
-                shapeTableModel.removeShape(removeShape);
-                canvas.resetSelectedShape();
-                canvas.repaint();
-
-                // since we deleted, the drawTextField / fontComboBox should be disabled
-                drawTextField.setText("Edit drawn text here!");
-                drawTextField.setEnabled(false);
-                fontComboBox.setEnabled(false);
-                break;
+        DShape removeShape = canvas.getShapeById(removeShapeModel.getId());
+        if(removeShape != null) { // remove match found
+            int oldRow = canvas.removeShape(removeShape);
+            shapeTableModel.shapeRemoved(removeShape, oldRow);
+            if(journal != null) {
+                journal.shapeRemoved(removeShape.getModel());
+            }
+            if(recorder != null) {
+                recorder.shapeRemoved(removeShape.getModel());
             }
+            canvas.resetSelectedShape();
+            ImageStore.dropUnused(); // (its picture, unless another shape shows it)
+
+            // since we deleted, the drawTextField / fontComboBox should be disabled
+            drawTextField.setText("Edit drawn text here!");
+            drawTextField.setEnabled(false);
+            fontComboBox.setEnabled(false);
         }
     }
 
@@ -695,14 +876,15 @@ public class Whiteboard extends JFrame {
      * @param model the model of the shape to move to the front
      */
     private void moveShapeModelToFront(DShapeModel model) {
-        List<DShape> canvasShapes = canvas.getShapeList();
-        for(int i = 0; i < canvasShapes.size(); i++) {
-            if(canvasShapes.get(i).getModel().getId() == model.getId()) { // found matching shape
-                DShape selectedShape = canvasShapes.remove(i);
-                canvasShapes.add(selectedShape);
-                shapeTableModel.moveShapeToFront(selectedShape);
-                canvas.repaint();
-                break;
+        DShape selectedShape = canvas.getShapeById(model.getId());
+        if(selectedShape != null) { // found matching shape
+            int oldRow = canvas.moveShapeToFront(selectedShape);
+            shapeTableModel.shapeMoved(oldRow, canvas.getShapeList().size() - 1);
+            if(journal != null) {
+                journal.shapeMovedToFront(selectedShape.getModel());
+            }
+            if(recorder != null) {
+                recorder.shapeMovedToFront(selectedShape.getModel());
             }
         }
     }
@@ -712,14 +894,15 @@ public class Whiteboard extends JFrame {
      * @param model the model of the shape to move to the back
      */
     private void moveShapeModelToBack(DShapeModel model) {
-        List<DShape> canvasShapes = canvas.getShapeList();
-        for(int i = 0; i < canvasShapes.size(); i++) {
-            if(canvasShapes.get(i).getModel().getId() == model.getId()) { // found matching model
-                DShape selectedShape = canvasShapes.remove(i);
-                canvasShapes.add(0, selectedShape);
-                shapeTableModel.moveShapeToBack(selectedShape);
-                canvas.repaint();
-                break;
+        DShape selectedShape = canvas.getShapeById(model.getId());
+        if(selectedShape != null) { // found matching model
+            int oldRow = canvas.moveShapeToBack(selectedShape);
+            shapeTableModel.shapeMoved(oldRow, 0);
+            if(journal != null) {
+                journal.shapeMovedToBack(selectedShape.getModel());
+            }
+            if(recorder != null) {
+                recorder.shapeMovedToBack(selectedShape.getModel());
             }
         }
     }
@@ -730,14 +913,10 @@ public class Whiteboard extends JFrame {
      * @param updatedModel the new version of the model to use
      */
     private void mimicModel(DShapeModel updatedModel) {
-        List<DShape> canvasShapes = canvas.getShapeList();
-        for(int i = 0; i < canvasShapes.size(); i++) {
-            if(canvasShapes.get(i).getModel().getId() == updatedModel.getId()) { // found matching model
-                canvasShapes.get(i).getModel().mimic(updatedModel);
-                break;
-            }
+        DShape matchShape = canvas.getShapeById(updatedModel.getId());
+        if(matchShape != null) { // found matching model
+            matchShape.getModel().mimic(updatedModel); // (the shape repaints the canvas where it changed)
         }
-        canvas.repaint();
     }
 
     /**
@@ -747,40 +926,74 @@ public class Whiteboard extends JFrame {
     private void clearBoard() {
         canvas.clearCanvas(); // clear the canvas of everything
         shapeTableModel.clearData(); // clear the shape table model of everything
+        if(journal != null) {
+            journal.boardCleared();
+        }
+        if(recorder != null) {
+            recorder.boardCleared();
+        }
     }
 
     /**
      * Opens up the file, setting the whiteboard
-     * to be the contents of the loaded file
+     * to be the contents of the loaded file. Binary boards are
+     * read at once; XML boards are streamed in on a background
+     * thread, so the first shapes show up while the rest still load
      * @param file the file to load from
      */
     private void openFile(File file) {
+        openEvent = new WhiteboardEvents.BoardOpenEvent();
+        openEvent.begin();
+        openEvent.path = file.getPath();
         try {
-            // check to make sure the .xml extension gets added to the file
+            // check to make sure the .xml extension gets added to the file (unless it is a binary / tiled board)
             String fileName = file.getName().toLowerCase();
-            if(fileName.lastIndexOf(".xml") != fileName.length() - 4) {
+            if(!fileName.endsWith(BinaryBoardFile.EXTENSION) && !fileName.endsWith(TiledBoardFile.EXTENSION) &&
+                    fileName.lastIndexOf(".xml") != fileName.length() - 4) {
                 file = new File(file.getName() + ".xml");
             }
 
-            // create the XML decoder to read the file
-            XMLDecoder fileDecoder = new XMLDecoder(new BufferedInputStream(new FileInputStream(file)));
+            stopLoading(); // stop loading any file that was still being opened
 
-            // read in the DModels saved in the file
-            DShapeModel[] shapeModels = (DShapeModel[])(fileDecoder.readObject());
+            // the format is detected from the first bytes of the file
+            if(BinaryBoardFile.isBinaryBoard(file)) {
+                // read in the DModels saved in the file
+                DShapeModel[] shapeModels = BinaryBoardFile.read(file);
 
-            // now we can clear the canvas / table, as the file open was successful
-            clearBoard();
-
-            // load the shapeModels array back into the canvas and table model
-            // also reset the id counter
-            idCounter = 0;
-            for(DShapeModel model : shapeModels) {
-                canvas.addShape(model);
-                shapeTableModel.addShape(canvas.getSelectedShape());
-                idCounter++;
+                // now we can clear the canvas / table, as the file open was successful
+                clearBoard();
+                idCounter = 0;
+                addLoadedModels(Arrays.asList(shapeModels));
+                boardOpened();
             }
+            else if(TiledBoardFile.isTiledBoard(file)) {
+                // read the tile index (this checks the file really is a tiled board)
+                TiledBoardReader reader = new TiledBoardReader(file);
+
+                // now we can clear the canvas / table, as the file open was successful
+                clearBoard();
+                idCounter = 0;
+                boardLoader = new TileLoader(file, reader, canvas.getVisibleRect());
+                boardLoader.execute();
+            }
+            else {
+                // create the streaming XML reader (this checks the file really is a whiteboard XML file)
+                InputStream in = new BufferedInputStream(new FileInputStream(file));
+                XmlBoardReader reader;
+                try {
+                    reader = new XmlBoardReader(in);
+                }
+                catch(IOException ex) {
+                    in.close();
+                    throw ex;
+                }
 
-            fileDecoder.close();
+                // now we can clear the canvas / table, as the file open was successful
+                clearBoard();
+                idCounter = 0;
+                boardLoader = new BoardLoader(file, reader, in);
+                boardLoader.execute();
+            }
         }
         catch(IOException ex) {
             System.err.println("Error opening file \"" + file + "\". Open operation aborted");
@@ -789,69 +1002,351 @@ public class Whiteboard extends JFrame {
     }
 
     /**
-     * Saves the current canvas contents to the file
-     * @param file the file to save the canvas contents to
+     * Stops loading the file being opened, if any, leaving
+     * the shapes loaded so far on the board
      */
-    private void saveFile(File file) {
+    private void stopLoading() {
+        if(boardLoader != null) {
+            boardLoader.cancel(false);
+            boardLoader = null;
+        }
+    }
+
+    /**
+     * Adds models read from a file to the canvas and table,
+     * keeping the id counter past the largest loaded id so
+     * new shapes never reuse an id
+     * @param shapeModels the loaded models (back to front)
+     */
+    private void addLoadedModels(List<DShapeModel> shapeModels) {
+        // add in bulk, so the canvas repaints and the table fires an event once per batch
+        shapeTableModel.addShapes(canvas.addShapes(shapeModels));
+        for(DShapeModel model : shapeModels) {
+            idCounter = Math.max(idCounter, model.getId() + 1);
+        }
+        if(journal != null) {
+            journal.shapesAdded(shapeModels);
+        }
+        if(recorder != null) {
+            recorder.shapesAdded(shapeModels);
+        }
+    }
+
+    /**
+     * Inserts models read from a tiled file into the canvas and
+     * table at their z-positions, keeping the id counter past the
+     * largest loaded id. Unlike addLoadedModels, nothing is journaled
+     * or recorded (the whole board is, once the file has finished loading)
+     * @param shapeModels the loaded models
+     * @param indexes the z-position of every model, each counted after the previous insertions
+     */
+    private void insertLoadedModels(List<DShapeModel> shapeModels, int[] indexes) {
+        shapeTableModel.addShapes(canvas.insertShapes(shapeModels, indexes));
+        for(DShapeModel model : shapeModels) {
+            idCounter = Math.max(idCounter, model.getId() + 1);
+        }
+    }
+
+    /**
+     * Replaces the board saved in the autosave journal (and
+     * the session recording) with the whole current board
+     */
+    private void journalBoard() {
+        if(journal != null) {
+            journal.boardCleared();
+            journal.shapesAdded(getBoardModels());
+        }
+        if(recorder != null) {
+            recorder.boardCleared();
+            recorder.shapesAdded(getBoardModels());
+        }
+    }
+
+    /**
+     * Returns the models of the shapes on the board
+     * @return the models of the shapes on the board, back to front
+     */
+    private List<DShapeModel> getBoardModels() {
+        List<DShapeModel> models = new ArrayList<DShapeModel>(canvas.getShapeList().size());
+        for(DShape shape : canvas.getShapeList()) {
+            models.add(shape.getModel());
+        }
+        return models;
+    }
+
+    /**
+     * Restores the board saved by the autosave journal and starts
+     * journaling every further change to the board. The journal is
+     * read right away (this is called before the window shows) and
+     * the board restored on the event dispatch thread. The journal is
+     * kept at the path in the "whiteboard.autosave" system property
+     * (~/.whiteboard/autosave by default; "off" turns autosave off).
+     * If another whiteboard holds the lock on that journal, the next
+     * free one of "[path]-2" up to "[path]-[AUTOSAVE_SLOTS]" is used,
+     * and autosave is turned off if every one of them is in use
+     */
+    private void startAutosave() {
+        String defaultPath = System.getProperty("user.home") + File.separator + ".whiteboard" + File.separator + "autosave";
+        String path = System.getProperty("whiteboard.autosave", defaultPath);
+        if(path.equalsIgnoreCase("off")) {
+            return;
+        }
+
+        File baseFile = new File(path);
+        final BoardJournal lockedJournal;
+        final DShapeModel[] recoveredModels;
         try {
-            // check to make sure the .xml extension gets added to the file
-            String fileName = file.getName().toLowerCase();
-            if(fileName.lastIndexOf(".xml") != fileName.length() - 4) {
-                file = new File(file.getName() + ".xml");
+            BoardJournal candidate = null;
+            for(int slot = 1; slot <= AUTOSAVE_SLOTS && candidate == null; slot++) {
+                baseFile = new File(slot == 1 ? path : path + "-" + slot);
+                candidate = new BoardJournal(baseFile);
+                if(!candidate.lock()) {
+                    candidate = null;
+                }
             }
+            if(candidate == null) {
+                System.err.println("Every autosave journal at \"" + path + "\" is in use by another whiteboard. Autosave disabled");
+                return;
+            }
+            lockedJournal = candidate;
 
-            // create the XML encoder to write the file
-            XMLEncoder fileEncoder = new XMLEncoder(new BufferedOutputStream(new FileOutputStream(file)));
+            // bring back the board as it was when the whiteboard last closed (or crashed)
+            recoveredModels = lockedJournal.recover();
+        }
+        catch(IOException ex) {
+            System.err.println("Error starting autosave journal \"" + baseFile + "\". Autosave disabled");
+            // ex.printStackTrace();
+            return;
+        }
 
-            // make an array of the current shapes on the canvas
-            DShape[] canvasShapes = canvas.getShapeList().toArray(new DShape[0]);
+        // restore on the event dispatch thread (queued before the window shows, so ahead of any user input)
+        final File journalFile = baseFile;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                addLoadedModels(Arrays.asList(recoveredModels));
+                try {
+                    lockedJournal.start();
+                }
+                catch(IOException ex) {
+                    System.err.println("Error starting autosave journal \"" + journalFile + "\". Autosave disabled");
+                    // ex.printStackTrace();
+                    lockedJournal.close();
+                    return;
+                }
+                journal = lockedJournal;
+
+                // the recovered shapes are already saved, only their changes are new; anything
+                // else already on the board is journaled in full, and new ids start past every shape
+                Set<DShapeModel> recovered = Collections.newSetFromMap(new IdentityHashMap<DShapeModel, Boolean>());
+                recovered.addAll(Arrays.asList(recoveredModels));
+                for(DShapeModel model : getBoardModels()) {
+                    if(recovered.contains(model)) {
+                        journal.trackModel(model);
+                    }
+                    else {
+                        journal.shapeAdded(model);
+                    }
+                    idCounter = Math.max(idCounter, model.getId() + 1);
+                }
 
-            // make an array of the models of the current shapes on the canvas
-            DShapeModel[] canvasModels = new DShapeModel[canvasShapes.length];
-            for (int i = 0; i < canvasShapes.length; i++) {
-                canvasModels[i] = canvasShapes[i].getModel();
+                // write out the last changes when the program exits
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        lockedJournal.close();
+                    }
+                });
             }
+        });
+    }
 
-            // write the shape model array to the file
-            fileEncoder.writeObject(canvasModels);
+    /**
+     * Stops the autosave journal (the journal keeps
+     * the board as it was up to this point)
+     */
+    private void stopAutosave() {
+        if(journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
 
-            fileEncoder.close();
+    /**
+     * Starts recording the session to the file (with the .wbr
+     * extension added if it is missing): the board as it is now,
+     * then every later change, whether made here or received from a server
+     * @param file the file to record to
+     * @return true if recording started
+     */
+    private boolean startRecording(File file) {
+        if(!file.getName().toLowerCase().endsWith(SessionRecorder.EXTENSION)) {
+            file = new File(file.getPath() + SessionRecorder.EXTENSION);
+        }
+        List<DShapeModel> models = getBoardModels();
+        try {
+            recorder = new SessionRecorder(file, models);
         }
         catch(IOException ex) {
-            System.err.println("Error saving file \"" + file + "\". Save operation aborted");
+            System.err.println("Error creating session recording \"" + file + "\". Recording aborted");
             // ex.printStackTrace();
+            return false;
+        }
+        recorder.start();
+        for(DShapeModel model : models) { // the shapes are in the first keyframe, only their changes are new
+            recorder.trackModel(model);
         }
+
+        // write out the last changes if the program exits while recording
+        final SessionRecorder exitingRecorder = recorder;
+        recorderShutdownHook = new Thread() {
+            @Override
+            public void run() {
+                exitingRecorder.close();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(recorderShutdownHook);
+        return true;
     }
 
     /**
-     * Exports the current canvas contents
-     * to a PNG file
-     * @param file the name of the PNG file
+     * Stops recording the session, finishing the recording file
      */
-    private void exportImage(File file) {
-        // get buffered image of current canvas appearance
-        BufferedImage image = canvas.getBufferedImage();
+    private void stopRecording() {
+        if(recorder != null) {
+            recorder.close();
+            for(DShapeModel model : getBoardModels()) {
+                recorder.untrackModel(model);
+            }
+            Runtime.getRuntime().removeShutdownHook(recorderShutdownHook);
+            recorder = null;
+            recorderShutdownHook = null;
+        }
+    }
 
-        // try to write the file out
+    /**
+     * Opens a window replaying a recorded session
+     * @param file the recording to replay (the .wbr extension is added if the file does not exist)
+     */
+    private void replaySession(File file) {
+        if(!file.exists() && !file.getName().toLowerCase().endsWith(SessionRecorder.EXTENSION)) {
+            file = new File(file.getPath() + SessionRecorder.EXTENSION);
+        }
         try {
-            // check to make sure the .png extension gets added to the file
-            String fileName = file.getName().toLowerCase();
-            if(fileName.lastIndexOf(".png") != fileName.length() - 4) {
-                file = new File(file.getName() + ".png");
-            }
-            ImageIO.write(image, "png", file); // note: this method call can throw a FileNotFoundException on its own (for bad file names)
+            new SessionPlayer(file);
         }
         catch(IOException ex) {
-            System.err.println("Error exporting image to \"" + file + "\" (IO exception). Export operation aborted");
+            System.err.println("Error opening session recording \"" + file + "\". Replay aborted");
             // ex.printStackTrace();
         }
     }
 
+    /**
+     * Finishes opening a file once every shape has been loaded
+     */
+    private void boardOpened() {
+        if(openEvent != null) {
+            openEvent.shapes = canvas.getShapeList().size();
+            openEvent.commit();
+            openEvent = null;
+        }
+        ImageStore.dropUnused(); // the pictures of the board that was replaced
+
+        // update clients
+        if(networkingStatus == SERVER_MODE && broadcaster != null) {
+            // set all the clients to the loaded whiteboard
+            broadcaster.resetClients(getBoardModels());
+        }
+    }
+
+    /**
+     * Saves the current canvas contents to the file (in the
+     * binary format if the file name ends in .wbd, otherwise as XML).
+     * The shapes are snapshotted right away and the file is written
+     * on a background thread, so editing goes on during long saves
+     * @param file the file to save the canvas contents to
+     */
+    private void saveFile(File file) {
+        // check to make sure the .xml extension gets added to the file (unless it is a binary / tiled board)
+        String fileName = file.getName().toLowerCase();
+        if(!fileName.endsWith(BinaryBoardFile.EXTENSION) && !fileName.endsWith(TiledBoardFile.EXTENSION) &&
+                fileName.lastIndexOf(".xml") != fileName.length() - 4) {
+            file = new File(file.getName() + ".xml");
+        }
+
+        BoardSaver saver = new BoardSaver(file, canvas.snapshot());
+        monitorProgress(saver, "Saving \"" + file.getName() + "\"");
+        saver.execute();
+    }
+
+    /**
+     * Exports the current canvas contents to a PNG file (or to
+     * an SVG file if the file name ends in .svg).
+     * The shapes are snapshotted right away and drawn / compressed
+     * on a background thread, so editing goes on during long exports
+     * @param file the name of the PNG / SVG file
+     */
+    private void exportImage(File file) {
+        // check to make sure the .png extension gets added to the file (unless it is an SVG file)
+        String fileName = file.getName().toLowerCase();
+        if(!fileName.endsWith(SvgBoardWriter.EXTENSION) && fileName.lastIndexOf(".png") != fileName.length() - 4) {
+            file = new File(file.getName() + ".png");
+        }
+
+        ImageExporter exporter = new ImageExporter(file, canvas.snapshot(), canvas.getWidth(), canvas.getHeight(), canvas.getBackground());
+        monitorProgress(exporter, "Exporting \"" + file.getName() + "\"");
+        exporter.execute();
+    }
+
+    /**
+     * Shows the progress of a background task in a progress monitor
+     * (which only pops up for long tasks); cancelling the monitor
+     * cancels the task
+     * @param task the task to show the progress of
+     * @param message the message describing the task
+     */
+    private void monitorProgress(final SwingWorker<?, ?> task, String message) {
+        final ProgressMonitor monitor = new ProgressMonitor(this, message, null, 0, 100);
+        final Timer timer = new Timer(PROGRESS_INTERVAL, null);
+        timer.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if(task.isDone()) {
+                    monitor.close();
+                    timer.stop();
+                }
+                else if(monitor.isCanceled()) {
+                    task.cancel(false); // the task stops at its next check and leaves any existing file alone
+                }
+                else {
+                    monitor.setProgress(task.getProgress());
+                }
+            }
+        });
+        timer.start();
+    }
+
+    /**
+     * Returns the temporary file a save / export is written to before
+     * it replaces the real file (so a cancelled or failed save never
+     * leaves a half-written file behind)
+     * @param file the file being saved
+     * @return the temporary file to write first
+     */
+    private static File partFile(File file) {
+        return new File(file.getPath() + ".part");
+    }
+
     /**
      * Starts the server mode of the whiteboard
      */
     private void startServerMode() {
         networkingStatus = SERVER_MODE;
+        if(broadcaster == null) {
+            broadcaster = new ClientBroadcaster(monitor);
+            broadcaster.start();
+            broadcaster.resetClients(getBoardModels()); // from now on every change is broadcast, keeping its copy up to date
+        }
 
         // Get the desired port number from the user
         String portNumber = JOptionPane.showInputDialog("Run Server on Port", "9264");
@@ -866,6 +1361,8 @@ public class Whiteboard extends JFrame {
      */
     private void startClientMode() {
         networkingStatus = CLIENT_MODE;
+        stopAutosave(); // the board now mirrors the server's, which is not ours to autosave
+        stopLoading(); // (loaded shapes would mix with the server's, and tiles land at the wrong positions)
 
         // Get the desired host:port number from the user
         String ipAddress = JOptionPane.showInputDialog("Connect to Host:Port", "127.0.0.1:9264");
@@ -879,104 +1376,613 @@ public class Whiteboard extends JFrame {
     }
 
     /**
-     * Messages all the current clients with a message and new model
+     * Queues a message and new model for all the current clients
+     * (the broadcaster thread encodes and sends it, so this never blocks)
+     * @param instruction the instruction sent by the server
+     * @param updatedModel the shape model sent by the server
+     */
+    private void messageClients(String instruction, DShapeModel updatedModel) {
+        messageClients(instruction, updatedModel, DShapeModel.CHANGED_ALL);
+    }
+
+    /**
+     * Queues a message and new model for all the current clients,
+     * naming the attributes a change touched (so the broadcaster
+     * can skip bookkeeping for the attributes that stayed the same)
+     * @param instruction the instruction sent by the server
+     * @param updatedModel the shape model sent by the server
+     * @param changeMask the attributes that changed (DShapeModel CHANGED_ constants)
+     */
+    private void messageClients(String instruction, DShapeModel updatedModel, int changeMask) {
+        if(broadcaster != null) {
+            broadcaster.broadcast(instruction, updatedModel, changeMask);
+        }
+    }
+
+    /**
+     * Applies an operation received from the server to this
+     * client's board (runs on the event dispatch thread)
      * @param instruction the instruction sent by the server
      * @param updatedModel the shape model sent by the server
      */
-    private synchronized void messageClients(String instruction, DShapeModel updatedModel) {
-        // convert model into xml
-        OutputStream memStream = new ByteArrayOutputStream();
-        XMLEncoder encoder = new XMLEncoder(memStream);
-        encoder.writeObject(updatedModel);
-        encoder.close();
-        String modelMessage = memStream.toString();
-
-        // send xml message to all clients
-        for (int i = outputs.size() - 1; i >= 0; i--) {
-            ObjectOutputStream output = outputs.get(i);
+    private void applyServerMessage(String instruction, DShapeModel updatedModel) {
+        canvas.noteRemoteUpdate();
+        if(instruction.equals("add")) { // added a new shape
+            addShapeModel(updatedModel);
+        }
+        else if(instruction.equals("remove")) { // remove a shape
+            removeShapeModel(updatedModel);
+        }
+        else if(instruction.equals("front")) { // move model to front
+            moveShapeModelToFront(updatedModel);
+        }
+        else if(instruction.equals("back")) { // move model to back
+            moveShapeModelToBack(updatedModel);
+        }
+        else if(instruction.equals("change")) { // catch-all for any other change
+            mimicModel(updatedModel);
+        }
+        else if(instruction.equals("clear")) { // empty the whiteboard
+            clearBoard();
+            ImageStore.dropUnused();
+        }
+    }
+
+    /**
+     * Queues the area of the board in view to be reported to the
+     * server, which then holds back changes to shapes outside it
+     */
+    private void reportViewport() {
+        viewportReports.add(canvas.getVisibleRect());
+    }
+
+    /**
+     * Queues a new client, which gets sent the broadcaster's copy of
+     * the board as it is after every operation already queued, and
+     * then every later operation (runs on the event dispatch thread,
+     * so no operation can be queued in between)
+     * @param output the output stream of the new client
+     */
+    private void addOutput(ObjectOutputStream output) {
+        if(networkingStatus == SERVER_MODE && broadcaster != null) {
+            broadcaster.addClient(output);
+        }
+    }
+
+    /**
+     * Main method of Whiteboard program, which
+     * simply creates a new Whiteboard
+     * @param args (currently unused)
+     */
+    public static void main(String[] args) {
+        new Whiteboard();
+    }
+
+    /**
+     * Streams the tiles of a tiled board in on a background
+     * thread, nearest to the viewport first, so the shapes in view
+     * show up before the rest of the board has been read. Every
+     * shape is inserted at its own z-position, whatever order the
+     * tiles arrive in
+     */
+    private class TileLoader extends SwingWorker<Void, LoadedTile> {
+        private File file; // the file being loaded
+        private TiledBoardReader reader; // reader over the tiles of the file
+        private Rectangle viewport; // the area of the board in view when loading started
+        private int[] loadedOrders; // Fenwick tree counting the loaded shapes by board z-position (event dispatch thread only, valid as the board holds nothing else while loading)
+
+        /**
+         * Creates a new loader for the already opened file
+         * @param file the file being loaded
+         * @param reader the reader over the tiles of the file (closed when loading ends)
+         * @param viewport the area of the board currently in view
+         */
+        TileLoader(File file, TiledBoardReader reader, Rectangle viewport) {
+            this.file = file;
+            this.reader = reader;
+            this.viewport = viewport;
+            loadedOrders = new int[reader.getShapeCount() + 1];
+        }
+
+        /**
+         * Reads the tiles one at a time, nearest to the viewport
+         * first, publishing each to the event dispatch thread
+         */
+        @Override
+        protected Void doInBackground() throws Exception {
             try {
-                output.writeObject(instruction); // send instruction to currently iterated client
-                output.writeObject(modelMessage); // send model to currently iterated client
-                output.flush();
+                for(int tile : reader.getTilesByDistance(viewport)) {
+                    if(isCancelled()) {
+                        break;
+                    }
+                    int[] orders = new int[reader.getTileShapeCount(tile)];
+                    DShapeModel[] models = reader.readTile(tile, orders);
+                    publish(new LoadedTile(models, orders));
+                }
             }
-            catch (Exception ex) {
-                ex.printStackTrace();
-                outputs.remove(i); // remove sockets from list that do not work
+            finally {
+                reader.close();
+            }
+            return null;
+        }
+
+        /**
+         * Inserts a chunk of loaded tiles into the board (runs on the event dispatch thread)
+         * @param chunk the tiles loaded since the last chunk
+         */
+        @Override
+        protected void process(List<LoadedTile> chunk) {
+            if(isCancelled()) {
+                return;
+            }
+
+            // gather the drawable shapes of the chunk, back to front
+            int count = 0;
+            for(LoadedTile tile : chunk) {
+                count += tile.models.length;
+            }
+            long[] keys = new long[count]; // board z-position in the high bits, position in the chunk in the low bits
+            DShapeModel[] models = new DShapeModel[count];
+            int size = 0;
+            for(LoadedTile tile : chunk) {
+                for(int i = 0; i < tile.models.length; i++) {
+                    if(ShapeStore.typeOf(tile.models[i]) != ShapeStore.TYPE_SHAPE && tile.orders[i] >= 0 && tile.orders[i] < loadedOrders.length - 1) {
+                        keys[size] = ((long)tile.orders[i] << 32) | size;
+                        models[size] = tile.models[i];
+                        size++;
+                    }
+                }
+            }
+            Arrays.sort(keys, 0, size);
+
+            // each shape goes in after every already loaded shape that is behind it
+            List<DShapeModel> sorted = new ArrayList<DShapeModel>(size);
+            int[] indexes = new int[size];
+            for(int i = 0; i < size; i++) {
+                int order = (int)(keys[i] >>> 32);
+                sorted.add(models[(int)keys[i]]);
+                indexes[i] = countLoadedBefore(order);
+                for(int node = order + 1; node < loadedOrders.length; node += node & -node) {
+                    loadedOrders[node]++;
+                }
+            }
+            insertLoadedModels(sorted, indexes);
+        }
+
+        /**
+         * Counts the loaded shapes behind a board z-position
+         * @param order the board z-position
+         * @return the number of loaded shapes with a smaller z-position
+         */
+        private int countLoadedBefore(int order) {
+            int count = 0;
+            for(int node = order; node > 0; node -= node & -node) {
+                count += loadedOrders[node];
+            }
+            return count;
+        }
+
+        /**
+         * Reports errors, journals the loaded board and updates
+         * clients once loading ends (runs on the event dispatch thread)
+         */
+        @Override
+        protected void done() {
+            if(isCancelled()) {
+                return;
+            }
+            if(boardLoader == this) {
+                boardLoader = null;
+            }
+            try {
+                get();
+                journalBoard();
+                boardOpened();
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException ex) {
+                System.err.println("Error opening file \"" + file + "\". Open operation aborted");
+                // ex.printStackTrace();
+                journalBoard(); // keep the autosave in step with the part of the board that did load
             }
         }
     }
 
     /**
-     * Adds the parameter object stream to the list of streams
-     * that the server has to send messages to
-     * Synchronized to avoid conflicts
-     * @param output the new output
+     * The shapes of one tile of a tiled board, as handed
+     * from a TileLoader to the event dispatch thread
      */
-    private synchronized void addOutput(ObjectOutputStream output) {
-        outputs.add(output);
+    private static class LoadedTile {
+        private DShapeModel[] models; // the shapes of the tile, in z-order
+        private int[] orders; // the board z-position of every shape
 
-        // update  newly added client to match server here
-        clientSetup(output);
+        /**
+         * Creates a new loaded tile
+         * @param models the shapes of the tile
+         * @param orders the board z-position of every shape
+         */
+        LoadedTile(DShapeModel[] models, int[] orders) {
+            this.models = models;
+            this.orders = orders;
+        }
     }
 
     /**
-     * Performs a setup for clients of
-     * the server whiteboard by making the clients match the server
-     * @param output the output stream of the client to setup
+     * Writes a snapshot of the board to a file on a background
+     * thread, reporting progress (0-50 rebuilding the models, 50-100
+     * writing them) and stopping early when cancelled
      */
-    private synchronized void clientSetup(ObjectOutputStream output) {
-        if(networkingStatus == SERVER_MODE) {
+    private class BoardSaver extends SwingWorker<Void, Void> {
+        private File file; // the file to save to
+        private ShapeStore snapshot; // the shapes to save, as they were when the save started
 
-            // first tell client to reset their whiteboard
-            String instruction = "clear";
-            DShapeModel model = new DShapeModel();
-            OutputStream memStream = new ByteArrayOutputStream();
-            XMLEncoder encoder = new XMLEncoder(memStream);
-            encoder.writeObject(model);
-            encoder.close();
-            String modelMessage = memStream.toString();
+        /**
+         * Creates a new saver of the snapshot, holding its pictures
+         * (so removing shapes meanwhile cannot drop pictures still to be written)
+         * @param file the file to save to
+         * @param snapshot the shapes to save
+         */
+        BoardSaver(File file, ShapeStore snapshot) {
+            this.file = file;
+            this.snapshot = snapshot;
+            snapshot.holdImages();
+        }
 
+        /**
+         * Saves the snapshot, then releases its pictures
+         */
+        @Override
+        protected Void doInBackground() throws Exception {
+            try {
+                save();
+            }
+            finally {
+                snapshot.releaseImages();
+            }
+            return null;
+        }
 
+        /**
+         * Rebuilds the models from the snapshot and writes them
+         * to a temporary file, which then replaces the real file
+         * @throws Exception if the file cannot be written
+         */
+        private void save() throws Exception {
+            WhiteboardEvents.BoardSaveEvent saveEvent = new WhiteboardEvents.BoardSaveEvent();
+            saveEvent.begin();
+
+            // make an array of the models of the snapshotted shapes
+            int count = snapshot.size();
+            DShapeModel[] models = new DShapeModel[count];
+            for(int i = 0; i < count; i++) {
+                if(i % EXPORT_STEP == 0) {
+                    if(isCancelled()) {
+                        return;
+                    }
+                    setProgress(50 * i / count);
+                }
+                models[i] = snapshot.createModel(i);
+            }
+            setProgress(50);
+
+            File temporary = partFile(file);
             try {
-                output.writeObject(instruction); // send instruction to currently iterated client
-                output.writeObject(modelMessage); // send model to currently iterated client
-                output.flush();
+                BoardFiles.write(temporary, file.getName(), models); // (in the format the real file name calls for)
+                if(!isCancelled()) {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    setProgress(100);
+
+                    saveEvent.end();
+                    if(saveEvent.shouldCommit()) {
+                        saveEvent.path = file.getPath();
+                        saveEvent.shapes = count;
+                        saveEvent.bytes = file.length();
+                        saveEvent.commit();
+                    }
+                }
             }
-            catch (Exception ex) {
-                ex.printStackTrace();
+            finally {
+                temporary.delete(); // no-op once the file was moved into place
             }
+        }
 
-            // now add all current shapes in the whiteboard server to the client
-            instruction = "add";
-            List<DShape> canvasShapes = canvas.getShapeList();
-            for(DShape shape : canvasShapes) {
+        /**
+         * Reports errors once saving ends (runs on the event dispatch thread)
+         */
+        @Override
+        protected void done() {
+            if(isCancelled()) {
+                return;
+            }
+            try {
+                get();
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException ex) {
+                System.err.println("Error saving file \"" + file + "\". Save operation aborted");
+                // ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Draws a snapshot of the board into an image and writes it
+     * as a PNG file on a background thread, reporting progress
+     * (0-50 drawing, 50-100 compressing) and stopping early when cancelled.
+     * SVG files are streamed out shape by shape instead
+     */
+    private class ImageExporter extends SwingWorker<Void, Void> {
+        private File file; // the PNG file to export to
+        private ShapeStore snapshot; // the shapes to draw, as they were when the export started
+        private int width, height; // size of the exported image
+        private Color background; // background color of the exported image
+
+        /**
+         * Creates a new exporter of the snapshot, holding its pictures
+         * (so removing shapes meanwhile cannot drop pictures still to be drawn)
+         * @param file the PNG file to export to
+         * @param snapshot the shapes to draw
+         * @param width the width of the image
+         * @param height the height of the image
+         * @param background the background color of the image
+         */
+        ImageExporter(File file, ShapeStore snapshot, int width, int height, Color background) {
+            this.file = file;
+            this.snapshot = snapshot;
+            this.width = Math.max(width, 1);
+            this.height = Math.max(height, 1);
+            this.background = background;
+            snapshot.holdImages();
+        }
+
+        /**
+         * Exports the snapshot, then releases its pictures
+         */
+        @Override
+        protected Void doInBackground() throws Exception {
+            try {
+                export();
+            }
+            finally {
+                snapshot.releaseImages();
+            }
+            return null;
+        }
+
+        /**
+         * Draws the snapshot and writes the image to a temporary
+         * file, which then replaces the real file
+         * @throws Exception if the image cannot be written
+         */
+        private void export() throws Exception {
+            if(file.getName().toLowerCase().endsWith(SvgBoardWriter.EXTENSION)) {
+                writeSvg();
+                return;
+            }
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D imageGraphics = image.createGraphics();
+            try {
+                imageGraphics.setColor(background);
+                imageGraphics.fillRect(0, 0, width, height);
+                imageGraphics.setClip(0, 0, width, height); // text drawing narrows the current clip, so there must be one
+                int count = snapshot.size();
+                for(int from = 0; from < count; from += EXPORT_STEP) {
+                    if(isCancelled()) {
+                        return;
+                    }
+                    int to = Math.min(count, from + EXPORT_STEP);
+                    snapshot.draw(imageGraphics, from, to);
+                    setProgress(50 * to / count);
+                }
+            }
+            finally {
+                imageGraphics.dispose();
+            }
+            setProgress(50);
+
+            File temporary = partFile(file);
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+            try {
+                ImageOutputStream out = ImageIO.createImageOutputStream(temporary);
+                if(out == null) {
+                    throw new IOException("Cannot write \"" + temporary + "\"");
+                }
                 try {
-                    output.writeObject(instruction); // send instruction to currently iterated client
-                    model = shape.getModel(); // get the model of each shape in the server's canvas
+                    writer.setOutput(out);
+                    writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+                        @Override
+                        public void imageProgress(ImageWriter source, float percentageDone) {
+                            if(isCancelled()) {
+                                source.abort();
+                            }
+                            else {
+                                setProgress(Math.min(50 + (int)(percentageDone / 2), 100));
+                            }
+                        }
+                        @Override
+                        public void imageStarted(ImageWriter source, int imageIndex) {
+
+                        }
+                        @Override
+                        public void imageComplete(ImageWriter source) {
+
+                        }
+                        @Override
+                        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+
+                        }
+                        @Override
+                        public void thumbnailProgress(ImageWriter source, float percentageDone) {
+
+                        }
+                        @Override
+                        public void thumbnailComplete(ImageWriter source) {
 
-                    memStream = new ByteArrayOutputStream();
-                    encoder = new XMLEncoder(memStream);
-                    encoder.writeObject(model);
-                    encoder.close();
-                    modelMessage = memStream.toString();
+                        }
+                        @Override
+                        public void writeAborted(ImageWriter source) {
 
-                    output.writeObject(modelMessage); // send model to currently iterated client
-                    output.flush();
+                        }
+                    });
+                    writer.write(image);
+                }
+                finally {
+                    out.close();
                 }
-                catch (Exception ex) {
-                    ex.printStackTrace();
+                if(!isCancelled()) {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    setProgress(100);
                 }
             }
+            finally {
+                writer.dispose();
+                temporary.delete(); // no-op once the file was moved into place
+            }
+        }
+
+        /**
+         * Streams the snapshot out as SVG elements to a temporary
+         * file, which then replaces the real file
+         * @throws IOException if the file cannot be written
+         */
+        private void writeSvg() throws IOException {
+            File temporary = partFile(file);
+            try {
+                SvgBoardWriter writer = new SvgBoardWriter(new FileOutputStream(temporary), width, height, background);
+                try {
+                    int count = snapshot.size();
+                    for(int from = 0; from < count && !isCancelled(); from += EXPORT_STEP) {
+                        int to = Math.min(count, from + EXPORT_STEP);
+                        writer.write(snapshot, from, to);
+                        setProgress(100 * to / count);
+                    }
+                }
+                finally {
+                    writer.close();
+                }
+                if(!isCancelled()) {
+                    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    setProgress(100);
+                }
+            }
+            finally {
+                temporary.delete(); // no-op once the file was moved into place
+            }
+        }
+
+        /**
+         * Reports errors once exporting ends (runs on the event dispatch thread)
+         */
+        @Override
+        protected void done() {
+            if(isCancelled()) {
+                return;
+            }
+            try {
+                get();
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException ex) {
+                System.err.println("Error exporting image to \"" + file + "\" (IO exception). Export operation aborted");
+                // ex.printStackTrace();
+            }
         }
     }
 
     /**
-     * Main method of Whiteboard program, which
-     * simply creates a new Whiteboard
-     * @param args (currently unused)
+     * Streams the shapes of an XML file in on a background
+     * thread, handing them to the event dispatch thread in chunks
      */
-    public static void main(String[] args) {
-        new Whiteboard();
+    private class BoardLoader extends SwingWorker<Void, DShapeModel> {
+        private File file; // the file being loaded
+        private XmlBoardReader reader; // streaming reader over the file
+        private InputStream in; // the open stream of the file
+        private List<DImageModel> waitingImages; // image shapes read before their picture (which comes after the shapes)
+
+        /**
+         * Creates a new loader for the already opened file
+         * @param file the file being loaded
+         * @param reader the streaming reader positioned at the first shape
+         * @param in the open stream of the file (closed when loading ends)
+         */
+        BoardLoader(File file, XmlBoardReader reader, InputStream in) {
+            this.file = file;
+            this.reader = reader;
+            this.in = in;
+            waitingImages = new ArrayList<DImageModel>();
+        }
+
+        /**
+         * Reads the shapes one at a time, publishing each
+         * to the event dispatch thread
+         */
+        @Override
+        protected Void doInBackground() throws Exception {
+            try {
+                DShapeModel model;
+                while(!isCancelled() && (model = reader.next()) != null) {
+                    if(model instanceof DImageModel && !ImageStore.contains(((DImageModel)model).getImageHash())) {
+                        waitingImages.add((DImageModel)model);
+                    }
+                    publish(model);
+                }
+            }
+            finally {
+                reader.close();
+                in.close();
+            }
+            return null;
+        }
+
+        /**
+         * Adds a chunk of loaded shapes to the board (runs on the event dispatch thread)
+         * @param chunk the shapes loaded since the last chunk
+         */
+        @Override
+        protected void process(List<DShapeModel> chunk) {
+            if(!isCancelled()) {
+                addLoadedModels(chunk);
+            }
+        }
+
+        /**
+         * Reports errors and updates clients once loading ends (runs on the event dispatch thread)
+         */
+        @Override
+        protected void done() {
+            if(isCancelled()) {
+                return;
+            }
+            if(boardLoader == this) {
+                boardLoader = null;
+            }
+            try {
+                get();
+
+                // the pictures were read after the shapes: setting the hash again tells every
+                // listener the picture is there (the shape repaints, the journal saves the picture)
+                for(DImageModel model : waitingImages) {
+                    if(ImageStore.contains(model.getImageHash())) {
+                        model.setImageHash(model.getImageHash());
+                    }
+                }
+                boardOpened();
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException ex) {
+                System.err.println("Error opening file \"" + file + "\". Open operation aborted");
+                // ex.printStackTrace();
+            }
+        }
     }
 
     /**
@@ -1008,8 +2014,17 @@ public class Whiteboard extends JFrame {
                     Socket toClient = null;
                     toClient = serverSocket.accept();
 
-                    // add output stream to the list of output streams for sending messages
-                    addOutput(new ObjectOutputStream(toClient.getOutputStream()));
+                    // add output stream to the list of output streams for sending messages (on the event dispatch thread, which owns the board)
+                    final ObjectOutputStream output = new ObjectOutputStream(toClient.getOutputStream());
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            addOutput(output);
+                        }
+                    });
+
+                    // listen for the client reporting what it has in view
+                    new ViewportListener(toClient, output).start();
                 }
             }
             catch(IOException ex) {
@@ -1019,6 +2034,53 @@ public class Whiteboard extends JFrame {
         }
     }
 
+    /**
+     * Server runs one of these per client, reading the areas of
+     * the board the client reports having in view (clients that
+     * never report simply get every change)
+     */
+    private class ViewportListener extends Thread {
+        private Socket toClient; // the socket of the client
+        private ObjectOutputStream output; // the output stream of the client, identifying it to the broadcaster
+
+        /**
+         * Creates a new listener for a client
+         * @param toClient the socket of the client
+         * @param output the output stream of the client
+         */
+        ViewportListener(Socket toClient, ObjectOutputStream output) {
+            super("Whiteboard viewport listener");
+            setDaemon(true);
+            this.toClient = toClient;
+            this.output = output;
+        }
+
+        /**
+         * Reads viewport reports until the client disconnects
+         */
+        public void run() {
+            try {
+                // plain data (not serialized objects), so clients can never make the server build arbitrary objects
+                DataInputStream in = new DataInputStream(new BufferedInputStream(toClient.getInputStream()));
+                while(true) {
+                    String instruction = in.readUTF();
+                    if(instruction.equals("viewport")) {
+                        Rectangle viewport = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                        if(broadcaster != null) {
+                            broadcaster.setViewport(output, viewport);
+                        }
+                    }
+                    else {
+                        return; // unknown report
+                    }
+                }
+            }
+            catch(IOException ex) {
+                // client disconnected
+            }
+        }
+    }
+
     /**
      * Client runs this for handling incoming messages
      */
@@ -1046,33 +2108,82 @@ public class Whiteboard extends JFrame {
                 Socket toServer = new Socket(name, port); // connect to server with given name / port
                 ObjectInputStream in = new ObjectInputStream(toServer.getInputStream()); // get input stream to read from server
 
-                while(true) {
-                    String instructionString = (String)in.readObject(); // get incoming instruction from server
-                    String xmlModelString = (String)in.readObject(); // get incoming model from server
-
-                    // decode the incoming model from the server
-                    XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(xmlModelString.getBytes()));
-                    DShapeModel updatedModel = (DShapeModel)decoder.readObject();
-
-                    if(instructionString.equals("add")) { // added a new shape
-                        addShapeModel(updatedModel);
-                    }
-                    else if(instructionString.equals("remove")) { // remove a shape
-                        removeShapeModel(updatedModel);
-                    }
-                    else if(instructionString.equals("front")) { // move model to front
-                        moveShapeModelToFront(updatedModel);
-                    }
-                    else if(instructionString.equals("back")) { // move model to back
-                        moveShapeModelToBack(updatedModel);
+                // report the area in view to the server now and whenever it changes (off the event dispatch thread)
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(toServer.getOutputStream()));
+                Thread viewportReporter = new Thread("Whiteboard viewport reporter") {
+                    @Override
+                    public void run() {
+                        try {
+                            while(true) {
+                                Rectangle viewport = viewportReports.take();
+                                Rectangle newer;
+                                while((newer = viewportReports.poll()) != null) { // only the latest area matters
+                                    viewport = newer;
+                                }
+                                out.writeUTF("viewport");
+                                out.writeInt(viewport.x);
+                                out.writeInt(viewport.y);
+                                out.writeInt(viewport.width);
+                                out.writeInt(viewport.height);
+                                out.flush();
+                            }
+                        }
+                        catch(InterruptedException ex) {
+                            // stop reporting
+                        }
+                        catch(IOException ex) {
+                            // lost connection with server
+                        }
                     }
-                    else if(instructionString.equals("change")) { // catch-all for any other change
-                        mimicModel(updatedModel);
+                };
+                viewportReporter.setDaemon(true);
+                viewportReporter.start();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        reportViewport();
                     }
-                    else if(instructionString.equals("clear")) { // empty the whiteboard
-                        clearBoard();
+                });
+
+                while(true) {
+                    final String instructionString = (String)in.readObject(); // get incoming instruction from server
+                    if(instructionString.equals("image")) { // the bytes of a picture that following shapes use
+                        final byte[] imageBytes = (byte[])in.readObject();
+                        // stored on the event dispatch thread, in order with the shapes (so it cannot be dropped before they hold it)
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                ImageStore.put(imageBytes); // (stored under the hash of what arrived, so it cannot be mislabeled)
+                            }
+                        });
+                        continue;
                     }
+                    String xmlModelString = (String)in.readObject(); // get incoming model from server
+                    final WhiteboardEvents.ClientMessageEvent messageEvent = new WhiteboardEvents.ClientMessageEvent();
+                    messageEvent.begin();
 
+                    // decode the incoming model from the server (off the event dispatch thread)
+                    long decodeStart = System.nanoTime();
+                    XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(xmlModelString.getBytes()));
+                    final DShapeModel updatedModel = (DShapeModel)decoder.readObject();
+                    final long decodeTime = System.nanoTime() - decodeStart;
+                    final long messageBytes = instructionString.length() + xmlModelString.length(); // the XML is ASCII, so one byte per character
+                    monitor.recordOperation(messageBytes);
+
+                    // apply it on the event dispatch thread, the only thread that changes the board
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            applyServerMessage(instructionString, updatedModel);
+                            messageEvent.end();
+                            if(messageEvent.shouldCommit()) {
+                                messageEvent.instruction = instructionString;
+                                messageEvent.bytes = messageBytes;
+                                messageEvent.decodeTime = decodeTime;
+                                messageEvent.commit();
+                            }
+                        }
+                    });
                 }
             }
             catch(Exception ex) { // this exception gets thrown if we close server while client(s) are open
@@ -0,0 +1,143 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom Flight Recorder events of the whiteboard. Each event times
+ * one networking / painting / file operation; they cost next to
+ * nothing unless a recording has them enabled, and show up under
+ * "Whiteboard" in JDK Mission Control or "jfr print"
+ */
+public class WhiteboardEvents {
+
+    /**
+     * WhiteboardEvents only holds the event classes, so it is never constructed
+     */
+    private WhiteboardEvents() {
+    }
+
+    /**
+     * A board operation encoded and sent to every client by the server
+     */
+    @Name("whiteboard.Message")
+    @Label("Message Clients")
+    @Category("Whiteboard")
+    @Description("A board operation encoded and sent to every client")
+    public static class MessageEvent extends Event {
+        @Label("Instruction")
+        public String instruction;
+
+        @Label("Clients")
+        public int clients;
+
+        @Label("Message Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * The whole board sent to a client so it matches the server
+     */
+    @Name("whiteboard.ClientSetup")
+    @Label("Client Setup")
+    @Category("Whiteboard")
+    @Description("The whole board sent to a client so it matches the server")
+    public static class ClientSetupEvent extends Event {
+        @Label("Shapes")
+        public int shapes;
+
+        @Label("Bytes Sent")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * A lagging client's queued operations dropped, to be replaced by a snapshot
+     */
+    @Name("whiteboard.ClientLag")
+    @Label("Client Lag")
+    @Category("Whiteboard")
+    @Description("A client fell too far behind: its queued operations were dropped and it gets a fresh snapshot")
+    public static class ClientLagEvent extends Event {
+        @Label("Dropped Messages")
+        public int droppedMessages;
+
+        @Label("Dropped Bytes")
+        @DataAmount
+        public long droppedBytes;
+
+        @Label("Backlog Age")
+        @Timespan(Timespan.MILLISECONDS)
+        public long backlogAge;
+    }
+
+    /**
+     * A board operation received, decoded and applied by a client
+     */
+    @Name("whiteboard.ClientMessage")
+    @Label("Client Message")
+    @Category("Whiteboard")
+    @Description("A board operation received from the server, decoded and applied")
+    public static class ClientMessageEvent extends Event {
+        @Label("Instruction")
+        public String instruction;
+
+        @Label("Message Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Decode Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long decodeTime;
+    }
+
+    /**
+     * A repaint of the canvas
+     */
+    @Name("whiteboard.Paint")
+    @Label("Canvas Paint")
+    @Category("Whiteboard")
+    @Description("A repaint of the canvas")
+    public static class PaintEvent extends Event {
+        @Label("Shapes")
+        public int shapes;
+    }
+
+    /**
+     * A board file opened, from the start of reading until every shape is on the board
+     */
+    @Name("whiteboard.BoardOpen")
+    @Label("Board Open")
+    @Category("Whiteboard")
+    @Description("A board file opened, until every shape is on the board")
+    public static class BoardOpenEvent extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Shapes")
+        public int shapes;
+    }
+
+    /**
+     * A board file saved, from the snapshot until the file is in place
+     */
+    @Name("whiteboard.BoardSave")
+    @Label("Board Save")
+    @Category("Whiteboard")
+    @Description("A board file saved, until the file is in place")
+    public static class BoardSaveEvent extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Shapes")
+        public int shapes;
+
+        @Label("File Size")
+        @DataAmount
+        public long bytes;
+    }
+}
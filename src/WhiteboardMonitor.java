@@ -0,0 +1,151 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of a whiteboard, published as a platform MBean
+ * (under "whiteboard:type=WhiteboardMonitor") so boards can be
+ * watched with standard JVM tooling and no extra agents
+ */
+public class WhiteboardMonitor implements WhiteboardMonitorMBean {
+
+    private static final long RATE_WINDOW = 1000000000L; // shortest time rates are averaged over (nanoseconds)
+
+    private BoardStatus status; // the whiteboard the counters describe
+    private AtomicLong operations; // board operations sent / received so far
+    private AtomicLong bytes; // message bytes sent / received so far
+    private AtomicLong laggingClientResets; // lagging clients sent a snapshot instead of their backlog so far
+    private long windowStart; // time the current rate window started (nanoseconds)
+    private long windowOperations, windowBytes; // counters when the current rate window started
+    private double operationRate, byteRate; // rates over the last finished window
+
+    /**
+     * The parts of the whiteboard state the monitor reads on
+     * demand (called from JMX threads, so they must be thread safe)
+     */
+    public interface BoardStatus {
+
+        /**
+         * Returns the number of shapes currently on the board
+         * @return the number of shapes on the board
+         */
+        int getShapeCount();
+
+        /**
+         * Returns the number of messages waiting to be sent to each client
+         * @return the queue depth of every connected client
+         */
+        int[] getClientQueueDepths();
+    }
+
+    /**
+     * Creates a new monitor of the whiteboard
+     * @param status the whiteboard state to report
+     */
+    public WhiteboardMonitor(BoardStatus status) {
+        this.status = status;
+        operations = new AtomicLong();
+        bytes = new AtomicLong();
+        laggingClientResets = new AtomicLong();
+        windowStart = System.nanoTime();
+        windowOperations = 0;
+        windowBytes = 0;
+        operationRate = 0;
+        byteRate = 0;
+    }
+
+    /**
+     * Registers the monitor with the platform MBean server (a second
+     * whiteboard in the same JVM gets its own numbered name)
+     */
+    public void register() {
+        try {
+            ObjectName candidate = new ObjectName("whiteboard:type=WhiteboardMonitor");
+            for(int i = 2; ManagementFactory.getPlatformMBeanServer().isRegistered(candidate); i++) {
+                candidate = new ObjectName("whiteboard:type=WhiteboardMonitor,instance=" + i);
+            }
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, candidate);
+        }
+        catch(JMException ex) {
+            System.err.println("Error registering whiteboard monitor MBean. Monitoring disabled");
+            // ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Counts a board operation sent to / received from the network
+     * @param messageBytes the size of the message(s) carrying the operation
+     */
+    public void recordOperation(long messageBytes) {
+        operations.incrementAndGet();
+        bytes.addAndGet(messageBytes);
+    }
+
+    /**
+     * Counts a lagging client whose backlog was replaced by a snapshot
+     */
+    public void recordLaggingClientReset() {
+        laggingClientResets.incrementAndGet();
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return status.getClientQueueDepths().length;
+    }
+
+    @Override
+    public double getOperationsPerSecond() {
+        updateRates();
+        return operationRate;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        updateRates();
+        return byteRate;
+    }
+
+    @Override
+    public long getTotalOperations() {
+        return operations.get();
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public int[] getClientQueueDepths() {
+        return status.getClientQueueDepths();
+    }
+
+    @Override
+    public long getLaggingClientResets() {
+        return laggingClientResets.get();
+    }
+
+    @Override
+    public int getShapesOnBoard() {
+        return status.getShapeCount();
+    }
+
+    /**
+     * Finishes the current rate window if it has lasted long enough
+     * (so rates are averaged since the previous reading, over at least a second)
+     */
+    private synchronized void updateRates() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if(elapsed >= RATE_WINDOW) {
+            long currentOperations = operations.get();
+            long currentBytes = bytes.get();
+            operationRate = (currentOperations - windowOperations) * 1e9 / elapsed;
+            byteRate = (currentBytes - windowBytes) * 1e9 / elapsed;
+            windowStart = now;
+            windowOperations = currentOperations;
+            windowBytes = currentBytes;
+        }
+    }
+}
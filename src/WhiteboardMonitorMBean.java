@@ -0,0 +1,57 @@
+/**
+ * Management interface of the live whiteboard counters, readable
+ * with standard JMX tools such as JConsole or VisualVM
+ */
+public interface WhiteboardMonitorMBean {
+
+    /**
+     * Returns the number of clients connected to this server
+     * @return the number of connected clients
+     */
+    int getConnectedClients();
+
+    /**
+     * Returns the number of board operations sent / received per
+     * second, averaged since the previous reading
+     * @return the board operations per second
+     */
+    double getOperationsPerSecond();
+
+    /**
+     * Returns the number of message bytes sent / received per
+     * second, averaged since the previous reading
+     * @return the message bytes per second
+     */
+    double getBytesPerSecond();
+
+    /**
+     * Returns the number of board operations sent / received so far
+     * @return the total number of board operations
+     */
+    long getTotalOperations();
+
+    /**
+     * Returns the number of message bytes sent / received so far
+     * @return the total number of message bytes
+     */
+    long getTotalBytes();
+
+    /**
+     * Returns the number of messages waiting to be sent to each client
+     * @return the queue depth of every connected client
+     */
+    int[] getClientQueueDepths();
+
+    /**
+     * Returns the number of times a lagging client had its queued
+     * messages dropped and was sent a fresh snapshot instead
+     * @return the number of lagging client resets
+     */
+    long getLaggingClientResets();
+
+    /**
+     * Returns the number of shapes currently on the board
+     * @return the number of shapes on the board
+     */
+    int getShapesOnBoard();
+}
@@ -0,0 +1,645 @@
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming (StAX) reader for whiteboard files written by
+ * XMLEncoder (the DShapeModel[] documents saved by Whiteboard).
+ * Instead of decoding the whole array at once like XMLDecoder,
+ * it hands back one model at a time, so a board can be shown while
+ * it is still loading and only the current model is ever being parsed.
+ * Only the subset of the XMLEncoder schema used by shape models is
+ * understood (and only the whiteboard's own classes are created).
+ * Boards with pictures end with a String[] of the Base64 encoded
+ * bytes of every picture, which are added to the ImageStore once the
+ * last shape was read (image shapes read before then have no picture
+ * yet). Files with the picture table ahead of the shapes, as written
+ * before, are read as well
+ */
+public class XmlBoardReader {
+
+    private XMLStreamReader reader; // the underlying StAX reader
+    private Map<String, Object> objectsById; // objects given an id in the current shape element (for idref lookups)
+    private PackedValues integersById; // integers given an id anywhere in the document (XMLEncoder shares its cached boxed integers between shapes)
+    private PackedValues pointsById; // points given an id anywhere in the document, packed as (x, y)
+    private Map<String, Object> valuesById; // other immutable values given an id anywhere in the document (strings, colors, fonts, ...)
+    private int length; // number of shapes the document says it holds (-1 if unknown)
+    private boolean finished; // true once the end of the shape array was reached
+
+    /**
+     * Creates a new reader over the argument stream, reading any
+     * leading picture table and up to the start of the shape array
+     * @param in the stream of an XML whiteboard file
+     * @throws IOException if the stream is not a whiteboard XML document
+     */
+    public XmlBoardReader(InputStream in) throws IOException {
+        objectsById = new HashMap<String, Object>();
+        integersById = new PackedValues("Integer");
+        pointsById = new PackedValues("Point");
+        valuesById = new HashMap<String, Object>();
+        finished = false;
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false); // a board never has a DTD, and an untrusted file must not
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false); // make the reader fetch files or URLs
+            reader = factory.createXMLStreamReader(in);
+            reader.nextTag();
+            requireStart("java");
+            reader.nextTag();
+            requireStart("array");
+            if("java.lang.String".equals(reader.getAttributeValue(null, "class"))) { // the picture table
+                readImages();
+                reader.nextTag();
+                requireStart("array");
+            }
+            String lengthAttribute = reader.getAttributeValue(null, "length");
+            length = lengthAttribute == null ? -1 : Integer.parseInt(lengthAttribute);
+        }
+        catch(XMLStreamException ex) {
+            throw new IOException("Not a whiteboard XML document", ex);
+        }
+        catch(IllegalArgumentException ex) { // bad numbers / Base64 in the header
+            throw new IOException("Not a whiteboard XML document", ex);
+        }
+    }
+
+    /**
+     * Reads the picture table the reader is at, adding every
+     * picture to the ImageStore and leaving the reader at the
+     * end of the table
+     * @throws XMLStreamException if the table is malformed
+     */
+    private void readImages() throws XMLStreamException {
+        while(reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            requireStart("void"); // <void index="n">
+            reader.nextTag();
+            requireStart("string");
+            ImageStore.put(Base64.getMimeDecoder().decode(reader.getElementText().trim()));
+            reader.nextTag(); // </void>
+        }
+    }
+
+    /**
+     * Returns the number of shapes the document says it holds
+     * @return the number of shapes in the document, or -1 if unknown
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Reads the next shape model of the document
+     * @return the next shape model, or null once every model was read
+     * @throws IOException if the document is malformed
+     */
+    public DShapeModel next() throws IOException {
+        if(finished) {
+            return null;
+        }
+        try {
+            if(reader.nextTag() == XMLStreamConstants.END_ELEMENT) { // end of the shape array
+                finished = true;
+                if(reader.nextTag() == XMLStreamConstants.START_ELEMENT) { // the picture table
+                    requireStart("array");
+                    readImages();
+                }
+                return null;
+            }
+            requireStart("void"); // <void index="n">
+            Object value = null;
+            while(reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if(reader.getLocalName().equals("void")) { // expression that only defines ids used by the value
+                    evaluateStatement(null);
+                }
+                else {
+                    value = parseValue();
+                }
+            }
+            keepValues();
+            if(!(value instanceof DShapeModel)) {
+                throw new IOException("Expected a shape model but found " + value);
+            }
+            return (DShapeModel)value;
+        }
+        catch(XMLStreamException ex) {
+            throw new IOException("Malformed whiteboard XML document", ex);
+        }
+        catch(RuntimeException ex) { // bad numbers / casts mean the document is malformed
+            throw new IOException("Malformed whiteboard XML document", ex);
+        }
+    }
+
+    /**
+     * Closes the reader (the underlying stream is not closed)
+     */
+    public void close() {
+        try {
+            reader.close();
+        }
+        catch(XMLStreamException ex) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * Parses the value element the reader is at, leaving the
+     * reader at the end of that element
+     * @return the parsed value
+     * @throws XMLStreamException if the element is malformed or unsupported
+     */
+    private Object parseValue() throws XMLStreamException {
+        String name = reader.getLocalName();
+        if(name.equals("int")) {
+            return Integer.valueOf(reader.getElementText().trim());
+        }
+        else if(name.equals("string")) {
+            return reader.getElementText();
+        }
+        else if(name.equals("boolean")) {
+            return Boolean.valueOf(reader.getElementText().trim());
+        }
+        else if(name.equals("null")) {
+            reader.nextTag();
+            return null;
+        }
+        else if(name.equals("object")) {
+            String idref = reader.getAttributeValue(null, "idref");
+            if(idref != null) { // reference to an earlier object
+                reader.nextTag();
+                return lookup(idref);
+            }
+            String className = reader.getAttributeValue(null, "class");
+            String id = reader.getAttributeValue(null, "id");
+
+            DShapeModel model = newModel(className);
+            if(model != null) { // shape models are built through statements on the new model
+                register(id, model);
+                while(reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    requireStart("void");
+                    evaluateStatement(model);
+                }
+                return model;
+            }
+
+            // anything else is built from its constructor arguments
+            List<Object> arguments = new ArrayList<Object>();
+            while(reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if(reader.getLocalName().equals("void")) { // expression that only defines ids used by the arguments
+                    evaluateStatement(null);
+                }
+                else {
+                    arguments.add(parseValue());
+                }
+            }
+            Object value = construct(className, arguments);
+            register(id, value);
+            return value;
+        }
+        throw new XMLStreamException("Unsupported element <" + name + ">", reader.getLocation());
+    }
+
+    /**
+     * Evaluates the void statement the reader is at (a property
+     * get / set or a method call), leaving the reader at the end of
+     * the statement. Like XMLDecoder, arguments are the value elements
+     * inside the statement, and nested statements without their own
+     * class apply to the result of this one. XMLEncoder also uses nested
+     * statements with their own class (such as reading a public field
+     * of an earlier object) purely to define ids that later arguments
+     * refer to
+     * @param target the object the statement applies to (if it has no class of its own)
+     * @return the result of the statement
+     * @throws XMLStreamException if the statement is malformed or unsupported
+     */
+    private Object evaluateStatement(Object target) throws XMLStreamException {
+        String className = reader.getAttributeValue(null, "class");
+        String method = reader.getAttributeValue(null, "method");
+        String property = reader.getAttributeValue(null, "property");
+        String id = reader.getAttributeValue(null, "id");
+        if(className != null) {
+            target = new ClassReference(className);
+        }
+
+        List<Object> arguments = new ArrayList<Object>();
+        Object result = null;
+        boolean evaluated = false;
+        int evaluatedArguments = 0; // number of arguments the statement was evaluated with
+        while(reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if(reader.getLocalName().equals("void")) {
+                boolean independent = reader.getAttributeValue(null, "class") != null;
+                if(!evaluated && (!independent || (id != null && arguments.isEmpty()))) {
+                    // the nested statement needs the result (or the id) of this statement first
+                    result = apply(target, method, property, arguments);
+                    register(id, result);
+                    evaluated = true;
+                    evaluatedArguments = arguments.size();
+                }
+                evaluateStatement(independent ? null : result);
+            }
+            else {
+                arguments.add(parseValue());
+            }
+        }
+        if(!evaluated || arguments.size() > evaluatedArguments) {
+            result = apply(target, method, property, arguments);
+            register(id, result);
+        }
+        return result;
+    }
+
+    /**
+     * Applies a single statement (the subset XMLEncoder writes for shape models)
+     * @param target the object the statement applies to
+     * @param method the name of the method called (null for property statements)
+     * @param property the name of the property read / written (null for method calls)
+     * @param arguments the arguments of the statement
+     * @return the result of the statement
+     * @throws XMLStreamException if the statement is not supported
+     */
+    private Object apply(Object target, String method, String property, List<Object> arguments) throws XMLStreamException {
+        if(property != null && target instanceof DShapeModel) {
+            if(arguments.isEmpty()) { // property read
+                return getProperty((DShapeModel)target, property);
+            }
+            setProperty((DShapeModel)target, property, arguments.get(0));
+            return null;
+        }
+        else if("getField".equals(method) && target instanceof ClassReference
+                && ((ClassReference)target).name.equals("java.awt.Point") && arguments.size() == 1) {
+            return new PointField((String)arguments.get(0));
+        }
+        else if(target instanceof PointField) {
+            PointField field = (PointField)target;
+            if("get".equals(method) && arguments.size() == 1) {
+                return field.get((Point)arguments.get(0));
+            }
+            else if("set".equals(method) && arguments.size() == 2) {
+                field.set((Point)arguments.get(0), (Integer)arguments.get(1));
+                return null;
+            }
+        }
+        throw new XMLStreamException("Unsupported statement (method = " + method + ", property = " + property + ")", reader.getLocation());
+    }
+
+    /**
+     * Returns the current value of a property of the model
+     * @param model the model to read from
+     * @param property the name of the property
+     * @return the current value of the property
+     * @throws XMLStreamException if the property is not supported
+     */
+    private Object getProperty(DShapeModel model, String property) throws XMLStreamException {
+        if(property.equals("x")) {
+            return model.getX();
+        }
+        else if(property.equals("y")) {
+            return model.getY();
+        }
+        else if(property.equals("width")) {
+            return model.getWidth();
+        }
+        else if(property.equals("height")) {
+            return model.getHeight();
+        }
+        else if(property.equals("id")) {
+            return model.getId();
+        }
+        else if(property.equals("color")) {
+            return model.getColor();
+        }
+        else if(property.equals("p1") && model instanceof DLineModel) {
+            return ((DLineModel)model).getP1();
+        }
+        else if(property.equals("p2") && model instanceof DLineModel) {
+            return ((DLineModel)model).getP2();
+        }
+        else if(property.equals("text") && model instanceof DTextModel) {
+            return ((DTextModel)model).getText();
+        }
+        else if(property.equals("textFont") && model instanceof DTextModel) {
+            return ((DTextModel)model).getTextFont();
+        }
+        else if(property.equals("imageHash") && model instanceof DImageModel) {
+            return ((DImageModel)model).getImageHash();
+        }
+        throw new XMLStreamException("Unsupported property \"" + property + "\"", reader.getLocation());
+    }
+
+    /**
+     * Sets a property of the model to the argument value
+     * (unknown properties are ignored)
+     * @param model the model to change
+     * @param property the name of the property
+     * @param value the new value of the property
+     */
+    private void setProperty(DShapeModel model, String property, Object value) {
+        if(property.equals("x")) {
+            model.setX((Integer)value);
+        }
+        else if(property.equals("y")) {
+            model.setY((Integer)value);
+        }
+        else if(property.equals("width")) {
+            model.setWidth((Integer)value);
+        }
+        else if(property.equals("height")) {
+            model.setHeight((Integer)value);
+        }
+        else if(property.equals("id")) {
+            model.setId((Integer)value);
+        }
+        else if(property.equals("color")) {
+            model.setColor((Color)value);
+        }
+        else if(property.equals("p1") && model instanceof DLineModel) {
+            ((DLineModel)model).setP1((Point)value);
+        }
+        else if(property.equals("p2") && model instanceof DLineModel) {
+            ((DLineModel)model).setP2((Point)value);
+        }
+        else if(property.equals("text") && model instanceof DTextModel) {
+            ((DTextModel)model).setText((String)value);
+        }
+        else if(property.equals("textFont") && model instanceof DTextModel) {
+            ((DTextModel)model).setTextFont((Font)value);
+        }
+        else if(property.equals("imageHash") && model instanceof DImageModel) {
+            ((DImageModel)model).setImageHash((String)value);
+        }
+    }
+
+    /**
+     * Creates a new shape model for the class name
+     * @param className the fully qualified class name
+     * @return a new model of that class, or null if it is not a shape model class
+     */
+    private static DShapeModel newModel(String className) {
+        if("DRectModel".equals(className)) {
+            return new DRectModel();
+        }
+        else if("DOvalModel".equals(className)) {
+            return new DOvalModel();
+        }
+        else if("DLineModel".equals(className)) {
+            return new DLineModel();
+        }
+        else if("DTextModel".equals(className)) {
+            return new DTextModel();
+        }
+        else if("DImageModel".equals(className)) {
+            return new DImageModel();
+        }
+        else if("DShapeModel".equals(className)) {
+            return new DShapeModel();
+        }
+        return null;
+    }
+
+    /**
+     * Constructs a value object from its class name and constructor arguments
+     * @param className the fully qualified class name
+     * @param arguments the constructor arguments
+     * @return the constructed object
+     * @throws XMLStreamException if the class / arguments are not supported
+     */
+    private Object construct(String className, List<Object> arguments) throws XMLStreamException {
+        if("java.awt.Color".equals(className) && (arguments.size() == 3 || arguments.size() == 4)) {
+            int alpha = arguments.size() == 4 ? (Integer)arguments.get(3) : 255;
+            return new Color((Integer)arguments.get(0), (Integer)arguments.get(1), (Integer)arguments.get(2), alpha);
+        }
+        else if("java.awt.Font".equals(className) && arguments.size() == 3) {
+            return new Font((String)arguments.get(0), (Integer)arguments.get(1), (Integer)arguments.get(2));
+        }
+        else if("java.awt.Point".equals(className) && arguments.size() == 0) {
+            return new Point();
+        }
+        else if("java.awt.Point".equals(className) && arguments.size() == 2) {
+            return new Point((Integer)arguments.get(0), (Integer)arguments.get(1));
+        }
+        throw new XMLStreamException("Unsupported object of class " + className, reader.getLocation());
+    }
+
+    /**
+     * Returns the object remembered under the document id
+     * @param idref the id to look up
+     * @return the object with that id
+     * @throws XMLStreamException if no object has that id
+     */
+    private Object lookup(String idref) throws XMLStreamException {
+        if(objectsById.containsKey(idref)) {
+            return objectsById.get(idref);
+        }
+        if(integersById.contains(idref)) {
+            return Integer.valueOf((int)integersById.get(idref));
+        }
+        if(pointsById.contains(idref)) {
+            long packed = pointsById.get(idref);
+            return new Point((int)(packed >> 32), (int)packed);
+        }
+        if(valuesById.containsKey(idref)) {
+            return valuesById.get(idref);
+        }
+        throw new XMLStreamException("Unknown idref \"" + idref + "\"", reader.getLocation());
+    }
+
+    /**
+     * Remembers an object under its document id, until
+     * the shape it belongs to is handed out
+     * @param id the id of the object (null if it has none)
+     * @param value the object
+     */
+    private void register(String id, Object value) {
+        if(id != null) {
+            objectsById.put(id, value);
+        }
+    }
+
+    /**
+     * Forgets the ids of the shape just read, except those of values
+     * a later shape may refer to. XMLEncoder gives a value used by
+     * several shapes (such as a shared color, or one of its cached
+     * boxed integers) an id in the first of them and refers back to it
+     * from the later ones, so every immutable value is kept for the
+     * whole document: integers and points packed into arrays, the few
+     * others as they are. The models and the results of statements
+     * are dropped
+     */
+    private void keepValues() {
+        for(Map.Entry<String, Object> entry : objectsById.entrySet()) {
+            String id = entry.getKey();
+            Object value = entry.getValue();
+            if(value instanceof Integer) {
+                if(!integersById.put(id, (Integer)value)) {
+                    valuesById.put(id, value);
+                }
+            }
+            else if(value instanceof Point) { // (kept as it is once its shape is read, after its fields were set)
+                Point point = (Point)value;
+                if(!pointsById.put(id, ((long)point.x << 32) | (point.y & 0xFFFFFFFFL))) {
+                    valuesById.put(id, new Point(point));
+                }
+            }
+            else if(value instanceof String || value instanceof Color || value instanceof Font || value instanceof Boolean ||
+                    value instanceof Character || value instanceof Number) {
+                valuesById.put(id, value);
+            }
+        }
+        objectsById.clear();
+    }
+
+    /**
+     * Checks that the reader is at the start of the named element
+     * @param name the expected element name
+     * @throws XMLStreamException if the reader is somewhere else
+     */
+    private void requireStart(String name) throws XMLStreamException {
+        if(reader.getEventType() != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals(name)) {
+            throw new XMLStreamException("Expected <" + name + ">", reader.getLocation());
+        }
+    }
+
+    /**
+     * Values given ids of the form [prefix][number] (the form
+     * XMLEncoder names ids in), stored by number in a growing
+     * array of longs instead of a map entry and object per id
+     */
+    private static class PackedValues {
+        private String prefix; // prefix of the ids (the unqualified class name of the values)
+        private long[] values; // the value of every id, by the number of the id
+        private BitSet present; // numbers of the ids given a value
+
+        /**
+         * Creates a new empty table for ids with the prefix
+         * @param prefix the prefix of the ids
+         */
+        PackedValues(String prefix) {
+            this.prefix = prefix;
+            values = new long[16];
+            present = new BitSet();
+        }
+
+        /**
+         * Stores the value of an id
+         * @param id the id
+         * @param value the value
+         * @return true if stored, false if the id is not of the form [prefix][number]
+         */
+        boolean put(String id, long value) {
+            int number = numberOf(id);
+            if(number < 0) {
+                return false;
+            }
+            if(number >= values.length) {
+                values = Arrays.copyOf(values, Math.max(number + 1, values.length * 2));
+            }
+            values[number] = value;
+            present.set(number);
+            return true;
+        }
+
+        /**
+         * Checks whether an id has a value
+         * @param id the id
+         * @return true if the id was given a value
+         */
+        boolean contains(String id) {
+            int number = numberOf(id);
+            return number >= 0 && present.get(number);
+        }
+
+        /**
+         * Returns the value of an id (which must have one)
+         * @param id the id
+         * @return the value of the id
+         */
+        long get(String id) {
+            return values[numberOf(id)];
+        }
+
+        /**
+         * Returns the number in an id of the form [prefix][number]
+         * @param id the id
+         * @return the number, or -1 if the id has another form
+         */
+        private int numberOf(String id) {
+            int length = id.length();
+            if(!id.startsWith(prefix) || length == prefix.length() || length - prefix.length() > 9) {
+                return -1;
+            }
+            int number = 0;
+            for(int i = prefix.length(); i < length; i++) {
+                char c = id.charAt(i);
+                if(c < '0' || c > '9') {
+                    return -1;
+                }
+                number = number * 10 + (c - '0');
+            }
+            return number;
+        }
+    }
+
+    /**
+     * Stands for a class named in a statement (the target of static calls)
+     */
+    private static class ClassReference {
+        private String name; // fully qualified name of the class
+
+        /**
+         * Creates a new class reference
+         * @param name the fully qualified name of the class
+         */
+        ClassReference(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Stands for a public field of java.awt.Point (the only
+     * reflective field access XMLEncoder writes for shape models)
+     */
+    private static class PointField {
+        private String name; // name of the field ("x" or "y")
+
+        /**
+         * Creates a new point field reference
+         * @param name the name of the field
+         */
+        PointField(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the value of this field of the point
+         * @param point the point to read
+         * @return the value of the field
+         */
+        Integer get(Point point) {
+            return name.equals("x") ? point.x : point.y;
+        }
+
+        /**
+         * Sets this field of the point
+         * @param point the point to change
+         * @param value the new value of the field
+         */
+        void set(Point point, int value) {
+            if(name.equals("x")) {
+                point.x = value;
+            }
+            else {
+                point.y = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,507 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * List of DShapes in z-order (index 0 is the back, the last index
+ * is the front). It is kept as an implicit treap (a randomized
+ * balanced tree ordered by position, with subtree sizes), so moving
+ * a shape to the front / back, removing a shape and finding the
+ * position of a shape all take O(log n), while iteration in paint
+ * order stays linear. A single ZOrderList is shared by the canvas
+ * and the shape table so the order is only kept in one place
+ */
+public class ZOrderList extends AbstractList<DShape> {
+
+    private Node root; // root of the treap (null when empty)
+    private Map<DShape, Node> nodes; // node holding each shape in the list
+    private int seed; // state of the pseudo-random generator used for node priorities
+
+    /**
+     * Constructs a new, empty ZOrderList
+     */
+    public ZOrderList() {
+        root = null;
+        nodes = new IdentityHashMap<DShape, Node>();
+        seed = 0x2545F491;
+    }
+
+    /**
+     * Returns the number of shapes in the list
+     * @return the number of shapes in the list
+     */
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns the shape at the specified z-position
+     * @param index the z-position of the shape (0 is the back)
+     * @return the shape at the specified z-position
+     */
+    @Override
+    public DShape get(int index) {
+        checkIndex(index, size());
+        Node node = root;
+        while(true) {
+            int leftSize = size(node.left);
+            if(index < leftSize) {
+                node = node.left;
+            }
+            else if(index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+            else {
+                return node.shape;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the argument shape is in the list (constant time)
+     * @param o the shape to look for
+     * @return true if the argument shape is in the list
+     */
+    @Override
+    public boolean contains(Object o) {
+        return nodes.containsKey(o);
+    }
+
+    /**
+     * Returns the z-position of the argument shape in O(log n)
+     * @param o the shape to find
+     * @return the z-position of the shape, or -1 if it is not in the list
+     */
+    @Override
+    public int indexOf(Object o) {
+        Node node = nodes.get(o);
+        if(node == null) {
+            return -1;
+        }
+        int index = size(node.left);
+        while(node.parent != null) { // climb up, adding everything to the left of the path
+            if(node == node.parent.right) {
+                index += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the z-position of the argument shape (a shape
+     * is never in the list more than once)
+     * @param o the shape to find
+     * @return the z-position of the shape, or -1 if it is not in the list
+     */
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    /**
+     * Adds the argument shape to the front of the list
+     * @param shape the shape to add
+     * @return true (as specified by Collection.add)
+     */
+    @Override
+    public boolean add(DShape shape) {
+        add(size(), shape);
+        return true;
+    }
+
+    /**
+     * Inserts the argument shape at the specified z-position
+     * @param index the z-position to insert at
+     * @param shape the shape to insert (must not already be in the list)
+     */
+    @Override
+    public void add(int index, DShape shape) {
+        checkIndex(index, size() + 1);
+        if(shape == null || nodes.containsKey(shape)) {
+            throw new IllegalArgumentException("Shape is null or already in the z-order: " + shape);
+        }
+        Node node = new Node(shape, nextPriority());
+        nodes.put(shape, node);
+        insertNode(index, node);
+        modCount++;
+    }
+
+    /**
+     * Adds every shape of the collection to the front of the list,
+     * in iteration order. The new shapes are built into a balanced
+     * tree in linear time and joined to the existing tree at once,
+     * instead of being inserted one by one
+     * @param shapes the shapes to add (none may already be in the list)
+     * @return true if the list changed
+     */
+    @Override
+    public boolean addAll(Collection<? extends DShape> shapes) {
+        if(shapes.isEmpty()) {
+            return false;
+        }
+
+        // build a treap of the new nodes with a stack (the right spine of the tree built so far)
+        List<Node> spine = new ArrayList<Node>();
+        for(DShape shape : shapes) {
+            if(shape == null || nodes.containsKey(shape)) {
+                throw new IllegalArgumentException("Shape is null or already in the z-order: " + shape);
+            }
+            Node node = new Node(shape, nextPriority());
+            nodes.put(shape, node);
+            Node last = null;
+            while(!spine.isEmpty() && spine.get(spine.size() - 1).priority < node.priority) {
+                last = spine.remove(spine.size() - 1);
+            }
+            node.left = last;
+            if(!spine.isEmpty()) {
+                spine.get(spine.size() - 1).right = node;
+            }
+            spine.add(node);
+        }
+        Node built = spine.get(0);
+        fixSubtree(built);
+        built.parent = null;
+
+        root = merge(root, built);
+        root.parent = null;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Removes the shape at the specified z-position
+     * @param index the z-position of the shape to remove
+     * @return the removed shape
+     */
+    @Override
+    public DShape remove(int index) {
+        checkIndex(index, size());
+        Node node = detachNode(index);
+        nodes.remove(node.shape);
+        modCount++;
+        return node.shape;
+    }
+
+    /**
+     * Removes the argument shape from the list in O(log n)
+     * @param o the shape to remove
+     * @return true if the shape was in the list
+     */
+    @Override
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if(index == -1) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Removes every shape from the list
+     */
+    @Override
+    public void clear() {
+        root = null;
+        nodes.clear();
+        modCount++;
+    }
+
+    /**
+     * Moves the argument shape to the front of the list in O(log n)
+     * @param shape the shape to move
+     * @return the z-position the shape had before moving, or -1 if it is not in the list
+     */
+    public int moveToFront(DShape shape) {
+        return move(shape, true);
+    }
+
+    /**
+     * Moves the argument shape to the back of the list in O(log n)
+     * @param shape the shape to move
+     * @return the z-position the shape had before moving, or -1 if it is not in the list
+     */
+    public int moveToBack(DShape shape) {
+        return move(shape, false);
+    }
+
+    /**
+     * Returns an iterator over the shapes from back to front
+     * @return an iterator over the shapes from back to front
+     */
+    @Override
+    public Iterator<DShape> iterator() {
+        return new TreeIterator(true);
+    }
+
+    /**
+     * Returns an iterator over the shapes from front to back
+     * (the order used for hit-testing)
+     * @return an iterator over the shapes from front to back
+     */
+    public Iterator<DShape> descendingIterator() {
+        return new TreeIterator(false);
+    }
+
+    /**
+     * Moves the argument shape to one end of the list
+     * @param shape the shape to move
+     * @param toFront true to move to the front, false to move to the back
+     * @return the z-position the shape had before moving, or -1 if it is not in the list
+     */
+    private int move(DShape shape, boolean toFront) {
+        int oldIndex = indexOf(shape);
+        if(oldIndex != -1) {
+            Node node = detachNode(oldIndex);
+            insertNode(toFront ? size() : 0, node);
+            modCount++;
+        }
+        return oldIndex;
+    }
+
+    /**
+     * Inserts an unlinked node at the specified position
+     * @param index the position to insert at
+     * @param node the node to insert
+     */
+    private void insertNode(int index, Node node) {
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        node.size = 1;
+        Node[] parts = split(root, index);
+        root = merge(merge(parts[0], node), parts[1]);
+        root.parent = null;
+    }
+
+    /**
+     * Unlinks and returns the node at the specified position
+     * @param index the position of the node to unlink
+     * @return the unlinked node
+     */
+    private Node detachNode(int index) {
+        Node[] parts = split(root, index);
+        Node[] rest = split(parts[1], 1);
+        root = merge(parts[0], rest[1]);
+        if(root != null) {
+            root.parent = null;
+        }
+        return rest[0];
+    }
+
+    /**
+     * Splits the tree into the first count nodes and the rest
+     * @param node the root of the tree to split
+     * @param count the number of nodes to put in the left part
+     * @return the roots of the left and right parts
+     */
+    private Node[] split(Node node, int count) {
+        if(node == null) {
+            return new Node[] {null, null};
+        }
+        Node[] parts;
+        if(count <= size(node.left)) {
+            parts = split(node.left, count);
+            node.left = parts[1];
+            update(node);
+            parts[1] = node;
+        }
+        else {
+            parts = split(node.right, count - size(node.left) - 1);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+        }
+        if(parts[0] != null) {
+            parts[0].parent = null;
+        }
+        if(parts[1] != null) {
+            parts[1].parent = null;
+        }
+        return parts;
+    }
+
+    /**
+     * Joins two trees, keeping every node of the first before every node of the second
+     * @param left the root of the tree to put first
+     * @param right the root of the tree to put second
+     * @return the root of the joined tree
+     */
+    private Node merge(Node left, Node right) {
+        if(left == null) {
+            return right;
+        }
+        if(right == null) {
+            return left;
+        }
+        if(left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    /**
+     * Recomputes the subtree size of the node and re-links its children to it
+     * @param node the node to update
+     */
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if(node.left != null) {
+            node.left.parent = node;
+        }
+        if(node.right != null) {
+            node.right.parent = node;
+        }
+    }
+
+    /**
+     * Recomputes the sizes and parent links of a whole subtree
+     * @param node the root of the subtree
+     */
+    private static void fixSubtree(Node node) {
+        if(node.left != null) {
+            fixSubtree(node.left);
+        }
+        if(node.right != null) {
+            fixSubtree(node.right);
+        }
+        update(node);
+    }
+
+    /**
+     * Returns the size of the subtree rooted at the node
+     * @param node the root of the subtree
+     * @return the size of the subtree (0 for null)
+     */
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Returns the next node priority (xorshift pseudo-random numbers)
+     * @return the next node priority
+     */
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    /**
+     * Checks that the index is between 0 (inclusive) and the bound (exclusive)
+     * @param index the index to check
+     * @param bound the exclusive upper bound of the index
+     */
+    private static void checkIndex(int index, int bound) {
+        if(index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+        }
+    }
+
+    /**
+     * A single treap node holding one shape
+     */
+    private static class Node {
+        private DShape shape; // the shape at this position
+        private int priority; // random heap priority that keeps the tree balanced
+        private int size; // number of nodes in the subtree rooted here
+        private Node left, right, parent; // links to the neighbouring nodes
+
+        /**
+         * Creates a new unlinked node
+         * @param shape the shape to hold
+         * @param priority the heap priority of the node
+         */
+        Node(DShape shape, int priority) {
+            this.shape = shape;
+            this.priority = priority;
+            this.size = 1;
+        }
+    }
+
+    /**
+     * In-order iterator that walks the tree through parent links
+     * (amortized constant time per step)
+     */
+    private class TreeIterator implements Iterator<DShape> {
+        private boolean ascending; // true to go back to front, false to go front to back
+        private Node next; // the node to return next
+        private int expectedModCount; // modCount when the iterator was created
+
+        /**
+         * Creates a new iterator starting at one end of the list
+         * @param ascending true to go back to front, false to go front to back
+         */
+        TreeIterator(boolean ascending) {
+            this.ascending = ascending;
+            this.expectedModCount = modCount;
+            next = root;
+            while(next != null && child(next, true) != null) {
+                next = child(next, true);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public DShape next() {
+            if(modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            Node current = next;
+            if(child(current, false) != null) { // successor is the extreme node of the far subtree
+                next = child(current, false);
+                while(child(next, true) != null) {
+                    next = child(next, true);
+                }
+            }
+            else { // successor is the first ancestor reached from the near side
+                Node node = current;
+                next = node.parent;
+                while(next != null && node == child(next, false)) {
+                    node = next;
+                    next = next.parent;
+                }
+            }
+            return current.shape;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Returns the child of the node on the near (start) or far side,
+         * relative to the direction of this iterator
+         * @param node the node to get the child of
+         * @param near true for the child on the side iteration starts from
+         * @return the requested child
+         */
+        private Node child(Node node, boolean near) {
+            return (near == ascending) ? node.left : node.right;
+        }
+    }
+}